@@ -63,6 +63,51 @@ public class Robot {
     private static boolean nd = false;
     
     private static boolean tt = false;
+    
+    /** Flag to indicate whether the vector collision kernel is used. */
+    private static boolean simd = false;
+    
+    /** Name of the world file loaded before the execution. */
+    private static String worldfile = null;
+    
+    /** Resolution of the occupancy map (cells per unit, 0 if disabled). */
+    private static int occupancy = 0;
+    
+    /**
+     * Simulated seconds per wall-clock second (0 for as fast as possible,
+     * negative if not defined: real time with display, fast without it).
+     */
+    private static float timewarp = -1.0f;
+    
+    /** Configuration file of a parameter sweep (null if none). */
+    private static String sweepfile = null;
+    
+    /** Directory for the output of the runs of a sweep (null if none). */
+    private static String sweepout = null;
+    
+    /** Number of threads used to execute a sweep. */
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    
+    /** Noise model of the robot (null if none). */
+    private static NoiseModel noise = null;
+    
+    /** Seed of the random numbers of the noise. */
+    private static long seed = 0;
+    
+    /** Number of Monte Carlo trials (0 if not defined). */
+    private static int trials = 0;
+    
+    /** File of the periodic checkpoints (null if none). */
+    private static String checkpoint = null;
+    
+    /** Number of instructions executed between checkpoints. */
+    private static long ckptperiod = 1000000;
+    
+    /** Checkpoint resumed instead of starting the program (null if none). */
+    private static String resume = null;
+    
+    /** Engine that executes the program. */
+    private static Interp.Engine engine = Interp.Engine.tree;
       
     /** Main program that invokes the parser and the interpreter. */
     
@@ -117,13 +162,58 @@ public class Robot {
             output.close();
         }
 
+        // Pre-processing and linking of the program (only if execution required)
+        Program program = null;
+        if (execute) {
+            try {
+                program = new Program(t);
+            } catch (RuntimeException e) {
+                System.err.println (e.getMessage());
+                System.err.println ("The program has not been executed.");
+                System.exit(1);
+            }
+        }
+
+        // Parameter sweep (option -sweep config) or trials (option -trials K)
+        if (execute && (sweepfile != null || trials > 0)) {
+            int failed = 0;
+            try {
+                Sweep S = new Sweep(program, noise, seed);
+                S.setDefaults(worldfile, occupancy);
+                S.setEngine(engine);
+                if (sweepfile != null) S.load(sweepfile);
+                else S.addTrials(trials);
+                failed = S.run(threads, tt, simd, sweepout);
+                if (trials > 0) S.printStatistics();
+            } catch (IOException e) {
+                System.err.println ("Error: sweep configuration " + sweepfile + ": " + e.getMessage() + ".");
+                System.exit(1);
+            } catch (RuntimeException e) {
+                System.err.println ("Error: " + e.getMessage() + ".");
+                System.exit(1);
+            }
+            System.exit(failed > 0 ? 1 : 0);
+        }
+
         // Start interpretation (only if execution required)
         if (execute) {
             // Creates and prepares the interpreter
             Interp I = null;
             int linenumber = -1;
             try {
-                I = new Interp(t, tracefile); // prepares the interpreter
+                I = new Interp(program, tracefile); // prepares the interpreter
+                if (occupancy > 0) I.setOccupancy(occupancy);
+                if (worldfile != null) I.setWorld(worldfile);
+                if (noise != null) I.setNoise(noise, new SplitMix(seed));
+                if (checkpoint != null) I.setCheckpoint(checkpoint, ckptperiod);
+                if (resume != null) I.setResume(resume);
+                I.setEngine(engine);
+                if (timewarp >= 0.0f) I.setTimeWarp(timewarp);
+                else I.setTimeWarp(nd ? 0.0f : 1.0f);
+                if (simd && I.setVectorKernel() == 0) {
+                    System.err.println ("Warning: the Vector API is not available, " +
+                                        "using the scalar collision test.");
+                }
                 I.Run(nd,tt);                  // Executes the code
             } catch (RuntimeException e) {
                 if (I != null) linenumber = I.lineNumber();
@@ -165,6 +255,72 @@ public class Robot {
                         .create ("trace");
         Option nodisplay = new Option("nodisplay", "do not run the graphical display");
         Option txttrace = new Option("txttrace", "write a trace of the robot actions trough the standart channel");                                
+        Option occmap = OptionBuilder
+                        .withArgName ("cells")
+                        .hasArg()
+                        .withDescription ("use an occupancy map with the given cells per unit for collision tests")
+                        .create ("occupancy");
+        Option world = OptionBuilder
+                        .withArgName ("file")
+                        .hasArg()
+                        .withDescription ("load the obstacles of a binary world file")
+                        .create ("world");
+        Option vector = new Option("simd", "use the vector (SIMD) collision kernel");
+        Option warp = OptionBuilder
+                        .withArgName ("N")
+                        .hasArg()
+                        .withDescription ("run N simulated seconds per second (0 or max: as fast as possible)")
+                        .create ("timewarp");
+        Option sweep = OptionBuilder
+                        .withArgName ("config")
+                        .hasArg()
+                        .withDescription ("run the program once per line of the configuration file, concurrently")
+                        .create ("sweep");
+        Option sweepdir = OptionBuilder
+                        .withArgName ("dir")
+                        .hasArg()
+                        .withDescription ("write the output of each run of a sweep in the directory")
+                        .create ("sweepout");
+        Option nthreads = OptionBuilder
+                        .withArgName ("N")
+                        .hasArg()
+                        .withDescription ("number of threads used by a sweep")
+                        .create ("threads");
+        Option noisespec = OptionBuilder
+                        .withArgName ("spec")
+                        .hasArg()
+                        .withDescription ("noise of the robot (e.g. move=gauss:0.05,turn=uniform:2,feel=0.01:0.02)")
+                        .create ("noise");
+        Option seedopt = OptionBuilder
+                        .withArgName ("n")
+                        .hasArg()
+                        .withDescription ("seed of the random numbers of the noise")
+                        .create ("seed");
+        Option ntrials = OptionBuilder
+                        .withArgName ("K")
+                        .hasArg()
+                        .withDescription ("run K seeded trials concurrently and report their statistics")
+                        .create ("trials");
+        Option ckpt = OptionBuilder
+                        .withArgName ("file")
+                        .hasArg()
+                        .withDescription ("write periodic checkpoints of the execution to file")
+                        .create ("checkpoint");
+        Option period = OptionBuilder
+                        .withArgName ("N")
+                        .hasArg()
+                        .withDescription ("number of instructions between checkpoints (default 1000000)")
+                        .create ("ckptperiod");
+        Option resumeopt = OptionBuilder
+                        .withArgName ("file")
+                        .hasArg()
+                        .withDescription ("resume the execution from a checkpoint")
+                        .create ("resume");
+        Option engineopt = OptionBuilder
+                        .withArgName ("name")
+                        .hasArg()
+                        .withDescription ("engine that executes the program: tree (default), vm, jit or nodes")
+                        .create ("engine");
         Options options = new Options();
         options.addOption(help);
         options.addOption(dot);
@@ -173,6 +329,20 @@ public class Robot {
         options.addOption(noexec);
         options.addOption(nodisplay);
         options.addOption(txttrace);
+        options.addOption(occmap);
+        options.addOption(world);
+        options.addOption(vector);
+        options.addOption(warp);
+        options.addOption(sweep);
+        options.addOption(sweepdir);
+        options.addOption(nthreads);
+        options.addOption(noisespec);
+        options.addOption(seedopt);
+        options.addOption(ntrials);
+        options.addOption(ckpt);
+        options.addOption(period);
+        options.addOption(resumeopt);
+        options.addOption(engineopt);
         CommandLineParser clp = new GnuParser();
         CommandLine line = null;
 
@@ -215,6 +385,120 @@ public class Robot {
         // Option -txttrace
         if (line.hasOption ("txttrace")) tt = true;
 
+        // Option -occupancy cells
+        if (line.hasOption ("occupancy")) {
+            try {
+                occupancy = Integer.parseInt(line.getOptionValue ("occupancy"));
+            } catch (NumberFormatException e) {
+                occupancy = 0;
+            }
+            if (occupancy <= 0) {
+                System.err.println ("Incorrect number of cells for -occupancy.");
+                return false;
+            }
+        }
+
+        // Option -world file
+        if (line.hasOption ("world")) worldfile = line.getOptionValue ("world");
+
+        // Option -simd
+        if (line.hasOption ("simd")) simd = true;
+
+        // Option -timewarp N
+        if (line.hasOption ("timewarp")) {
+            String value = line.getOptionValue ("timewarp");
+            if (value.equals("max")) timewarp = 0.0f;
+            else {
+                try {
+                    timewarp = Float.parseFloat(value);
+                } catch (NumberFormatException e) {
+                    timewarp = -1.0f;
+                }
+                if (!(timewarp >= 0.0f)) {
+                    System.err.println ("Incorrect value for -timewarp.");
+                    return false;
+                }
+            }
+        }
+
+        // Options -sweep config, -sweepout dir and -threads N
+        if (line.hasOption ("sweep")) sweepfile = line.getOptionValue ("sweep");
+        if (line.hasOption ("sweepout")) sweepout = line.getOptionValue ("sweepout");
+        if (line.hasOption ("threads")) {
+            try {
+                threads = Integer.parseInt(line.getOptionValue ("threads"));
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            if (threads <= 0) {
+                System.err.println ("Incorrect number of threads.");
+                return false;
+            }
+        }
+
+        // Options -noise spec, -seed n and -trials K
+        if (line.hasOption ("noise")) {
+            try {
+                noise = new NoiseModel(line.getOptionValue ("noise"));
+            } catch (IllegalArgumentException e) {
+                System.err.println ("Incorrect noise model: " + e.getMessage() + ".");
+                return false;
+            }
+        }
+        if (line.hasOption ("seed")) {
+            try {
+                seed = Long.parseLong(line.getOptionValue ("seed"));
+            } catch (NumberFormatException e) {
+                System.err.println ("Incorrect seed.");
+                return false;
+            }
+        }
+        if (line.hasOption ("trials")) {
+            try {
+                trials = Integer.parseInt(line.getOptionValue ("trials"));
+            } catch (NumberFormatException e) {
+                trials = 0;
+            }
+            if (trials <= 0) {
+                System.err.println ("Incorrect number of trials.");
+                return false;
+            }
+            if (sweepfile != null) {
+                System.err.println ("Options -trials and -sweep cannot be combined.");
+                return false;
+            }
+        }
+
+        if (line.hasOption ("checkpoint")) checkpoint = line.getOptionValue ("checkpoint");
+        if (line.hasOption ("ckptperiod")) {
+            try {
+                ckptperiod = Long.parseLong(line.getOptionValue ("ckptperiod"));
+            } catch (NumberFormatException e) {
+                ckptperiod = 0;
+            }
+            if (ckptperiod <= 0) {
+                System.err.println ("Incorrect checkpoint period.");
+                return false;
+            }
+        }
+        if (line.hasOption ("resume")) resume = line.getOptionValue ("resume");
+        if ((checkpoint != null || resume != null) && (sweepfile != null || trials > 0)) {
+            System.err.println ("Checkpoints cannot be combined with -sweep or -trials.");
+            return false;
+        }
+        if (line.hasOption ("engine")) {
+            try {
+                engine = Interp.Engine.valueOf(line.getOptionValue ("engine"));
+            } catch (IllegalArgumentException e) {
+                System.err.println ("Incorrect engine.");
+                return false;
+            }
+            if (engine != Interp.Engine.tree && (checkpoint != null || resume != null)) {
+                System.err.println ("Checkpoints are only supported by the tree engine.");
+                return false;
+            }
+        }
+
         // Remaining arguments (the input file)
         String[] files = line.getArgs();
         if (files.length != 1) {
@@ -47,6 +47,38 @@ public class AslTree extends CommonTree {
     /** Field to store string literals (without the enclosing quotes) */
     private String strValue;
 
+    /** Value of a literal, shared by all its evaluations (it must not be modified) */
+    private Data data = null;
+
+    /** Builtin called by a function call (null for user functions) */
+    private Builtin builtin = null;
+
+    /** AST of the user function called by a function call */
+    private AslTree function = null;
+
+    /** Slot of the variable of an ID or a parameter */
+    private int slot = -1;
+
+    /** Names of the variables of the slots of a function */
+    private String[] locals = null;
+
+    /** Indicates whether the subtree calls a user function */
+    private boolean calls = false;
+
+    /**
+     * Hidden slot where the value of an expression is cached, or first
+     * hidden slot reset when a loop starts (see LoopOptimizer)
+     */
+    private int cache = -1;
+
+    /** Number of hidden slots of a loop or a function */
+    private int ncache = 0;
+
+    /** Operand of a strength-reduced multiplication that is an induction variable, and its step */
+    private int induction = -1;
+
+    private int step = 0;
+
     /** Constructor of the class */
     public AslTree(Token t) {
         super(t);
@@ -61,11 +93,17 @@ public class AslTree extends CommonTree {
     public int getIntValue() { return intValue;}
 
     /** Define the integer value of the node. */
-    public void setIntValue() { intValue = Integer.parseInt(getText()); }
+    public void setIntValue() {
+        intValue = Integer.parseInt(getText());
+        data = new Data(intValue);
+    }
     
     public float getFloatValue() { return floatValue;}
 
-    public void setFloatValue() { floatValue = Float.parseFloat(getText()); }
+    public void setFloatValue() {
+        floatValue = Float.parseFloat(getText());
+        data = new Data(floatValue);
+    }
 
     /** Get the Boolean value of the node. */
     public boolean getBooleanValue() { return intValue != 0; }
@@ -73,6 +111,7 @@ public class AslTree extends CommonTree {
     /** Define the Boolean value of the node. */
     public void setBooleanValue() {
         intValue = getText().equals("true") ? 1 : 0;
+        data = Data.valueOf(intValue != 0);
     }
 
     /** Get the string value of the node. */
@@ -86,5 +125,69 @@ public class AslTree extends CommonTree {
         String s = getText();
         // Do not store the " at the extremes of the string
         strValue = s.substring(1,s.length()-1);
+        data = new Data(strValue);
     }
+
+    /** Get the value of a literal (shared, it must not be modified). */
+    public Data getData() { return data; }
+
+    /**
+     * Stores the text of the token in the token, so that getText() does
+     * not extract it from the input stream again on each call.
+     */
+    public void setText() { token.setText(getText()); }
+
+    /** Get the builtin called by a function call (null if none). */
+    public Builtin getBuiltin() { return builtin; }
+
+    /** Get the AST of the user function called by a function call. */
+    public AslTree getFunction() { return function; }
+
+    /** Bind a function call to a builtin. */
+    public void setBuiltin(Builtin b) { builtin = b; }
+
+    /** Bind a function call to the AST of a user function. */
+    public void setFunction(AslTree f) { function = f; }
+
+    /** Get the slot of the variable of an ID or a parameter. */
+    public int getSlot() { return slot; }
+
+    /** Define the slot of the variable of an ID or a parameter. */
+    public void setSlot(int s) { slot = s; }
+
+    /** Get the names of the variables of the slots of a function. */
+    public String[] getLocals() { return locals; }
+
+    /** Define the names of the variables of the slots of a function. */
+    public void setLocals(String[] names) { locals = names; }
+
+    /** Indicates whether the subtree calls a user function. */
+    public boolean callsFunction() { return calls; }
+
+    /** Define whether the subtree calls a user function. */
+    public void setCallsFunction(boolean c) { calls = c; }
+
+    /** Get the hidden slot of a cached expression or the first one of a loop (-1 if none). */
+    public int getCache() { return cache; }
+
+    /** Define the hidden slot of a cached expression or the first one of a loop. */
+    public void setCache(int s) { cache = s; }
+
+    /** Get the number of hidden slots of a loop or a function. */
+    public int getCacheCount() { return ncache; }
+
+    /** Define the number of hidden slots of a loop or a function. */
+    public void setCacheCount(int n) { ncache = n; }
+
+    /** Get the number of slots of the activation record of a function (variables and hidden slots). */
+    public int getFrameSize() { return locals.length + ncache; }
+
+    /** Get the operand of a strength-reduced multiplication that is an induction variable (-1 if none). */
+    public int getInduction() { return induction; }
+
+    /** Get the step of the induction variable of a strength-reduced multiplication. */
+    public int getStep() { return step; }
+
+    /** Define the induction variable of a strength-reduced multiplication and its step. */
+    public void setInduction(int k, int s) { induction = k; step = s; }
 }
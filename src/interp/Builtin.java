@@ -0,0 +1,52 @@
+package interp;
+
+import java.util.HashMap;
+
+/**
+ * Builtin functions of the language, their number of arguments and the
+ * type of their result.
+ * The calls to builtins are bound to these constants when the program
+ * is linked (see Program), so the interpreter dispatches them without
+ * comparing names. A builtin hides a user function with the same name.
+ */
+
+public enum Builtin {
+    rSet(3, Data.Type.VOID), rMove(1, Data.Type.VOID),
+    rMoveUntil(2, Data.Type.INTEGER), rArc(2, Data.Type.VOID),
+    rMoveAll(1, Data.Type.VOID), rCreate(0, Data.Type.INTEGER),
+    rSelect(1, Data.Type.VOID), rSelected(0, Data.Type.INTEGER),
+    rGoto(2, Data.Type.BOOLEAN), rTurn(1, Data.Type.VOID),
+    oSet(4, Data.Type.INTEGER), oMove(3, Data.Type.VOID),
+    oRemove(1, Data.Type.VOID), oVelocity(3, Data.Type.VOID),
+    oStep(1, Data.Type.INTEGER), rSpeed(2, Data.Type.VOID),
+    rTime(0, Data.Type.FLOAT), oLoad(1, Data.Type.VOID),
+    rTrail(1, Data.Type.VOID), rFeel(1, Data.Type.BOOLEAN),
+    rFeelAll(0, Data.Type.INTEGER), rDistance(1, Data.Type.FLOAT),
+    rNearest(0, Data.Type.FLOAT), rNearestDir(0, Data.Type.FLOAT),
+    rXPosition(0, Data.Type.FLOAT), rYPosition(0, Data.Type.FLOAT),
+    rRotation(0, Data.Type.FLOAT);
+
+    /** Number of arguments of the builtin. */
+    private final int arity;
+
+    /** Type of the result of the builtin. */
+    private final Data.Type result;
+
+    /** Map from names to builtins. */
+    private static final HashMap<String,Builtin> names = new HashMap<String,Builtin>();
+
+    static {
+        for (Builtin b : values()) names.put(b.name(), b);
+    }
+
+    Builtin(int n, Data.Type t) { arity = n; result = t; }
+
+    /** Returns the number of arguments of the builtin. */
+    public int getArity() { return arity; }
+
+    /** Returns the type of the result of the builtin. */
+    public Data.Type getResultType() { return result; }
+
+    /** Returns the builtin with the given name, or null if there is none. */
+    public static Builtin lookup(String name) { return names.get(name); }
+}
@@ -0,0 +1,124 @@
+package interp;
+
+/**
+ * Bytecode of a function, generated by the Compiler and executed by
+ * the VM. The code is an array of words: an opcode followed by its
+ * operands. Most operands are registers of the frame of the function,
+ * which has three areas:
+ * <pre>
+ *   [0, nlocals)            variables (the slots of the resolver)
+ *   [nlocals, tempBase)     constants (copied from the pool on entry)
+ *   [tempBase, nregs)       temporaries of the expressions
+ * </pre>
+ * The values in the constants and temporaries are never modified, so
+ * they can be shared. A variable is only modified by STORE and READ.
+ * Each word has the line number of the AST node that generated it.
+ */
+
+public class Bytecode {
+
+    /** d = copy of the variable s (checks that it is defined). */
+    public static final int COPY = 0;
+    /** Unary operators: d = op a. */
+    public static final int POS = 1;
+    public static final int NEG = 2;
+    public static final int NOT = 3;
+    /** Binary operators: d = a op b. */
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int MOD = 8;
+    public static final int EQ = 9;
+    public static final int NE = 10;
+    public static final int LT = 11;
+    public static final int LE = 12;
+    public static final int GT = 13;
+    public static final int GE = 14;
+    /** d = a, checking that a is Boolean (operands of and/or). */
+    public static final int MOVEB = 15;
+    /** Jump to t. */
+    public static final int JMP = 16;
+    /** Jump to t if the Boolean a is false. */
+    public static final int JF = 17;
+    /** Jump to t if the Boolean a is true. */
+    public static final int JT = 18;
+    /** Defines the variable v with the value of a. */
+    public static final int STORE = 19;
+    /** d = f(r1,...,rn): call to the user function f. */
+    public static final int CALL = 20;
+    /** d = b(r1,...,rn): call to the builtin b. */
+    public static final int BCALL = 21;
+    /** Checks that a is not void (result of a call in an expression). */
+    public static final int VALUE = 22;
+    /** Returns a. */
+    public static final int RET = 23;
+    /** Returns void. */
+    public static final int RETV = 24;
+    /** Reads the variable v from the input. */
+    public static final int READ = 25;
+    /** Writes the string a as a format. */
+    public static final int WRITES = 26;
+    /** Writes the value of a. */
+    public static final int WRITE = 27;
+    /** Raises an error with the message of the string a. */
+    public static final int ERROR = 28;
+
+    /** Names of the opcodes. */
+    public static final String[] NAMES = {
+        "copy", "pos", "neg", "not", "add", "sub", "mul", "div", "mod",
+        "eq", "ne", "lt", "le", "gt", "ge", "moveb", "jmp", "jf", "jt",
+        "store", "call", "bcall", "value", "ret", "retv", "read",
+        "writes", "write", "error"
+    };
+
+    /** AST of the function. */
+    public AslTree function;
+
+    /** Name of the function. */
+    public String name;
+
+    /** Code and line number of each word. */
+    public int[] code, lines;
+
+    /** Constants, copied to the registers [nlocals, tempBase). */
+    public Data[] consts;
+
+    /** Names of the variables (see AslTree.getLocals()). */
+    public String[] locals;
+
+    /** Number of variables, first temporary and number of registers. */
+    public int nlocals, tempBase, nregs;
+
+    /** Slots of the parameters and whether they are passed by reference. */
+    public int[] params;
+
+    public boolean[] byRef;
+
+    /** Returns a textual form of the code (one instruction per line). */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(name).append(": ").append(nregs).append(" registers\n");
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            int len = length(code, pc);
+            s.append(String.format("%5d  %-6s", pc, NAMES[op]));
+            for (int i = 1; i < len; ++i) s.append(' ').append(code[pc + i]);
+            s.append("    (line ").append(lines[pc]).append(")\n");
+            pc += len;
+        }
+        return s.toString();
+    }
+
+    /** Returns the number of words of the instruction at pc. */
+    public static int length(int[] code, int pc) {
+        switch (code[pc]) {
+            case RETV: return 1;
+            case JMP: case VALUE: case RET: case READ: case WRITES: case WRITE: case ERROR: return 2;
+            case COPY: case POS: case NEG: case NOT: case MOVEB: case JF: case JT: case STORE: return 3;
+            case CALL: case BCALL: return 4 + code[pc + 3];
+            default: return 4;
+        }
+    }
+}
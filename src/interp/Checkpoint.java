@@ -0,0 +1,250 @@
+package interp;
+
+import parser.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * Checkpoint of an execution of the tree engine. A checkpoint file has
+ * the activation records (see Stack.write), the position of each
+ * function being executed (the path of blocks and instructions in its
+ * AST, from main to the innermost function), the robots, the obstacles,
+ * the simulated clock, and the noise model and the state of the
+ * generator of random numbers (so that a resumed execution draws the
+ * same numbers).
+ * The robots, the obstacles and the generator are written from (and read
+ * into) the structures of the interpreter, which are given as parameters.
+ * The rest of the state is kept in the checkpoint object.
+ */
+
+public class Checkpoint {
+
+    /** Magic number of the checkpoint files ("RCKP"). */
+    private static final int MAGIC = 0x504b4352;
+
+    /** Version of the checkpoint files. */
+    private static final int VERSION = 3;
+
+    /** AST of each function of the checkpoint (only after read). */
+    private AslTree[] functions;
+
+    /** Path of each function: block and instruction at each level. */
+    private int[][] blocks, instrs;
+
+    /** Selected robot. */
+    private int current;
+
+    /** Simulated clock and speeds of the robots. */
+    private double time;
+    private float linSpeed, angSpeed;
+
+    /**
+     * Constructor of a checkpoint of the execution, to be written.
+     * @param blocks The blocks of the path of each function.
+     * @param instrs The instructions of the path of each function.
+     * @param current The selected robot.
+     * @param time The simulated clock.
+     * @param linSpeed The linear speed of the robots.
+     * @param angSpeed The angular speed of the robots.
+     */
+    public Checkpoint(int[][] blocks, int[][] instrs, int current,
+                      double time, float linSpeed, float angSpeed) {
+        this.blocks = blocks;
+        this.instrs = instrs;
+        this.current = current;
+        this.time = time;
+        this.linSpeed = linSpeed;
+        this.angSpeed = angSpeed;
+    }
+
+    private Checkpoint() {}
+
+    public AslTree[] getFunctions() { return functions; }
+
+    public int[][] getBlocks() { return blocks; }
+
+    public int[][] getInstrs() { return instrs; }
+
+    public int getCurrent() { return current; }
+
+    public double getTime() { return time; }
+
+    public float getLinSpeed() { return linSpeed; }
+
+    public float getAngSpeed() { return angSpeed; }
+
+    /**
+     * Writes the checkpoint with the activation records of the stack. It
+     * is written to a temporary file that replaces the previous one, so
+     * that a checkpoint is never left incomplete.
+     * @param noise The noise model, or null if there is no noise.
+     * @param rng The generator of the noise (not used if there is no noise).
+     */
+    public void write(String file, Program program, Stack stack, RobotFleet fleet, ObstacleStore obstacles,
+                      MovingObstacles movers, NoiseModel noise, SplitMix rng) {
+        File tmp = new File(file + ".tmp");
+        try {
+            DataOutputStream o = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                o.writeInt(MAGIC);
+                o.writeInt(VERSION);
+                o.writeLong(program.getFingerprint());
+                stack.write(o);
+                for (int k = 0; k < blocks.length; ++k) {
+                    o.writeInt(blocks[k].length);
+                    for (int l = 0; l < blocks[k].length; ++l) {
+                        o.writeInt(blocks[k][l]);
+                        o.writeInt(instrs[k][l]);
+                    }
+                }
+                fleet.write(o);
+                o.writeInt(current);
+                obstacles.write(o);
+                movers.write(o);
+                o.writeDouble(time);
+                o.writeFloat(linSpeed);
+                o.writeFloat(angSpeed);
+                o.writeBoolean(noise != null);
+                if (noise != null) {
+                    o.writeUTF(noise.getSpec());
+                    o.writeLong(rng.getState());
+                }
+            } finally {
+                o.close();
+            }
+            Files.move(tmp.toPath(), new File(file).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("checkpoint " + file + " could not be written (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by write(). The activation records are
+     * pushed on the stack, the paths of the functions are checked against
+     * the AST of the program, and the robots, the obstacles and the state
+     * of the generator are read into the given structures. The execution
+     * must have the noise model of the checkpoint.
+     * @return The checkpoint with the rest of the state.
+     */
+    public static Checkpoint read(String file, Program program, Stack stack, RobotFleet fleet, ObstacleStore obstacles,
+                                  MovingObstacles movers, NoiseModel noise, SplitMix rng) {
+        Checkpoint c = new Checkpoint();
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("not a checkpoint file");
+                if (in.readInt() != VERSION) throw new IOException("unsupported checkpoint version");
+                if (in.readLong() != program.getFingerprint()) {
+                    throw new IOException("it was written by a different program");
+                }
+                ArrayList<String> names = stack.read(in, program);
+                int n = names.size();
+                if (n == 0 || !names.get(0).equals("main")) throw new IOException("incorrect activation records");
+                c.functions = new AslTree[n];
+                c.blocks = new int[n][];
+                c.instrs = new int[n][];
+                for (int k = 0; k < n; ++k) {
+                    int levels = in.readInt();
+                    if (levels < 1) throw new IOException("incorrect position");
+                    c.blocks[k] = new int[levels];
+                    c.instrs[k] = new int[levels];
+                    for (int l = 0; l < levels; ++l) {
+                        c.blocks[k][l] = in.readInt();
+                        c.instrs[k][l] = in.readInt();
+                    }
+                    c.functions[k] = checkPath(program, names.get(k), k + 1 < n ? names.get(k+1) : null,
+                                               c.blocks[k], c.instrs[k]);
+                }
+                fleet.read(in);
+                c.current = in.readInt();
+                if (c.current < 0 || c.current >= fleet.size()) throw new IOException("incorrect robot number");
+                obstacles.read(in);
+                movers.read(in);
+                for (int k = 0; k < movers.size(); ++k) {
+                    int m = movers.getId(k);
+                    if (m >= obstacles.size() || obstacles.isRemoved(m)) {
+                        throw new IOException("incorrect obstacle number");
+                    }
+                }
+                c.time = in.readDouble();
+                c.linSpeed = in.readFloat();
+                c.angSpeed = in.readFloat();
+                if (in.readBoolean()) {
+                    String spec = in.readUTF();
+                    long state = in.readLong();
+                    if (noise == null || !noise.getSpec().equals(spec)) {
+                        throw new IOException("it requires -noise " + spec);
+                    }
+                    rng.setState(state);
+                } else if (noise != null) {
+                    throw new IOException("it was written without -noise");
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("checkpoint " + file + " could not be read (" + e.getMessage() + ")");
+        }
+        return c;
+    }
+
+    //Checks that the path of a function of a checkpoint leads to an
+    //instruction of the function, going through if and while
+    //instructions. Except in the innermost function, the instruction
+    //must be a resumable call to the next function. Returns the AST of
+    //the function
+    private static AslTree checkPath(Program program, String name, String callee,
+                                     int[] blocks, int[] instrs) throws IOException {
+        AslTree f = program.getFunction(name);
+        if (f == null) throw new IOException("function " + name + " not declared");
+        AslTree t = f;
+        for (int l = 0; l < blocks.length; ++l) {
+            boolean valid;
+            if (l == 0) valid = blocks[l] == 2;
+            else valid = (t.getType() == RobotLexer.IF || t.getType() == RobotLexer.WHILE) &&
+                         blocks[l] >= 1 && blocks[l] < t.getChildCount();
+            if (!valid) throw new IOException("incorrect position in function " + name);
+            AslTree block = t.getChild(blocks[l]);
+            if (instrs[l] < 0 || instrs[l] >= block.getChildCount()) {
+                throw new IOException("incorrect position in function " + name);
+            }
+            t = block.getChild(instrs[l]);
+        }
+        if (callee == null) return f;
+        AslTree call = directCall(t);
+        if (call == null || !call.getChild(0).getText().equals(callee)) {
+            throw new IOException("incorrect call in function " + name);
+        }
+        return f;
+    }
+
+    /**
+     * Returns the function call executed directly by an instruction (as
+     * a procedure call, in an assignment or in a return), or null if none.
+     * Only these calls can be resumed from a checkpoint.
+     */
+    public static AslTree directCall(AslTree t) {
+        AslTree call;
+        switch (t.getType()) {
+            case RobotLexer.FUNCALL: call = t; break;
+            case RobotLexer.ASSIGN: call = t.getChild(1); break;
+            case RobotLexer.RETURN: call = t.getChildCount() != 0 ? t.getChild(0) : null; break;
+            default: call = null; break;
+        }
+        if (call == null || call.getType() != RobotLexer.FUNCALL) return null;
+        return call;
+    }
+}
@@ -0,0 +1,17 @@
+package interp;
+
+/**
+ * Kernel that tests a circle against a batch of axis-aligned boxes.
+ * The boxes are given as parallel arrays with their centers and half
+ * sizes.
+ */
+
+public interface CollisionKernel {
+
+    /**
+     * Checks whether the circle of radius r centered at (x,y) overlaps
+     * (or touches) any of the first n boxes.
+     */
+    boolean overlaps(float[] cx, float[] cy, float[] hx, float[] hy, int n,
+                     float x, float y, float r);
+}
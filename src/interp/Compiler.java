@@ -0,0 +1,389 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiler of the functions of a linked program to bytecode (see
+ * Bytecode). Each expression is compiled to a register: a variable is
+ * read directly from its own register, a literal from a constant
+ * register, and the other expressions are evaluated into temporaries.
+ * The temporaries are allocated as a stack and they are reused by the
+ * next instruction.
+ * A variable used as an operand is copied to a temporary when the rest
+ * of the expression calls a user function, that could modify it through
+ * a parameter passed by reference (the tree interpreter reads the value
+ * of the variable before evaluating the rest of the expression).
+ */
+
+public class Compiler {
+
+    /** Bytecode of the functions, in order of declaration. */
+    private Bytecode[] functions;
+
+    /** Index of each function (by its AST). */
+    private IdentityHashMap<AslTree,Integer> ids = new IdentityHashMap<AslTree,Integer>();
+
+    /** Function being compiled. */
+    private Bytecode fn;
+
+    /** Code and line numbers generated for the function. */
+    private int[] code = new int[256], lines = new int[256];
+
+    private int size;
+
+    /** Constants of the function and their registers. */
+    private ArrayList<Data> consts;
+
+    private HashMap<String,Integer> constRegs;
+
+    /** Next free temporary and number of registers used. */
+    private int next, nregs;
+
+    /** Message of the arguments passed by reference that are not variables. */
+    private static final String WRONG_REF = "Wrong argument for pass by reference";
+
+    /**
+     * Compiles all the functions of a program.
+     * @return The bytecode of the functions, in order of declaration.
+     */
+    public static Bytecode[] compile(Program P) {
+        return new Compiler().compileAll(P.getTree());
+    }
+
+    private Bytecode[] compileAll(AslTree T) {
+        int n = T.getChildCount();
+        functions = new Bytecode[n];
+        for (int i = 0; i < n; ++i) ids.put(T.getChild(i), i);
+        for (int i = 0; i < n; ++i) functions[i] = compileFunction(T.getChild(i));
+        return functions;
+    }
+
+    private Bytecode compileFunction(AslTree f) {
+        fn = new Bytecode();
+        fn.function = f;
+        fn.name = f.getChild(0).getText();
+        fn.locals = f.getLocals();
+        fn.nlocals = fn.locals.length;
+        AslTree p = f.getChild(1);
+        int nparam = p.getChildCount();
+        fn.params = new int[nparam];
+        fn.byRef = new boolean[nparam];
+        for (int i = 0; i < nparam; ++i) {
+            fn.params[i] = p.getChild(i).getSlot();
+            fn.byRef[i] = p.getChild(i).getType() == RobotLexer.PREF;
+        }
+
+        // The constants are collected first, so that the temporaries
+        // can be placed after them
+        consts = new ArrayList<Data>();
+        constRegs = new HashMap<String,Integer>();
+        collectConstants(f.getChild(2));
+        fn.tempBase = fn.nlocals + consts.size();
+        next = nregs = fn.tempBase;
+
+        size = 0;
+        AslTree body = f.getChild(2);
+        compileBlock(body);
+        // Implicit return, with the line of the last instruction
+        int n = body.getChildCount();
+        emit(Bytecode.RETV, n == 0 ? f.getLine() : body.getChild(n-1).getLine());
+
+        fn.code = Arrays.copyOf(code, size);
+        fn.lines = Arrays.copyOf(lines, size);
+        fn.consts = consts.toArray(new Data[consts.size()]);
+        fn.nregs = nregs;
+        return fn;
+    }
+
+    /** Adds the literals of a subtree to the constants of the function. */
+    private void collectConstants(AslTree t) {
+        switch (t.getType()) {
+            case RobotLexer.INT: case RobotLexer.FLOAT:
+            case RobotLexer.BOOLEAN: case RobotLexer.STRING:
+                constant(t);
+                return;
+            case RobotLexer.FUNCALL:
+                AslTree f = t.getFunction();
+                if (f != null) {
+                    AslTree args = t.getChild(1);
+                    for (int i = 0; i < args.getChildCount(); ++i) {
+                        if (f.getChild(1).getChild(i).getType() == RobotLexer.PREF &&
+                            args.getChild(i).getType() != RobotLexer.ID) constant(WRONG_REF);
+                    }
+                }
+                break;
+            default: break;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) collectConstants(t.getChild(i));
+    }
+
+    /** Returns the register of a literal, creating it if needed. */
+    private int constant(AslTree t) {
+        String key;
+        Data d;
+        switch (t.getType()) {
+            case RobotLexer.INT: key = "i" + t.getIntValue(); d = new Data(t.getIntValue()); break;
+            case RobotLexer.FLOAT:
+                key = "f" + Float.floatToIntBits(t.getFloatValue());
+                d = new Data(t.getFloatValue());
+                break;
+            case RobotLexer.BOOLEAN: key = "b" + t.getBooleanValue(); d = new Data(t.getBooleanValue()); break;
+            default: return constant(t.getStringValue());
+        }
+        return constant(key, d);
+    }
+
+    /** Returns the register of a string constant, creating it if needed. */
+    private int constant(String s) {
+        return constant("s" + s, new Data(s));
+    }
+
+    private int constant(String key, Data d) {
+        Integer r = constRegs.get(key);
+        if (r == null) {
+            r = fn.nlocals + consts.size();
+            consts.add(d);
+            constRegs.put(key, r);
+        }
+        return r;
+    }
+
+    private void compileBlock(AslTree t) {
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) compileInstruction(t.getChild(i));
+    }
+
+    private void compileInstruction(AslTree t) {
+        next = fn.tempBase; // The temporaries of the previous instruction are free
+        int line = t.getLine();
+        int r;
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                r = compileExpression(t.getChild(1));
+                emit(Bytecode.STORE, line, t.getChild(0).getSlot(), r);
+                break;
+
+            case RobotLexer.IF: {
+                r = compileExpression(t.getChild(0));
+                int jf = emit(Bytecode.JF, line, r, 0);
+                compileBlock(t.getChild(1));
+                if (t.getChildCount() == 3) {
+                    int jmp = emit(Bytecode.JMP, line, 0);
+                    patch(jf, 2);
+                    compileBlock(t.getChild(2));
+                    patch(jmp, 1);
+                } else patch(jf, 2);
+                break;
+            }
+
+            case RobotLexer.WHILE: {
+                int top = size;
+                r = compileExpression(t.getChild(0));
+                int jf = emit(Bytecode.JF, line, r, 0);
+                compileBlock(t.getChild(1));
+                emit(Bytecode.JMP, line, top);
+                patch(jf, 2);
+                break;
+            }
+
+            case RobotLexer.RETURN:
+                if (t.getChildCount() == 0) {
+                    emit(Bytecode.RETV, line);
+                    break;
+                }
+                r = compileExpression(t.getChild(0));
+                if (r < fn.nlocals) r = copy(r, line);
+                emit(Bytecode.RET, line, r);
+                break;
+
+            case RobotLexer.READ:
+                emit(Bytecode.READ, line, t.getChild(0).getSlot());
+                break;
+
+            case RobotLexer.WRITE:
+                AslTree v = t.getChild(0);
+                if (v.getType() == RobotLexer.STRING) emit(Bytecode.WRITES, line, constant(v));
+                else emit(Bytecode.WRITE, line, compileExpression(v));
+                break;
+
+            case RobotLexer.FUNCALL:
+                compileCall(t);
+                break;
+
+            default: assert false; // Should never happen
+        }
+    }
+
+    /**
+     * Compiles an expression.
+     * @return The register with the value of the expression.
+     */
+    private int compileExpression(AslTree t) {
+        int line = t.getLine();
+        int type = t.getType();
+        switch (type) {
+            case RobotLexer.ID: return t.getSlot();
+            case RobotLexer.INT: case RobotLexer.FLOAT:
+            case RobotLexer.BOOLEAN: case RobotLexer.STRING:
+                return constant(t);
+            case RobotLexer.FUNCALL: {
+                int r = compileCall(t);
+                emit(Bytecode.VALUE, line, r);
+                return r;
+            }
+            default: break;
+        }
+
+        int mark = next;
+        if (t.getChildCount() == 1) {
+            int a = compileExpression(t.getChild(0));
+            next = mark;
+            int d = temp();
+            int op = type == RobotLexer.PLUS ? Bytecode.POS :
+                     type == RobotLexer.MINUS ? Bytecode.NEG : Bytecode.NOT;
+            emit(op, line, d, a);
+            return d;
+        }
+
+        if (type == RobotLexer.AND || type == RobotLexer.OR) {
+            // Short-circuit evaluation
+            int d = temp();
+            int a = compileExpression(t.getChild(0));
+            emit(Bytecode.MOVEB, line, d, a);
+            int j = emit(type == RobotLexer.AND ? Bytecode.JF : Bytecode.JT, line, d, 0);
+            int b = compileExpression(t.getChild(1));
+            emit(Bytecode.MOVEB, line, d, b);
+            patch(j, 2);
+            next = d + 1;
+            return d;
+        }
+
+        int a = compileExpression(t.getChild(0));
+        if (a < fn.nlocals && callsUser(t.getChild(1))) a = copy(a, line);
+        int b = compileExpression(t.getChild(1));
+        next = mark;
+        int d = temp();
+        emit(binary(type), line, d, a, b);
+        return d;
+    }
+
+    /**
+     * Compiles a call to a builtin or a user function.
+     * @return The register with the result of the call.
+     */
+    private int compileCall(AslTree t) {
+        AslTree args = t.getChild(1);
+        int n = args.getChildCount();
+        int mark = next;
+        int[] regs = new int[n];
+        AslTree f = t.getFunction();
+        for (int i = 0; i < n; ++i) {
+            AslTree a = args.getChild(i);
+            if (f != null && f.getChild(1).getChild(i).getType() == RobotLexer.PREF) {
+                // Pass by reference: the register of the variable
+                if (a.getType() != RobotLexer.ID) {
+                    emit(Bytecode.ERROR, a.getLine(), constant(WRONG_REF));
+                    regs[i] = fn.tempBase; // Never used
+                } else regs[i] = a.getSlot();
+                continue;
+            }
+            int r = compileExpression(a);
+            if (r < fn.nlocals && callsUser(args, i + 1)) r = copy(r, a.getLine());
+            regs[i] = r;
+        }
+        next = mark;
+        int d = temp();
+        if (f == null) {
+            emit(Bytecode.BCALL, t.getLine(), d, t.getBuiltin().ordinal(), n);
+        } else {
+            // Line of the call recorded in the stack trace, as in the
+            // tree interpreter (the line of the last argument)
+            int line = n == 0 ? args.getLine() : args.getChild(n-1).getLine();
+            emit(Bytecode.CALL, line, d, ids.get(f), n);
+        }
+        for (int i = 0; i < n; ++i) append(regs[i], lines[size-1]);
+        return d;
+    }
+
+    /** Copies a variable to a new temporary. */
+    private int copy(int r, int line) {
+        int d = temp();
+        emit(Bytecode.COPY, line, d, r);
+        return d;
+    }
+
+    /** Checks whether the arguments from the given one call user functions. */
+    private static boolean callsUser(AslTree args, int from) {
+        for (int i = from; i < args.getChildCount(); ++i) {
+            if (callsUser(args.getChild(i))) return true;
+        }
+        return false;
+    }
+
+    /** Checks whether an expression calls a user function. */
+    private static boolean callsUser(AslTree t) {
+        if (t.getType() == RobotLexer.FUNCALL && t.getFunction() != null) return true;
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            if (callsUser(t.getChild(i))) return true;
+        }
+        return false;
+    }
+
+    /** Opcode of a binary operator. */
+    private static int binary(int type) {
+        switch (type) {
+            case RobotLexer.PLUS: return Bytecode.ADD;
+            case RobotLexer.MINUS: return Bytecode.SUB;
+            case RobotLexer.MUL: return Bytecode.MUL;
+            case RobotLexer.DIV: return Bytecode.DIV;
+            case RobotLexer.MOD: return Bytecode.MOD;
+            case RobotLexer.EQUAL: return Bytecode.EQ;
+            case RobotLexer.NOT_EQUAL: return Bytecode.NE;
+            case RobotLexer.LT: return Bytecode.LT;
+            case RobotLexer.LE: return Bytecode.LE;
+            case RobotLexer.GT: return Bytecode.GT;
+            case RobotLexer.GE: return Bytecode.GE;
+            default: assert false; return -1;
+        }
+    }
+
+    /** Allocates a temporary. */
+    private int temp() {
+        int r = next++;
+        if (next > nregs) nregs = next;
+        return r;
+    }
+
+    /**
+     * Appends an instruction.
+     * @return The position of the instruction.
+     */
+    private int emit(int op, int line, int... operands) {
+        int pc = size;
+        append(op, line);
+        for (int x : operands) append(x, line);
+        return pc;
+    }
+
+    private void append(int word, int line) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, 2*size);
+            lines = Arrays.copyOf(lines, 2*size);
+        }
+        code[size] = word;
+        lines[size] = line;
+        ++size;
+    }
+
+    /** Sets the target of the jump at pc (operand k) to the current position. */
+    private void patch(int pc, int k) {
+        code[pc + k] = size;
+    }
+}
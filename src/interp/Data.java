@@ -35,15 +35,28 @@ package interp;
  * All the arithmetic and Boolean operations are calculated in-place,
  * i.e., the result is stored in the same data.
  * The type VOID is used to represent void values on function returns.
+ * The void and Boolean results are shared instances (VOID, TRUE and
+ * FALSE), that must never be modified.
  */
 
 import parser.*;
 import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class Data {
     /** Types of data */
     public enum Type {VOID, BOOLEAN, INTEGER, STRING, FLOAT;}
 
+    /** Shared void data */
+    static final Data VOID = new Data();
+
+    /** Shared Boolean data */
+    static final Data TRUE = new Data(true);
+
+    static final Data FALSE = new Data(false);
+
     /** Type of data*/
     private Type type;
 
@@ -70,6 +83,9 @@ public class Data {
     /** Copy constructor */
     Data(Data d) { type = d.type; value = d.value; svalue = d.svalue; fvalue = d.fvalue; }
 
+    /** Returns the shared data of a Boolean value */
+    static Data valueOf(boolean b) { return b ? TRUE : FALSE; }
+
     /** Returns the type of data */
     public Type getType() { return type; }
 
@@ -128,6 +144,40 @@ public class Data {
     /** Copies the value from another data */
     public void setData(Data d) { type = d.type; value = d.value; svalue = d.svalue; fvalue = d.fvalue; }
     
+    /** Writes the type and the value of the data in binary form. */
+    void write(DataOutput o) throws IOException {
+        o.writeByte(type.ordinal());
+        switch (type) {
+            case BOOLEAN: case INTEGER: o.writeInt(value); break;
+            case FLOAT: o.writeFloat(fvalue); break;
+            case STRING:
+                byte[] b = svalue.getBytes("UTF-8");
+                o.writeInt(b.length);
+                o.write(b);
+                break;
+            default: break;
+        }
+    }
+
+    /** Reads a data written by write(). */
+    static Data read(DataInput in) throws IOException {
+        int t = in.readUnsignedByte();
+        if (t >= Type.values().length) throw new IOException("incorrect data type");
+        Data d = new Data();
+        d.type = Type.values()[t];
+        switch (d.type) {
+            case BOOLEAN: case INTEGER: d.value = in.readInt(); break;
+            case FLOAT: d.fvalue = in.readFloat(); break;
+            case STRING:
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                d.svalue = new String(b, "UTF-8");
+                break;
+            default: break;
+        }
+        return d;
+    }
+    
     /** Returns a string representing the data in textual form. */
     public String toString() {
         if (type == Type.BOOLEAN) return value == 1 ? "true" : "false";
@@ -182,34 +232,34 @@ public class Data {
      * Evaluation of expressions with relational operators.
      * @param op Type of operator (token).
      * @param d Second operand.
-     * @return A Boolean data with the value of the expression.
+     * @return The shared Boolean data with the value of the expression.
      */
     public Data evaluateRelational (int op, Data d) {
         assert type != Type.VOID && type == d.type;
         if (type == Type.STRING) {
         	switch (op) {
-		          case RobotLexer.EQUAL: return new Data(svalue.equals(d.svalue));
-		          case RobotLexer.NOT_EQUAL: return new Data(!svalue.equals(d.svalue));
+		          case RobotLexer.EQUAL: return valueOf(svalue.equals(d.svalue));
+		          case RobotLexer.NOT_EQUAL: return valueOf(!svalue.equals(d.svalue));
 		          default: assert false; 
 		      }
         } else if (type == Type.FLOAT) {
         	switch (op) {
-		          case RobotLexer.EQUAL: return new Data(fvalue == d.fvalue);
-		          case RobotLexer.NOT_EQUAL: return new Data(fvalue != d.fvalue);
-		          case RobotLexer.LT: return new Data(fvalue < d.fvalue);
-		          case RobotLexer.LE: return new Data(fvalue <= d.fvalue);
-		          case RobotLexer.GT: return new Data(fvalue > d.fvalue);
-		          case RobotLexer.GE: return new Data(fvalue >= d.fvalue);
+		          case RobotLexer.EQUAL: return valueOf(fvalue == d.fvalue);
+		          case RobotLexer.NOT_EQUAL: return valueOf(fvalue != d.fvalue);
+		          case RobotLexer.LT: return valueOf(fvalue < d.fvalue);
+		          case RobotLexer.LE: return valueOf(fvalue <= d.fvalue);
+		          case RobotLexer.GT: return valueOf(fvalue > d.fvalue);
+		          case RobotLexer.GE: return valueOf(fvalue >= d.fvalue);
 		          default: assert false; 
 		      }
         } else {
 		      switch (op) {
-		          case RobotLexer.EQUAL: return new Data(value == d.value);
-		          case RobotLexer.NOT_EQUAL: return new Data(value != d.value);
-		          case RobotLexer.LT: return new Data(value < d.value);
-		          case RobotLexer.LE: return new Data(value <= d.value);
-		          case RobotLexer.GT: return new Data(value > d.value);
-		          case RobotLexer.GE: return new Data(value >= d.value);
+		          case RobotLexer.EQUAL: return valueOf(value == d.value);
+		          case RobotLexer.NOT_EQUAL: return valueOf(value != d.value);
+		          case RobotLexer.LT: return valueOf(value < d.value);
+		          case RobotLexer.LE: return valueOf(value <= d.value);
+		          case RobotLexer.GT: return valueOf(value > d.value);
+		          case RobotLexer.GE: return valueOf(value >= d.value);
 		          default: assert false; 
 		      }
 		    }
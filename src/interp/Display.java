@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.geom.Arc2D;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import java.lang.Math;
@@ -29,15 +30,27 @@ public class Display extends JPanel {
 	
   private static final int R_OFFSET = 10;
 	
-	private ArrayList<Obstacle> obsList = new ArrayList<Obstacle>();
+	private ObstacleStore obstacles = null;
+	
+	private RobotFleet fleet = null;
+	
+	private int current = 0;
 	
 	private class Position {
 		public float x;		
 		public float y;
+		// Arc from the previous position (radius 0 for a straight line):
+		// center, start angle and extent in degrees
+		public float radius = 0.0f;
+		public float cx, cy, start, extent;
 	}
 	
 	private ArrayList<Position> positions = new ArrayList<Position>();
 	
+	// Trails of the robots, indexed by robot (positions is the trail
+	// of the selected robot)
+	private ArrayList<ArrayList<Position>> trails = new ArrayList<ArrayList<Position>>();
+	
 	private static final float D_SPEED = 0.5f;
 	
 	private Graphics2D g2d;
@@ -51,11 +64,72 @@ public class Display extends JPanel {
 		repaint();
   }
   
-  public void addObs(Obstacle obs) {
-  	obsList.add(obs);
+  // Updates the pose after a motion along an arc from the current pose.
+  // The arc turns the given angle (positive to the left).
+  public void updateArc(float radius, float turned, float X, float Y, float Rot) {
+  	Position pos = new Position();
+  	pos.x = X; pos.y = Y;
+  	if (radius > 0.0f && turned != 0.0f) {
+  		double h = Math.toRadians((double)rRot);
+  		float side = turned > 0.0f ? 1.0f : -1.0f;
+  		pos.radius = radius;
+  		pos.cx = rX - side*radius*(float)Math.sin(h);
+  		pos.cy = rY + side*radius*(float)Math.cos(h);
+  		pos.start = (float)Math.toDegrees(Math.atan2((double)(rY - pos.cy), (double)(rX - pos.cx)));
+  		pos.extent = turned;
+  	}
+  	rX = X; rY = Y; rRot = Rot;
+  	positions.add(pos);
+  	repaint();
+  }
+  
+  // Shows an intermediate pose of an animation (not added to the trail)
+  public void showPose(float X, float Y, float Rot) {
+  	rX = X; rY = Y; rRot = Rot;
+  	repaint();
+  }
+  
+  public void setObstacles(ObstacleStore obs) {
+  	obstacles = obs;
+  	repaint();
+  }
+  
+  public void obstaclesChanged() {
   	repaint();
   }
   
+  public void setRobots(RobotFleet f) {
+  	fleet = f;
+  	trails.add(positions);
+  }
+  
+  // Selects the robot whose pose is updated with updatePos
+  public void select(int id) {
+  	current = id;
+  	positions = trail(id);
+  	rX = fleet.getX(id); rY = fleet.getY(id); rRot = fleet.getRot(id);
+  	positioned = fleet.isPositioned(id);
+  	rTrail = fleet.hasTrail(id);
+  	repaint();
+  }
+  
+  // Adds the current positions of all the robots to their trails
+  public void robotsMoved() {
+  	for (int id = 0; id < fleet.size(); ++id) {
+  		if (!fleet.isPositioned(id)) continue;
+  		Position pos = new Position();
+  		pos.x = fleet.getX(id); pos.y = fleet.getY(id);
+  		trail(id).add(pos);
+  	}
+  	rX = fleet.getX(current); rY = fleet.getY(current);
+  	repaint();
+  }
+  
+  private ArrayList<Position> trail(int id) {
+  	while (trails.size() <= id) trails.add(new ArrayList<Position>());
+  	return trails.get(id);
+  }
+  
   public void setPositioned(boolean p) {
   	positioned = p;
   }
@@ -65,17 +139,39 @@ public class Display extends JPanel {
   }
 
 	private void drawRobot() {
-		g2d.setColor(Color.DARK_GRAY);
-		g2d.fillOval(f2p(rX)-R_OFFSET, f2p(rY)-R_OFFSET, f2ps(R_SIZE), f2ps(R_SIZE));
+		drawRobot(rX, rY, rRot, Color.DARK_GRAY);
+	}
+	
+	private void drawRobot(float x, float y, float rot, Color c) {
+		g2d.setColor(c);
+		g2d.fillOval(f2p(x)-R_OFFSET, f2p(y)-R_OFFSET, f2ps(R_SIZE), f2ps(R_SIZE));
 		g2d.setColor(Color.GREEN);
-		float nX = rX + R_SIZE/2.0f * (float)Math.cos(Math.toRadians((double)rRot));
-		float nY = rY + R_SIZE/2.0f * (float)Math.sin(Math.toRadians((double)rRot));
-		g2d.drawLine(f2p(rX), f2p(rY), f2p(nX), f2p(nY));
+		float nX = x + R_SIZE/2.0f * (float)Math.cos(Math.toRadians((double)rot));
+		float nY = y + R_SIZE/2.0f * (float)Math.sin(Math.toRadians((double)rot));
+		g2d.drawLine(f2p(x), f2p(y), f2p(nX), f2p(nY));
 	}
 	
-	private void drawObstacle(Obstacle obs) {
+	private void drawTrail(ArrayList<Position> trail) {
+		if (trail.size() <= 1) return;
+		g2d.setColor(Color.BLUE);
+		for (int i = 0; i < trail.size() - 1; ++i) {
+			Position pos1 = trail.get(i);
+			Position pos2 = trail.get(i+1);
+			if (pos2.radius > 0.0f) {
+				// The y axis of the panel points down, so the angles change sign
+				float r = pos2.radius;
+				g2d.draw(new Arc2D.Float(f2p(pos2.cx - r), f2p(pos2.cy - r), f2ps(2.0f*r), f2ps(2.0f*r),
+				                         -pos2.start, -pos2.extent, Arc2D.OPEN));
+			}
+			else g2d.drawLine(f2p(pos1.x),f2p(pos1.y),f2p(pos2.x),f2p(pos2.y));
+		}
+	}
+	
+	private void drawObstacle(int id) {
+		float x = obstacles.getX(id), y = obstacles.getY(id);
+		float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
 		g2d.setColor(Color.RED);
-		g2d.fillRect(f2p(obs.X-(obs.sizeX/2.0f)), f2p(obs.Y-(obs.sizeY/2.0f)), f2ps(obs.sizeX), f2ps(obs.sizeY));
+		g2d.fillRect(f2p(x-(sx/2.0f)), f2p(y-(sy/2.0f)), f2ps(sx), f2ps(sy));
 	}
   
   private int f2p(float n) {
@@ -96,23 +192,20 @@ public class Display extends JPanel {
 		g2d.setColor(Color.WHITE);
 		g2d.fillRect(10, 10, 500, 500);
 		
-		try {
-			Thread.sleep(1);
-		} catch (InterruptedException ex) { }
-		
-		for (Obstacle curr : obsList) {
-			drawObstacle(curr);
+		if (obstacles != null) {
+			int n = obstacles.size();
+			for (int i = 0; i < n; ++i) {
+				if (!obstacles.isRemoved(i)) drawObstacle(i);
+			}
 		}
 		
-		if (rTrail) {
-			if (positions.size() <= 1);
-			else {
-				g2d.setColor(Color.BLUE);
-				for (int i = 0; i < positions.size() - 1; ++i) {
-					Position pos1 = positions.get(i);
-					Position pos2 = positions.get(i+1);
-					g2d.drawLine(f2p(pos1.x),f2p(pos1.y),f2p(pos2.x),f2p(pos2.y));
-				}
+		if (rTrail) drawTrail(positions);
+		
+		if (fleet != null) {
+			for (int id = 0; id < fleet.size(); ++id) {
+				if (id == current || !fleet.isPositioned(id)) continue;
+				if (fleet.hasTrail(id)) drawTrail(trail(id));
+				drawRobot(fleet.getX(id), fleet.getY(id), fleet.getRot(id), Color.GRAY);
 			}
 		}
 		
@@ -30,6 +30,8 @@ package interp;
 import parser.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Scanner;
 import java.io.*;
@@ -42,19 +44,26 @@ import javax.swing.JPanel;
 
 public class Interp {
 
+    /**
+     * Engines that execute the program: the tree interpreter, the
+     * virtual machine executing the compiled bytecode, the tree
+     * interpreter that compiles the hot functions to JVM classes, and
+     * the interpreter of self-specializing executable trees.
+     */
+    public enum Engine { tree, vm, jit, nodes }
+
     /** Memory of the virtual machine. */
     private Stack Stack;
 
-    /**
-     * Map between function names (keys) and ASTs (values).
-     * Each entry of the map stores the root of the AST
-     * correponding to the function.
-     */
-    private HashMap<String,AslTree> FuncName2Tree;
+    /** Program executed by the interpreter (shared, not modified). */
+    private Program program;
 
-    /** Standard input of the interpreter (System.in). */
+    /** Standard input of the interpreter (System.in by default). */
     private Scanner stdin;
 
+    /** Standard output of the interpreter (System.out by default). */
+    private PrintStream out = System.out;
+
     /**
      * Stores the line number of the current statement.
      * The line number is used to report runtime errors.
@@ -73,7 +82,8 @@ public class Interp {
     
     private boolean txttrace = false;
     
-    //Simulation variables
+    //Simulation variables (pose of the selected robot, stored in the
+    //fleet when another robot is selected or all robots are moved)
     private boolean positioned = false;
 
     private float rX = -1.0f;
@@ -84,7 +94,134 @@ public class Interp {
 
 		private boolean rTrail = false;
 		
-		private ArrayList<Obstacle> obsList = new ArrayList<Obstacle>();
+		//Robots of the simulation and the selected robot
+		private RobotFleet fleet = new RobotFleet();
+		
+		private int current = 0;
+		
+		//Spatial index of the positioned robots (except the pose of the
+		//selected robot, that is updated when it is stored in the fleet)
+		private ObstacleGrid robotGrid;
+		
+		//Obstacles (identifiers are positions in the store)
+		private ObstacleStore obstacles = new ObstacleStore();
+		
+		//Spatial index of the obstacles
+		private ObstacleGrid obsGrid;
+		
+		//Bounding volume hierarchy of the obstacles (for nearest queries).
+		//It is updated lazily, and treeCount obstacles are inserted in it.
+		private ObstacleTree obsTree;
+		
+		private int treeCount = 0;
+		
+		//Geometry of the motion of the robots among the obstacles
+		private Motion motion;
+		
+		//Obstacles moving with a constant velocity
+		private MovingObstacles movers = new MovingObstacles();
+		
+		//Simulated clock (seconds) and speeds of the robots
+		private double simTime = 0.0;
+		
+		private float linSpeed = LIN_SPEED;
+		
+		private float angSpeed = ANG_SPEED;
+		
+		//Simulated seconds per wall-clock second (0 to run as fast as
+		//possible), and the wall and simulated times when pacing started
+		private float timewarp = 0.0f;
+		
+		private long wallStart = -1;
+		
+		private double simStart = 0.0;
+		
+		//Noise of the motion and the sensors (null if none) and the
+		//generator of random numbers of this execution
+		private NoiseModel noise = null;
+		
+		private SplitMix rng = null;
+		
+		//Value returned by the main function (null if not finished)
+		private Data mainResult = null;
+		
+		//Blocks of instructions being executed, from the outermost one,
+		//and the index of the instruction executed in each block
+		private AslTree[] posBlock = new AslTree[32];
+		
+		private int[] posIndex = new int[32];
+		
+		private int posDepth = 0;
+		
+		//Depth of the outermost block of each function being executed and
+		//whether the function can be resumed from a checkpoint
+		private int[] frameBase = new int[16];
+		
+		private boolean[] frameSafe = new boolean[16];
+		
+		private int frameDepth = 0;
+		
+		//Number of functions being executed that cannot be resumed
+		private int unsafeFrames = 0;
+		
+		//File of the periodic checkpoints (null if none), number of
+		//instructions between checkpoints and until the next one
+		private String checkpointFile = null;
+		
+		private long checkpointPeriod = 0;
+		
+		private long untilCheckpoint = 0;
+		
+		//Checkpoint resumed when the program is run (null if none)
+		private String resumeFile = null;
+		
+		//Functions of the checkpoint being resumed and the path of each one:
+		//the child index of each block in its parent and the index of the
+		//instruction in the block
+		private AslTree[] resumeFuncs = null;
+		
+		private int[][] resumeBlocks = null, resumeInstrs = null;
+		
+		//Function of the checkpoint being resumed
+		private int resumeFrame = 0;
+		
+		//Engine that executes the program
+		private Engine engine = Engine.tree;
+		
+		//Compiler of the hot functions (null if not enabled) and the
+		//function executed by the interpreter (its id in the compiler)
+		private Jit jit = null;
+		
+		private int jitFunction = -1;
+		
+		//World file loaded before running the program (null if none)
+		private String worldfile = null;
+		
+		//Occupancy map of the robot positions (null if not enabled)
+		private OccupancyMap occupancy = null;
+		
+		//Counter increased on every change of the robot pose or the obstacles
+		private int epoch = 0;
+		
+		//Counter increased on every change of the obstacles
+		private int worldEpoch = 0;
+		
+		//Free cells for path planning and the world epoch when they were
+		//calculated. The planners of the rGoto goals (indexed by goal cell)
+		//are kept while the obstacles do not change.
+		private boolean[] planFree = null;
+		
+		private int planEpoch = -1;
+		
+		private HashMap<Integer,PathPlanner> planners = new HashMap<Integer,PathPlanner>();
+		
+		//Nearest point of the obstacles to the robot and the epoch of the
+		//simulation when it was calculated
+		private float nearestX, nearestY;
+		
+		private boolean nearestFound = false;
+		
+		private int nearestEpoch = -1;
 		
 		//Constants
 		private static final float ENV_SIZE = 50.0f;
@@ -97,6 +234,18 @@ public class Interp {
 		
 		private static final float SENSOR_R = 1.1f;
 		
+		private static final float GRID_CELL = 1.0f;
+		
+		private static final float PLAN_CELL = 0.5f;
+		
+		//Default linear (units/s) and angular (degrees/s) speeds
+		private static final float LIN_SPEED = 1.0f;
+		
+		private static final float ANG_SPEED = 90.0f;
+		
+		//Frames per wall-clock second of the animations
+		private static final int FPS = 60;
+		
 		//Graphic Display
 		private JFrame frame;
 		
@@ -108,10 +257,21 @@ public class Interp {
      * data structures for the execution of the main program.
      */
     public Interp(AslTree T, String tracefile) {
-        assert T != null;
-        MapFunctions(T);  // Creates the table to map function names into AST nodes
-        PreProcessAST(T); // Some internal pre-processing ot the AST
+        this(new Program(T), tracefile);
+    }
+
+    /**
+     * Constructor of the interpreter for a program already
+     * pre-processed. Several interpreters can share the same program.
+     */
+    public Interp(Program P, String tracefile) {
+        assert P != null;
+        program = P;
         Stack = new Stack(); // Creates the memory of the virtual machine
+        obsGrid = new ObstacleGrid(ENV_SIZE, GRID_CELL);
+        obsTree = new ObstacleTree();
+        robotGrid = new ObstacleGrid(ENV_SIZE, GRID_CELL);
+        motion = new Motion(obstacles, obsGrid, fleet, robotGrid, ENV_SIZE, R_SIZE, C_MARGIN, SPEED);
         // Initializes the standard input of the program
         stdin = new Scanner (new BufferedReader(new InputStreamReader(System.in)));
         if (tracefile != null) {
@@ -133,62 +293,182 @@ public class Interp {
     		if (!nodisplay) {
     			frame = new JFrame("Simulation");
 					display = new Display();
+					display.setObstacles(obstacles);
+					display.setRobots(fleet);
 					frame.add(display);
 					frame.setSize(520, 550);
 					frame.setVisible(true);
 					frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     		}
+    		
+    		if (resumeFile != null) {
+    			readCheckpoint(resumeFile);
+    			if (!nodisplay) {
+    				display.robotsMoved();
+    				display.select(current);
+    				display.obstaclesChanged();
+    			}
+    			mainResult = resumeFunction(0, null);
+    			return;
+    		}
+    		
+    		if (worldfile != null) loadWorld(worldfile);
+    		
+    		if (positioned) {
+    			if (!checkValidPos()) throw new RuntimeException("Position out of bounds");
+    			if (!nodisplay) {
+    				display.updatePos(rX,rY,rRot);
+    				display.setPositioned(true);
+    			}
+    		}
+
+        if (engine == Engine.vm) {
+            mainResult = new VM(this, Stack, program.getBytecode()).run("main");
+            return;
+        }
+        if (engine == Engine.nodes) {
+            mainResult = new NodeInterp(this, Stack, program).run("main");
+            return;
+        }
+        if (engine == Engine.jit && trace == null) jit = new Jit(this, Stack, program);
 
-        executeFunction ("main", null); 
+        AslTree f = program.getFunction("main");
+        if (f == null) throw new RuntimeException(" function main not declared");
+        mainResult = executeFunction (f, null);
     }
 
-    /** Returns the contents of the stack trace */
-    public String getStackTrace() {
-        return Stack.getStackTrace(lineNumber());
+    /**
+     * Returns true if the program has finished successfully: the main
+     * function has returned, and its result is true if it is boolean.
+     */
+    public boolean succeeded() {
+        if (mainResult == null) return false;
+        return !mainResult.isBoolean() || mainResult.getBooleanValue();
     }
 
-    /** Returns a summarized contents of the stack trace */
-    public String getStackTrace(int nitems) {
-        return Stack.getStackTrace(lineNumber(), nitems);
+    /**
+     * Defines the noise of the motion and the sensors of the robot.
+     * @param n The noise model.
+     * @param r The generator of random numbers of this execution.
+     */
+    public void setNoise(NoiseModel n, SplitMix r) {
+        noise = n;
+        rng = r;
     }
-    
+
     /**
-     * Gathers information from the AST and creates the map from
-     * function names to the corresponding AST nodes.
+     * Enables the occupancy map of the environment, that classifies
+     * the positions of the robot in a grid of cells. It must be enabled
+     * before the program is run.
+     * @param res Number of cells per unit of length.
      */
-    private void MapFunctions(AslTree T) {
-        assert T != null && T.getType() == RobotLexer.LIST_FUNCTIONS;
-        FuncName2Tree = new HashMap<String,AslTree> ();
-        int n = T.getChildCount();
-        for (int i = 0; i < n; ++i) {
-            AslTree f = T.getChild(i);
-            assert f.getType() == RobotLexer.FUNC;
-            String fname = f.getChild(0).getText();
-            if (FuncName2Tree.containsKey(fname)) {
-                throw new RuntimeException("Multiple definitions of function " + fname);
-            }
-            FuncName2Tree.put(fname, f);
-        } 
+    public void setOccupancy(int res) {
+        occupancy = new OccupancyMap(ENV_SIZE, R_SIZE, C_MARGIN, res);
+        motion.setOccupancy(occupancy);
     }
 
     /**
-     * Performs some pre-processing on the AST. Basically, it
-     * calculates the value of the literals and stores a simpler
-     * representation. See AslTree.java for details.
+     * Enables the vector (SIMD) collision kernel. If the Vector API is
+     * not available, the scalar collision test is kept.
+     * @return The number of obstacles tested per instruction, or 0 if
+     * the kernel is not available.
      */
-    private void PreProcessAST(AslTree T) {
-        if (T == null) return;
-        switch(T.getType()) {
-            case RobotLexer.INT: T.setIntValue(); break;
-            case RobotLexer.FLOAT: T.setFloatValue(); break;
-            case RobotLexer.STRING: T.setStringValue(); break;
-            case RobotLexer.BOOLEAN: T.setBooleanValue(); break;
-            default: break;
+    public int setVectorKernel() {
+        try {
+            motion.setKernel(new VectorKernel());
+            return VectorKernel.lanes();
+        } catch (LinkageError e) {
+            motion.setKernel(null);
+            return 0;
         }
-        int n = T.getChildCount();
-        for (int i = 0; i < n; ++i) PreProcessAST(T.getChild(i));
     }
 
+    /** Redirects the standard input and output of the program. */
+    public void setStreams(InputStream in, PrintStream o) {
+        stdin = new Scanner(new BufferedReader(new InputStreamReader(in)));
+        out = o;
+    }
+
+    /**
+     * Positions the robot before running the program, as rSet does.
+     * The position is checked when the program is run.
+     */
+    public void setStartPose(float x, float y, float rot) {
+        rX = x; rY = y; rRot = rot % 360.0f;
+        positioned = true;
+    }
+
+    /** Returns the simulated time, in seconds. */
+    public double getTime() { return simTime; }
+
+    /**
+     * Returns the pose of the selected robot (x, y and rotation), or
+     * null if it is not positioned.
+     */
+    public float[] getPose() {
+        if (!positioned) return null;
+        return new float[] { rX, rY, rRot };
+    }
+
+    /**
+     * Defines the number of simulated seconds per wall-clock second.
+     * With 0 the program runs as fast as possible. Otherwise, the
+     * execution waits for the wall clock after every action that takes
+     * time, and the display animates the motion of the robot.
+     */
+    public void setTimeWarp(float warp) {
+        timewarp = warp;
+    }
+
+    /**
+     * Defines a world file with obstacles that is loaded before
+     * running the program.
+     */
+    public void setWorld(String file) {
+        worldfile = file;
+    }
+
+    /**
+     * Writes a checkpoint of the execution to a file every given number
+     * of instructions. A checkpoint is only taken when all the functions
+     * being executed have been called by a procedure call, an assignment
+     * or a return; otherwise it is delayed to the next instruction.
+     */
+    public void setCheckpoint(String file, long period) {
+        assert period > 0;
+        checkpointFile = file;
+        checkpointPeriod = period;
+        untilCheckpoint = period;
+    }
+
+    /**
+     * Resumes the execution from a checkpoint file when the program is
+     * run, instead of calling the main function. The robots and the
+     * obstacles of the checkpoint replace the world file and the start
+     * pose.
+     */
+    public void setResume(String file) {
+        resumeFile = file;
+    }
+
+    /**
+     * Defines the engine that executes the program. The checkpoints
+     * are only supported by the tree interpreter.
+     */
+    public void setEngine(Engine e) {
+        engine = e;
+    }
+
+    /** Returns the contents of the stack trace */
+    public String getStackTrace() {
+        return Stack.getStackTrace(lineNumber());
+    }
+
+    /** Returns a summarized contents of the stack trace */
+    public String getStackTrace(int nitems) {
+        return Stack.getStackTrace(lineNumber(), nitems);
+    }
+    
     /**
      * Gets the current line number. In case of a runtime error,
      * it returns the line number of the statement causing the
@@ -200,7 +480,7 @@ public class Interp {
     private void setLineNumber(AslTree t) { linenumber = t.getLine();}
 
     /** Defines the current line number with a specific value */
-    private void setLineNumber(int l) { linenumber = l;}
+    void setLineNumber(int l) { linenumber = l;}
     
     //Checks if an AslTree node is of type int
     private void checkFloat(Data t) {
@@ -210,330 +490,1393 @@ public class Interp {
     
     //Checks if a position is in the simulation bounds
     private boolean checkValidPos() {
-    	boolean valid = true;
-    	if ((rX - R_SIZE - C_MARGIN) < 0.0f) valid = false;
-    	if ((rX + R_SIZE + C_MARGIN) > ENV_SIZE) valid = false;
-    	if ((rY - R_SIZE - C_MARGIN) < 0.0f) valid = false;
-    	if ((rY + R_SIZE + C_MARGIN) > ENV_SIZE) valid = false;
-    	return valid;
+    	return motion.checkValidPos(rX, rY);
+    }
+    
+    //Checks for intersection between the robot and all the obstacles
+    private boolean checkColision() {
+    	return motion.checkColision(rX, rY);
+    }
+    
+    //Checks that a new obstacle is in the simulation bounds and does
+    //not overlap with the robots
+    private void checkObstacle(float x, float y, float sx, float sy) {
+    	int id = overlappingRobot(x, y, sx, sy);
+    	if (id == current) throw new RuntimeException("obstacle overlaps with robot");
+    	if (id >= 0) throw new RuntimeException("obstacle overlaps with robot " + id);
+    	if (!motion.obstacleInBounds(x, y, sx, sy)) throw new RuntimeException("obstacle out of bounds");
+    }
+    
+    //Returns a robot that overlaps with an obstacle placed at (x,y), or
+    //-1 if there is none (the selected robot is checked at its current
+    //pose, since its entry in the index is only updated when it is saved)
+    private int overlappingRobot(float x, float y, float sx, float sy) {
+    	if (positioned && motion.intersects(x, y, sx, sy, rX, rY)) return current;
+    	return motion.overlappingRobot(x, y, sx, sy, current);
+    }
+    
+    //Checks that the identifier corresponds to an obstacle
+    private void checkObstacleId(int id) {
+    	if (id < 0 || id >= obstacles.size() || obstacles.isRemoved(id)) {
+    		throw new RuntimeException("incorrect obstacle number");
+    	}
+    }
+    
+    //Moves an obstacle to (x,y), updating the spatial indices
+    //incrementally (only the cells and nodes around it change)
+    private void moveObstacle(int id, float x, float y) {
+    	float oX = obstacles.getX(id), oY = obstacles.getY(id);
+    	float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
+    	obsGrid.remove(id, oX, oY, sx/2.0f, sy/2.0f);
+    	obstacles.setPos(id, x, y);
+    	obsGrid.insert(id, x, y, sx/2.0f, sy/2.0f);
+    	if (id < treeCount) {
+    		obsTree.move(id, x - sx/2.0f, y - sy/2.0f, x + sx/2.0f, y + sy/2.0f);
+    	}
+    	if (occupancy != null) {
+    		unrasterize(oX, oY, sx, sy);
+    		occupancy.addObstacle(x, y, sx, sy);
+    	}
+    	++worldEpoch;
+    }
+    
+    //Removes an obstacle from the spatial indices and the store
+    private void removeObstacle(int id) {
+    	float x = obstacles.getX(id), y = obstacles.getY(id);
+    	float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
+    	obsGrid.remove(id, x, y, sx/2.0f, sy/2.0f);
+    	obstacles.remove(id);
+    	movers.remove(id);
+    	if (id < treeCount) obsTree.remove(id);
+    	if (occupancy != null) unrasterize(x, y, sx, sy);
+    	++worldEpoch;
+    }
+    
+    //Removes an obstacle (already removed from the grid) from the
+    //occupancy map: the cells around it are reset and the obstacles
+    //close to it are rasterized again
+    private void unrasterize(float x, float y, float sx, float sy) {
+    	occupancy.clearObstacle(x, y, sx, sy);
+    	float m = occupancy.getClearMargin();
+    	int n = obsGrid.query(x - sx/2.0f - m, y - sy/2.0f - m, x + sx/2.0f + m, y + sy/2.0f + m);
+    	int[] ids = obsGrid.getFound();
+    	for (int i = 0; i < n; ++i) {
+    		int id = ids[i];
+    		occupancy.restoreObstacle(obstacles.getX(id), obstacles.getY(id),
+    		                          obstacles.getSizeX(id), obstacles.getSizeY(id));
+    	}
+    }
+    
+    /**
+     * Advances the moving obstacles dt units of time. Only the obstacles
+     * with a velocity are visited. The displacement of each obstacle is
+     * swept against the robots around it, and the obstacle stops at the
+     * first contact (at the last free position, at most SPEED units away
+     * from it). An obstacle that would leave the simulation bounds does
+     * not move in this step.
+     * @param moved The identifiers of the obstacles moved are added to it.
+     */
+    private void stepObstacles(float dt, BitSet moved) {
+    	for (int k = 0; k < movers.size(); ++k) {
+    		int id = movers.getId(k);
+    		double mx = (double)movers.getVX(k)*dt, my = (double)movers.getVY(k)*dt;
+    		double len = Math.hypot(mx, my);
+    		if (len == 0.0) continue;
+    		double ux = mx/len, uy = my/len;
+    		float x0 = obstacles.getX(id), y0 = obstacles.getY(id);
+    		float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
+    		double t = sweepMover(id, ux, uy, len);
+    		float x = (float)(x0 + t*ux), y = (float)(y0 + t*uy);
+    		while (t > 0.0 && overlappingRobot(x, y, sx, sy) >= 0) {
+    			t = Math.max(t - SPEED, 0.0);
+    			x = (float)(x0 + t*ux);
+    			y = (float)(y0 + t*uy);
+    		}
+    		if (t == 0.0 || !motion.obstacleInBounds(x, y, sx, sy)) continue;
+    		moveObstacle(id, x, y);
+    		moved.set(id);
+    	}
     }
     
-    //Checks for intersection between the robot and the given obstacle
-    private boolean intersects(Obstacle obs)
-		{
-				float cdx = (float)Math.abs((double)rX - (double)obs.X);
-				float cdy = (float)Math.abs((double)rY - (double)obs.Y);
+    /**
+     * Longest time step of the moving obstacles: the time that the
+     * fastest obstacle, relative to its size, takes to travel its
+     * smallest side. Infinite if no obstacle moves.
+     */
+    private double subStep() {
+    	double h = Double.POSITIVE_INFINITY;
+    	for (int k = 0; k < movers.size(); ++k) {
+    		int id = movers.getId(k);
+    		double size = Math.min(obstacles.getSizeX(id), obstacles.getSizeY(id));
+    		h = Math.min(h, size/Math.hypot(movers.getVX(k), movers.getVY(k)));
+    	}
+    	return h;
+    }
+    
+    /**
+     * Advances the moving obstacles dt units of time, in sub-steps no
+     * longer than subStep(), so that the robots and obstacles are checked
+     * for contact along the way.
+     * @return The number of obstacles moved.
+     */
+    private int advanceObstacles(double dt) {
+    	if (dt <= 0.0 || movers.size() == 0) return 0;
+    	long steps = Math.max(1L, (long)Math.ceil(dt/subStep()));
+    	BitSet moved = new BitSet();
+    	for (long i = 0; i < steps; ++i) stepObstacles((float)(dt/steps), moved);
+    	int n = moved.cardinality();
+    	if (n > 0) {
+    		++epoch;
+    		if (!nodisplay) display.obstaclesChanged();
+    	}
+    	return n;
+    }
+    
+    /** A piece of an action of the robots. */
+    private interface Action {
+    	/** Does the given amount of the action, and returns the amount done. */
+    	double advance(float amount);
+    }
+    
+    /**
+     * Runs an action of the robots interleaved with the moving obstacles.
+     * The action is split in pieces that take at most subStep() units of
+     * time at the given speed (amount per unit of time), and the obstacles
+     * are advanced the time taken by each piece after it. The action stops
+     * at the first piece that is not completed (a contact).
+     * @return The amount of the action done.
+     */
+    private double interleave(float amount, double speed, Action m) {
+    	if (movers.size() == 0) return m.advance(amount);
+    	double piece = speed*subStep();
+    	double done = 0.0;
+    	while (done < amount) {
+    		float a = (float)Math.min(piece, amount - done);
+    		double d = m.advance(a);
+    		done += d;
+    		advanceObstacles(d/speed);
+    		if (d < a || a == 0.0f) break;
+    	}
+    	return done;
+    }
+    
+    /**
+     * Distance that the obstacle can travel along the unit vector (ux,uy)
+     * before touching a robot, limited to dist (see Motion.sweepMover).
+     * The selected robot is checked at its current pose.
+     */
+    private double sweepMover(int id, double ux, double uy, double dist) {
+    	double t = dist;
+    	if (positioned) t = Math.min(t, motion.sweepObstacle(id, rX, rY, -ux, -uy));
+    	return Math.min(t, motion.sweepMover(id, ux, uy, dist, current));
+    }
+    
+    //Inserts an obstacle of the store in the spatial indices
+    private void indexObstacle(int id) {
+    	float x = obstacles.getX(id), y = obstacles.getY(id);
+    	float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
+    	obsGrid.insert(id, x, y, sx/2.0f, sy/2.0f);
+    	if (occupancy != null) occupancy.addObstacle(x, y, sx, sy);
+    	++worldEpoch;
+    }
+    
+    /**
+     * Loads the obstacles of a world file (see ObstacleStore). The file
+     * is mapped in memory and its columns are used as the storage of the
+     * obstacles, without creating an object per obstacle.
+     */
+    private void loadWorld(String file) {
+    	int first;
+    	try {
+    		first = obstacles.load(file);
+    	} catch (IOException e) {
+    		throw new RuntimeException("world file " + file + " could not be loaded (" + e.getMessage() + ")");
+    	}
+    	int n = obstacles.size();
+    	for (int id = first; id < n; ++id) {
+    		checkObstacle(obstacles.getX(id), obstacles.getY(id),
+    		              obstacles.getSizeX(id), obstacles.getSizeY(id));
+    		indexObstacle(id);
+    	}
+    	++epoch;
+    	
+    	if (txttrace) {
+    		out.println("World loaded:");
+    		out.println("File: "+file+", Obstacles: "+(n - first));
+    	}
+    	if (!nodisplay) {
+    		display.obstaclesChanged();
+    	}
+    }
+    
+    //Checks whether the selected robot placed at (x,y) collides with an
+    //obstacle, another robot or the simulation bounds
+    private boolean blocked(float x, float y) {
+        return motion.blocked(x, y, current);
+    }
+
+    /**
+     * Reads the eight sensors of the robot. Sensor i is placed at SENSOR_R
+     * from the center of the robot, rotated 45*i degrees from its heading,
+     * and detects whether the robot would collide at that position.
+     * The readings are only calculated again when the pose of the robot
+     * or the obstacles have changed since the last reading.
+     * @return A bitmask with bit i set if sensor i detects a collision.
+     */
+    private int readSensors() {
+        int mask = fleet.getSensors(current, epoch);
+        if (mask >= 0) return mask;
+        mask = readSensors(current, rX, rY, rRot);
+        fleet.setSensors(current, mask, epoch);
+        return mask;
+    }
+
+    //Reads the sensors of the robot as seen by the program, with the
+    //false positives and negatives of the noise model
+    private int feelSensors() {
+        int mask = readSensors();
+        if (noise != null) mask = noise.feel(mask, rng);
+        return mask;
+    }
+
+    //Reads the eight sensors of the robot self placed at (x,y) with the
+    //given rotation
+    private int readSensors(int self, float x, float y, float rot) {
+        int mask = 0;
+        for (int i = 0; i < 8; ++i) {
+            if (sensorTriggered(i, x, y, rot, self)) mask |= 1 << i;
+        }
+        return mask;
+    }
 
-				if (cdx > (obs.sizeX/2.0f + R_SIZE)) { return false; }
-				if (cdy > (obs.sizeY/2.0f + R_SIZE)) { return false; }
+    //Checks whether the given sensor detects a collision when the robot
+    //is placed at (x,y) with its current rotation
+    private boolean sensorTriggered(int sensor, float x, float y) {
+        return sensorTriggered(sensor, x, y, rRot, current);
+    }
 
-				if (cdx <= (obs.sizeX/2.0f)) { return true; } 
-				if (cdy <= (obs.sizeY/2.0f)) { return true; }
+    //Checks whether the given sensor of the robot self detects a
+    //collision when the robot is placed at (x,y) with the given rotation
+    private boolean sensorTriggered(int sensor, float x, float y, float rot, int self) {
+        double a = Math.toRadians((double)(rot + 45.0f*sensor));
+        float sx = (float)(x + SENSOR_R * Math.cos(a));
+        float sy = (float)(y + SENSOR_R * Math.sin(a));
+        return motion.blocked(sx, sy, self);
+    }
 
-				float cdsq = (float)Math.pow((cdx - obs.sizeX/2.0f),2.0) +
-				                     (float)Math.pow((cdy - obs.sizeY/2.0f),2.0);
+    /**
+     * Distance that the selected robot can travel from (x,y) along the
+     * unit vector (dx,dy) before touching an obstacle, another robot or
+     * the simulation bounds, limited to dist.
+     */
+    private double sweep(float x, float y, double dx, double dy, double dist) {
+        return motion.sweep(current, x, y, dx, dy, dist);
+    }
+    
+    /**
+     * Finds the point of the obstacles nearest to the center of the robot
+     * and stores it in nearestX/nearestY. The search is only done again
+     * when the pose of the robot or the obstacles have changed.
+     * @return False if there are no obstacles.
+     */
+    private boolean findNearest() {
+        if (nearestEpoch == epoch) return nearestFound;
+        for (; treeCount < obstacles.size(); ++treeCount) {
+            if (obstacles.isRemoved(treeCount)) continue;
+            float x = obstacles.getX(treeCount), y = obstacles.getY(treeCount);
+            float hx = obstacles.getSizeX(treeCount)/2.0f;
+            float hy = obstacles.getSizeY(treeCount)/2.0f;
+            obsTree.insert(treeCount, x - hx, y - hy, x + hx, y + hy);
+        }
+        int id = obsTree.nearest(rX, rY);
+        nearestFound = id >= 0;
+        if (nearestFound) {
+            float x = obstacles.getX(id), y = obstacles.getY(id);
+            float hx = obstacles.getSizeX(id)/2.0f, hy = obstacles.getSizeY(id)/2.0f;
+            nearestX = Math.max(x - hx, Math.min(rX, x + hx));
+            nearestY = Math.max(y - hy, Math.min(rY, y + hy));
+        }
+        nearestEpoch = epoch;
+        return nearestFound;
+    }
 
-				return (cdsq <= (float)Math.pow(R_SIZE,2.0));
-		}
+    /** Number of cells per side of the path planning grid. */
+    private int planCells() {
+        return (int)Math.ceil(ENV_SIZE/PLAN_CELL);
+    }
     
-    //Checks for intersection between the robot and all the obstacles
-    private boolean checkColision() {
-    	for (Obstacle curr : obsList) {
-				if (intersects(curr)) return true;
-			}
-			return false;
+    /** Cell of the path planning grid containing (x,y). */
+    private int planCell(float x, float y) {
+        int n = planCells();
+        int i = Math.max(0, Math.min(n - 1, (int)(x/PLAN_CELL)));
+        int j = Math.max(0, Math.min(n - 1, (int)(y/PLAN_CELL)));
+        return j*n + i;
+    }
+    
+    /**
+     * Moves the robot to (gx,gy) following a path planned with A* over a
+     * grid of PLAN_CELL cells. A cell is free if the robot does not collide
+     * with an obstacle at its center and corners (the other robots are
+     * not planned around, they only stop the motion). The path is shortened by skipping the
+     * waypoints that can be reached in a straight line (checked with the
+     * analytic sweep), and each segment is executed with a turn and a move.
+     * The planners are cached per goal cell while the obstacles do not
+     * change.
+     * @return True if the robot reached the goal.
+     */
+    private boolean gotoRobot(float gx, float gy) {
+        if (blocked(gx, gy)) return false;
+        int n = planCells();
+        if (planEpoch != worldEpoch) {
+            planFree = new boolean[n*n];
+            for (int j = 0; j < n; ++j) {
+                for (int i = 0; i < n; ++i) {
+                    float x0 = i*PLAN_CELL, y0 = j*PLAN_CELL;
+                    float x1 = x0 + PLAN_CELL, y1 = y0 + PLAN_CELL;
+                    planFree[j*n + i] = !motion.blockedWorld(x0 + PLAN_CELL/2.0f, y0 + PLAN_CELL/2.0f) &&
+                                        !motion.blockedWorld(x0, y0) && !motion.blockedWorld(x1, y0) &&
+                                        !motion.blockedWorld(x0, y1) && !motion.blockedWorld(x1, y1);
+                }
+            }
+            planners.clear();
+            planEpoch = worldEpoch;
+        }
+        
+        int goal = planCell(gx, gy);
+        PathPlanner planner = planners.get(goal);
+        if (planner == null) {
+            planner = new PathPlanner(n, planFree, goal);
+            planners.put(goal, planner);
+        }
+        int[] path = planner.plan(planCell(rX, rY));
+        if (path == null) return false;
+        
+        // Waypoints: the centers of the cells, except the start and goal
+        // cells, that are replaced by the robot and goal positions
+        int last = path.length;
+        float[] wx = new float[last + 1];
+        float[] wy = new float[last + 1];
+        for (int k = 1; k < last; ++k) {
+            wx[k] = (path[k] % n)*PLAN_CELL + PLAN_CELL/2.0f;
+            wy[k] = (path[k] / n)*PLAN_CELL + PLAN_CELL/2.0f;
+        }
+        wx[last] = gx; wy[last] = gy;
+        
+        int k = 0;
+        while (k < last) {
+            int m = last;
+            while (m > k + 1 && !segmentFree(wx[m], wy[m])) --m;
+            if (!moveRobotTo(wx[m], wy[m])) return false;
+            k = m;
+        }
+        return true;
+    }
+    
+    //Checks whether the robot can move in a straight line to (x,y)
+    private boolean segmentFree(float x, float y) {
+        double len = Math.hypot((double)x - rX, (double)y - rY);
+        if (len == 0.0) return true;
+        double dx = (x - rX)/len, dy = (y - rY)/len;
+        return sweep(rX, rY, dx, dy, len) >= len;
+    }
+    
+    //Turns the robot towards (x,y) and moves it there. Returns false if
+    //the robot stopped before reaching the position.
+    private boolean moveRobotTo(float x, float y) {
+        double len = Math.hypot((double)x - rX, (double)y - rY);
+        if (len > 0.0) {
+            float x0 = rX, y0 = rY, rot0 = rRot;
+            rRot = (float)Math.toDegrees(Math.atan2((double)y - rY, (double)x - rX));
+            rRot = rRot % 360.0f;
+            elapse(Math.abs(turnAngle(rot0, rRot))/angSpeed, x0, y0, rot0);
+            interleave((float)len, linSpeed, a -> moveRobot(a));
+            ++epoch;
+            clock(Math.hypot((double)rX - x0, (double)rY - y0)/linSpeed, x0, y0, rRot);
+            
+            if (txttrace) {
+                out.println("Robot moved:");
+                out.println("X: "+rX+", Y: "+rY+", Rotation(Deg): "+rRot);
+            }
+            if (!nodisplay) {
+                display.updatePos(rX,rY,rRot);
+            }
+        }
+        return Math.hypot((double)x - rX, (double)y - rY) <= C_MARGIN;
+    }
+    
+    /** Signed angle (in [-180,180)) to turn from heading a to heading b. */
+    private static float turnAngle(float a, float b) {
+        float d = (b - a) % 360.0f;
+        if (d >= 180.0f) d -= 360.0f;
+        else if (d < -180.0f) d += 360.0f;
+        return d;
+    }
+    
+    /**
+     * Advances the simulated clock dt seconds, the time taken by an
+     * action that did not move the selected robot from (x0,y0) (a turn
+     * from rot0 or a wait). The moving obstacles are advanced in sub-steps
+     * during that time (see advanceObstacles). The actions that move the
+     * robots advance the obstacles with them (see interleave) and then
+     * only advance the clock.
+     * @return The number of obstacles moved.
+     */
+    private int elapse(double dt, float x0, float y0, float rot0) {
+        if (dt <= 0.0) return 0;
+        int moved = advanceObstacles(dt);
+        clock(dt, x0, y0, rot0);
+        return moved;
+    }
+    
+    /**
+     * Advances the simulated clock dt seconds, the time taken by an
+     * action that moved the selected robot from the pose (x0,y0,rot0) to
+     * its current pose. If a time warp is defined, the execution is paced
+     * with the wall clock and the motion is animated.
+     */
+    private void clock(double dt, float x0, float y0, float rot0) {
+        if (dt <= 0.0) return;
+        double t0 = simTime;
+        simTime += dt;
+        if (timewarp > 0.0f) pace(t0, x0, y0, rot0);
+    }
+    
+    /**
+     * Waits until the wall clock reaches the simulated time, showing
+     * FPS intermediate poses of the robot per wall-clock second. The
+     * poses are interpolated from (x0,y0,rot0) at the simulated time t0
+     * to the current pose.
+     */
+    private void pace(double t0, float x0, float y0, float rot0) {
+        if (wallStart < 0) {
+            wallStart = System.nanoTime();
+            simStart = t0;
+        }
+        double frame = timewarp/(double)FPS;
+        float turn = turnAngle(rot0, rRot);
+        for (double t = t0 + frame; t < simTime; t += frame) {
+            if (!nodisplay) {
+                float f = (float)((t - t0)/(simTime - t0));
+                display.showPose(x0 + f*(rX - x0), y0 + f*(rY - y0), rot0 + f*turn);
+            }
+            sleepUntil(t);
+        }
+        sleepUntil(simTime);
+    }
+    
+    //Waits until the wall clock corresponds to the simulated time t
+    private void sleepUntil(double t) {
+        long target = wallStart + (long)((t - simStart)/timewarp*1e9);
+        long wait = target - System.nanoTime();
+        if (wait <= 0) return;
+        try {
+            Thread.sleep(wait/1000000, (int)(wait%1000000));
+        } catch (InterruptedException e) { }
     }
     
     //Moves the robot for the given distance or until it collides with
-    //an obstacle or the simulation bounds
-    private void moveRobot(float dist) {
-   		float oX, oY;
-   		oX = rX; oY = rY;
+    //an obstacle or the simulation bounds. The point of contact is
+    //calculated analytically. The robot is left at the last free
+    //position before the contact, at most SPEED units away from it.
+    //Returns the distance moved.
+    private double moveRobot(float dist) {
+   		if (blocked(rX, rY)) return 0.0;
+   		double dx = Math.cos(Math.toRadians((double)rRot));
+   		double dy = Math.sin(Math.toRadians((double)rRot));
+   		if (dist < 0.0f) {
+   			dx = -dx; dy = -dy; dist = -dist;
+   		}
+   		
+   		return advanceRobot(dx, dy, sweep(rX, rY, dx, dy, dist));
+    }
+    
+    //Moves the robot for the given distance or until one of the selected
+    //sensors detects a collision. Each sensor is swept along the path of
+    //the robot as a robot-sized probe. Returns the distance moved, and
+    //sets fired[0] to the sensor that detected the collision (the robot
+    //stops where it is detected), or -1 if the distance was completed or
+    //the robot collided before.
+    private double moveRobotUntil(float dist, int sensors, int[] fired) {
+   		fired[0] = -1;
+   		for (int i = 0; i < 8; ++i) {
+   			if ((sensors & (1 << i)) != 0 && sensorTriggered(i, rX, rY)) {
+   				fired[0] = i;
+   				return 0.0;
+   			}
+   		}
+   		if (blocked(rX, rY)) return 0.0;
+   		double dx = Math.cos(Math.toRadians((double)rRot));
+   		double dy = Math.sin(Math.toRadians((double)rRot));
    		if (dist < 0.0f) {
-   			while (dist < 0.0f && !checkColision() && checkValidPos()) {
-   				oX = rX;
-		 			oY = rY;
-	 				rX -= SPEED * Math.cos(Math.toRadians((double)rRot));
-					rY -= SPEED * Math.sin(Math.toRadians((double)rRot));
-					dist += SPEED;
-	 			}
-   		} else {
-   			while (dist > 0.0f && !checkColision() && checkValidPos()) {
-   				oX = rX;
-		 			oY = rY;
-	 				rX += SPEED * Math.cos(Math.toRadians((double)rRot));
-					rY += SPEED * Math.sin(Math.toRadians((double)rRot));
-					dist -= SPEED;
-	 			}
+   			dx = -dx; dy = -dy; dist = -dist;
+   		}
+   		
+   		double limit = sweep(rX, rY, dx, dy, dist);
+   		double t = limit;
+   		int hit = -1;
+   		for (int i = 0; i < 8; ++i) {
+   			if ((sensors & (1 << i)) == 0) continue;
+   			double a = Math.toRadians((double)(rRot + 45.0f*i));
+   			float sx = (float)(rX + SENSOR_R * Math.cos(a));
+   			float sy = (float)(rY + SENSOR_R * Math.sin(a));
+   			double ti = sweep(sx, sy, dx, dy, t);
+   			if (ti < t) { t = ti; hit = i; }
+   		}
+   		
+   		// Step forward from the contact point until the sensor detects it
+   		while (hit >= 0 &&
+   		       !sensorTriggered(hit, (float)(rX + t*dx), (float)(rY + t*dy))) {
+   			t += SPEED;
+   			if (t > limit) { t = limit; hit = -1; }
+   		}
+   		
+   		fired[0] = hit;
+   		return advanceRobot(dx, dy, t);
+    }
+    
+    //Moves the robot t units along the unit vector (dx,dy), stepping
+    //back from a contact point to the last free position. Returns the
+    //distance moved.
+    private double advanceRobot(double dx, double dy, double t) {
+   		float nX = (float)(rX + t*dx);
+   		float nY = (float)(rY + t*dy);
+   		while (t > 0.0 && blocked(nX, nY)) {
+   			t = Math.max(t - SPEED, 0.0);
+   			nX = (float)(rX + t*dx);
+   			nY = (float)(rY + t*dy);
    		}
    		
-   		rX = oX;
-   		rY = oY;
+   		rX = nX;
+   		rY = nY;
+   		return t;
     }
     
     /**
-     * Executes a function.
-     * @param funcname The name of the function.
-     * @param args The AST node representing the list of arguments of the caller.
+     * Moves the robot along a circular arc of the given radius, turning
+     * sweepDeg degrees (positive to the left, as rTurn), until the end of
+     * the arc or the first contact with an obstacle, another robot or
+     * the simulation bounds. The contact is calculated analytically.
+     * The heading of the robot stays tangent to the arc.
+     * @return The angle actually turned, in degrees.
+     */
+    private float arcRobot(float radius, float sweepDeg) {
+        if (radius == 0.0f || blocked(rX, rY)) {
+            if (radius == 0.0f) rRot = (rRot + sweepDeg) % 360.0f;
+            return radius == 0.0f ? sweepDeg : 0.0f;
+        }
+        int dir = sweepDeg >= 0.0f ? 1 : -1;
+        double h = Math.toRadians((double)rRot);
+        double cx = rX - dir*radius*Math.sin(h);
+        double cy = rY + dir*radius*Math.cos(h);
+        double a0 = Math.atan2((double)rY - cy, (double)rX - cx);
+        double limit = Math.toRadians(Math.abs((double)sweepDeg));
+        
+        double phi = motion.arcContact(current, cx, cy, radius, a0, dir, limit);
+        float nX = (float)(cx + radius*Math.cos(a0 + dir*phi));
+        float nY = (float)(cy + radius*Math.sin(a0 + dir*phi));
+        while (phi > 0.0 && blocked(nX, nY)) {
+            phi = Math.max(phi - SPEED/radius, 0.0);
+            nX = (float)(cx + radius*Math.cos(a0 + dir*phi));
+            nY = (float)(cy + radius*Math.sin(a0 + dir*phi));
+        }
+        
+        float turned = phi == limit ? sweepDeg : (float)Math.toDegrees(dir*phi);
+        rX = nX;
+        rY = nY;
+        rRot = (rRot + turned) % 360.0f;
+        return turned;
+    }
+    
+    //Stores the state of the selected robot in the fleet and updates
+    //its position in the spatial index of the robots
+    private void saveRobot() {
+    	if (fleet.isPositioned(current)) {
+    		robotGrid.remove(current, fleet.getX(current), fleet.getY(current), R_SIZE, R_SIZE);
+    	}
+    	fleet.set(current, rX, rY, rRot, positioned, rTrail);
+    	if (positioned) robotGrid.insert(current, rX, rY, R_SIZE, R_SIZE);
+    }
+    
+    //Selects a robot, loading its state from the fleet
+    private void loadRobot(int id) {
+    	current = id;
+    	rX = fleet.getX(id);
+    	rY = fleet.getY(id);
+    	rRot = fleet.getRot(id);
+    	positioned = fleet.isPositioned(id);
+    	rTrail = fleet.hasTrail(id);
+    	nearestEpoch = -1;
+    }
+    
+    /**
+     * Moves all the positioned robots the given distance along their
+     * headings (see Motion.moveFleet). Then the sensors of all the robots
+     * are read in parallel and cached.
+     * @param stopped The robots marked are not moved, and the robots
+     * that stop before the distance are marked (null if the motion is
+     * not split in pieces).
+     * @return The longest distance moved by a robot.
+     */
+    private double moveFleet(float dist, boolean[] stopped) {
+    	saveRobot();
+    	double longest = motion.moveFleet(dist, stopped);
+    	loadRobot(current);
+    	++epoch;
+    	final int e = epoch;
+    	fleet.parallel(id -> {
+    		if (!fleet.isPositioned(id)) return;
+    		fleet.setSensors(id, readSensors(id, fleet.getX(id), fleet.getY(id), fleet.getRot(id)), e);
+    	});
+    	return longest;
+    }
+    
+    /**
+     * Writes a checkpoint with the state of the execution (see
+     * Checkpoint): the position of each function being executed is
+     * taken from the path of blocks and instructions of the tree engine.
+     */
+    private void writeCheckpoint(String file) {
+    	saveRobot();
+    	out.flush();
+    	int[][] blocks = new int[frameDepth][], instrs = new int[frameDepth][];
+    	for (int k = 0; k < frameDepth; ++k) {
+    		int end = k + 1 < frameDepth ? frameBase[k+1] : posDepth;
+    		blocks[k] = new int[end - frameBase[k]];
+    		instrs[k] = new int[end - frameBase[k]];
+    		for (int d = frameBase[k]; d < end; ++d) {
+    			blocks[k][d - frameBase[k]] = posBlock[d].getChildIndex();
+    			instrs[k][d - frameBase[k]] = posIndex[d];
+    		}
+    	}
+    	new Checkpoint(blocks, instrs, current, simTime, linSpeed, angSpeed)
+    		.write(file, program, Stack, fleet, obstacles, movers, noise, rng);
+    }
+    
+    /**
+     * Reads a checkpoint written by writeCheckpoint(). The paths of the
+     * functions are kept to resume the execution, and the spatial indices
+     * are rebuilt from the robots and obstacles read.
+     */
+    private void readCheckpoint(String file) {
+    	Checkpoint c = Checkpoint.read(file, program, Stack, fleet, obstacles, movers, noise, rng);
+    	resumeFuncs = c.getFunctions();
+    	resumeBlocks = c.getBlocks();
+    	resumeInstrs = c.getInstrs();
+    	simTime = c.getTime();
+    	linSpeed = c.getLinSpeed();
+    	angSpeed = c.getAngSpeed();
+    	loadRobot(c.getCurrent());
+    	for (int id = 0; id < obstacles.size(); ++id) {
+    		if (!obstacles.isRemoved(id)) indexObstacle(id);
+    	}
+    	for (int id = 0; id < fleet.size(); ++id) {
+    		if (fleet.isPositioned(id)) robotGrid.insert(id, fleet.getX(id), fleet.getY(id), R_SIZE, R_SIZE);
+    	}
+    	++epoch;
+    	
+    	if (txttrace) {
+    		out.println("Checkpoint resumed:");
+    		out.println("File: "+file+", Time: "+simTime);
+    	}
+    }
+    
+    //Registers a function that starts its execution. It can be resumed
+    //from a checkpoint if it is main or it is called directly by the
+    //instruction being executed by its caller
+    private void pushFrame(AslTree args) {
+    	boolean safe = true;
+    	if (frameDepth > 0) {
+    		AslTree call = Checkpoint.directCall(posBlock[posDepth-1].getChild(posIndex[posDepth-1]));
+    		safe = call != null && call.getChild(1) == args;
+    	}
+    	if (frameDepth == frameBase.length) {
+    		frameBase = Arrays.copyOf(frameBase, 2*frameDepth);
+    		frameSafe = Arrays.copyOf(frameSafe, 2*frameDepth);
+    	}
+    	frameBase[frameDepth] = posDepth;
+    	frameSafe[frameDepth] = safe;
+    	if (!safe) ++unsafeFrames;
+    	++frameDepth;
+    }
+    
+    //Unregisters the function that finishes its execution
+    private void popFrame() {
+    	--frameDepth;
+    	if (!frameSafe[frameDepth]) --unsafeFrames;
+    }
+    
+    /**
+     * Continues the execution of a function of the checkpoint being
+     * resumed, whose activation record is already on the stack. The
+     * instructions are executed from the position of the checkpoint.
+     * @param k The index of the function in the checkpoint (0 for main).
+     * @param args The AST node of the list of arguments of the caller.
+     * @return The data returned by the function.
+     */
+    private Data resumeFunction(int k, AslTree args) {
+    	resumeFrame = k;
+    	AslTree f = resumeFuncs[k];
+    	pushFrame(args);
+    	Data result = executeListInstructions(f.getChild(2), resumeInstrs[k][0], 0);
+    	if (result == null) result = Data.VOID;
+    	popFrame();
+    	Stack.popActivationRecord();
+    	return result;
+    }
+    
+    /**
+     * Continues the execution of an instruction of the checkpoint being
+     * resumed. An if or a while continues the execution of its block (a
+     * while then evaluates its condition again), and a call to the next
+     * function of the checkpoint resumes that function and uses its
+     * result. The instruction of the innermost function is executed
+     * again from the beginning.
+     * @param t The AST of the instruction.
+     * @param level The position of the instruction in the path of the
+     * function.
+     * @return The data returned by the instruction (see executeInstruction).
+     */
+    private Data resumeInstruction(AslTree t, int level) {
+    	int k = resumeFrame;
+    	int[] blocks = resumeBlocks[k], instrs = resumeInstrs[k];
+    	if (level + 1 < blocks.length) {
+    		setLineNumber(t);
+    		Data r = executeListInstructions(t.getChild(blocks[level+1]), instrs[level+1], level + 1);
+    		if (r != null || t.getType() != RobotLexer.WHILE) return r;
+    		return executeInstruction(t); // Next iterations of the loop
+    	}
+    	if (k + 1 == resumeBlocks.length) {
+    		// The execution goes on normally from here
+    		resumeFuncs = null;
+    		resumeBlocks = null;
+    		resumeInstrs = null;
+    		return executeInstruction(t);
+    	}
+    	setLineNumber(t);
+    	Data value = resumeFunction(k + 1, Checkpoint.directCall(t).getChild(1));
+    	if (t.getType() == RobotLexer.FUNCALL) return null;
+    	if (value.isVoid()) throw new RuntimeException ("function expected to return a value");
+    	if (t.getType() == RobotLexer.RETURN) return value;
+    	Stack.defineVariable (t.getChild(0).getSlot(), value); // The result is not shared
+    	return null;
+    }
+    
+    /**
+     * Executes a function call. The call has been bound to a builtin or
+     * to the AST of a user function when the program was linked.
+     * @param call The AST node of the call.
      * @return The data returned by the function.
      */
-    private Data executeFunction (String funcname, AslTree args) {
+    private Data executeFunction (AslTree call) {
+        AslTree args = call.getChild(1);
+        Builtin b = call.getBuiltin();
+        if (b == null) return executeFunction(call.getFunction(), args);
+        Data[] argv = new Data[args.getChildCount()];
+        for (int i = 0; i < argv.length; ++i) {
+            AslTree a = args.getChild(i);
+            argv[i] = evaluateExpression(a);
+            // A variable could be modified by the next arguments
+            if (aliases(a) && args.callsFunction()) argv[i] = new Data(argv[i]);
+        }
+        return executeBuiltin(b, argv);
+    }
+
+    /**
+     * Executes a builtin function. The number of arguments has been
+     * checked when the program was linked.
+     * @param b The builtin.
+     * @param argv The values of the arguments.
+     * @return The data returned by the builtin.
+     */
+    Data executeBuiltin (Builtin b, Data[] argv) {
+        switch (b) {
         //----------------------------------------------------------
-        if (funcname.equals("rSet")) 
+        case rSet:
         {
-		      	if (args.getChildCount() != 3) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkFloat(value);
 		      	float newX = value.getFloatValue();
 		      	
-		      	n = args.getChild(1);
-		      	value = evaluateExpression(n);
+		      	value = argv[1];
 		      	checkFloat(value);
 		      	float newY = value.getFloatValue();
 		      	
-		      	n = args.getChild(2);
-		      	value = evaluateExpression(n);
+		      	value = argv[2];
 		      	checkFloat(value);
 		      	float newRot = value.getFloatValue();
 		      	
-		      	rX = newX; rY = newY; rRot = newRot;
-		      	rRot = rRot % 360.0f;
+		      	rX = newX; rY = newY; rRot = newRot;
+		      	rRot = rRot % 360.0f;
+		      	++epoch;
+		      	
+		      	if (!checkValidPos()) throw new RuntimeException("Position out of bounds");
+		      	
+		      	positioned = true;
+		      	
+		      	if (txttrace) {
+		      	
+    					if (!positioned) {
+				    		out.println("Robot positioned:");
+				    		
+				    	}
+				    	else out.println("Robot repositioned:");
+				    	out.println("X: "+rX+", Y: "+rY+", Rotation(Deg): "+rRot);
+				    	
+    				}
+    				if(!nodisplay) {
+    					display.updatePos(rX,rY,rRot);
+    					display.setPositioned(true);
+    				}
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rMove:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float dist = value.getFloatValue();
+		      	if (noise != null) dist = noise.move(dist, rng);
+		      			      	
+		      	float x0 = rX, y0 = rY;
+		      	final float sign = Math.signum(dist);
+		      	interleave(Math.abs(dist), linSpeed, a -> moveRobot(sign*a));
+		      	++epoch;
+		      	clock(Math.hypot((double)rX - x0, (double)rY - y0)/linSpeed, x0, y0, rRot);
+		      	
+		      	if (txttrace) {
+				    	out.println("Robot moved:");
+				    	out.println("X: "+rX+", Y: "+rY);
+				    }
+				    if (!nodisplay) {
+				    	display.updatePos(rX,rY,rRot);
+				    }
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rMoveUntil:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float dist = value.getFloatValue();
+		      	
+		      	value = argv[1];
+		      	checkInteger(value);
+		      	int sensors = value.getIntegerValue();
+		      	
+		      	if (sensors < 0 || sensors > 255) throw new RuntimeException("incorrect sensor mask");
+		      	if (noise != null) dist = noise.move(dist, rng);
+		      	
+		      	float x0 = rX, y0 = rY;
+		      	final float sign = Math.signum(dist);
+		      	final int[] fired = new int[1];
+		      	interleave(Math.abs(dist), linSpeed, a -> moveRobotUntil(sign*a, sensors, fired));
+		      	++epoch;
+		      	clock(Math.hypot((double)rX - x0, (double)rY - y0)/linSpeed, x0, y0, rRot);
+		      	
+		      	if (txttrace) {
+				    	out.println("Robot moved:");
+				    	out.println("X: "+rX+", Y: "+rY);
+				    }
+				    if (!nodisplay) {
+				    	display.updatePos(rX,rY,rRot);
+				    }
+		      	
+		      	Data result = new Data(fired[0]);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rArc:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float radius = value.getFloatValue();
+		      	
+		      	value = argv[1];
+		      	checkFloat(value);
+		      	float sweep = value.getFloatValue();
+		      	
+		      	if (radius < 0.0f) throw new RuntimeException("incorrect radius");
+		      	
+		      	float x0 = rX, y0 = rY, rot0 = rRot;
+		      	final float sign = Math.signum(sweep);
+		      	// Degrees per second: the slowest of the linear and angular motions
+		      	double speed = 1.0/Math.max(radius*Math.PI/180.0/linSpeed, 1.0/angSpeed);
+		      	float turned = sign*(float)interleave(Math.abs(sweep), speed,
+		      	                                      d -> Math.abs(arcRobot(radius, sign*d)));
+		      	++epoch;
+		      	double a = Math.toRadians(Math.abs((double)turned));
+		      	clock(Math.max(radius*a/linSpeed, Math.abs(turned)/angSpeed), x0, y0, rot0);
+		      	
+		      	if (txttrace) {
+				    	out.println("Robot moved:");
+				    	out.println("X: "+rX+", Y: "+rY+", Rotation(Deg): "+rRot);
+				    }
+				    if (!nodisplay) {
+				    	display.updateArc(radius, turned, rX, rY, rRot);
+				    }
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rMoveAll:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float dist = value.getFloatValue();
+		      	
+		      	float x0 = rX, y0 = rY;
+		      	final float sign = Math.signum(dist);
+		      	final boolean[] stopped = movers.size() == 0 ? null : new boolean[fleet.size()];
+		      	double longest = interleave(Math.abs(dist), linSpeed, a -> moveFleet(sign*a, stopped));
+		      	clock(longest/linSpeed, x0, y0, rRot);
+		      	
+		      	if (txttrace) {
+		      		out.println("Robots moved:");
+		      		for (int id = 0; id < fleet.size(); ++id) {
+		      			if (!fleet.isPositioned(id)) continue;
+		      			out.println("Robot: "+id+", X: "+fleet.getX(id)+", Y: "+fleet.getY(id));
+		      		}
+		      	}
+		      	if (!nodisplay) {
+		      		display.robotsMoved();
+		      	}
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rCreate:
+        {
+        		
+        		int id = fleet.create();
+        		
+        		if (txttrace) {
+        			out.println("Robot created:");
+        			out.println("Robot: "+id);
+        		}
+        		
+        		Data result = new Data(id);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rSelect:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkInteger(value);
+		      	int id = value.getIntegerValue();
 		      	
-		      	if (!checkValidPos()) throw new RuntimeException("Position out of bounds");
+		      	if (id < 0 || id >= fleet.size()) throw new RuntimeException("incorrect robot number");
 		      	
-		      	positioned = true;
+		      	saveRobot();
+		      	loadRobot(id);
 		      	
 		      	if (txttrace) {
+		      		out.println("Robot selected:");
+		      		out.println("Robot: "+id);
+		      	}
+		      	if (!nodisplay) {
+		      		display.select(id);
+		      	}
 		      	
-    					if (!positioned) {
-				    		System.out.println("Robot positioned:");
-				    		
-				    	}
-				    	else System.out.println("Robot repositioned:");
-				    	System.out.println("X: "+rX+", Y: "+rY+", Rotation(Deg): "+rRot);
-				    	
-    				}
-    				if(!nodisplay) {
-    					display.updatePos(rX,rY,rRot);
-    					display.setPositioned(true);
-    				}
-		      	
-		      	Data result = new Data();
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rSelected:
+        {
+        		
+        		Data result = new Data(current);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rMove")) 
+        case rGoto:
         {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 1) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
 		      	
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkFloat(value);
-		      	float dist = value.getFloatValue();
-		      			      	
-		      	moveRobot(dist);
+		      	float x = value.getFloatValue();
 		      	
-		      	if (txttrace) {
-				    	System.out.println("Robot moved:");
-				    	System.out.println("X: "+rX+", Y: "+rY);
-				    }
-				    if (!nodisplay) {
-				    	display.updatePos(rX,rY,rRot);
-				    }
+		      	value = argv[1];
+		      	checkFloat(value);
+		      	float y = value.getFloatValue();
 		      	
-		      	Data result = new Data();
+		      	boolean reached = gotoRobot(x, y);
+		      	
+		      	Data result = new Data(reached);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rTurn")) 
+        case rTurn:
         {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 1) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
 		      	
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkFloat(value);
 		      	float rot = value.getFloatValue();
+		      	if (noise != null) rot = noise.turn(rot, rng);
 		      	
+		      	float rot0 = rRot;
 		      	rRot += rot;
 		      	rRot = rRot % 360.0f;
+		      	++epoch;
+		      	elapse(Math.abs(rot)/angSpeed, rX, rY, rot0);
 		      	
 		      	if (txttrace) {
-		      	System.out.println("Robot rotated:");
-		      	System.out.println("Rotation(Deg): "+rRot);
+		      	out.println("Robot rotated:");
+		      	out.println("Rotation(Deg): "+rRot);
 		      	}
 		      	if(!nodisplay) {
     					display.updatePos(rX,rY,rRot);
     				}
 		      	
-		      	Data result = new Data();
-		      	return result;
+		      	return Data.VOID;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("oSet")) 
+        case oSet:
         {
-        		if (args.getChildCount() != 4) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
 		      	
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkFloat(value);
 		      	float x = value.getFloatValue();
 		      	
-		      	n = args.getChild(1);
-		      	value = evaluateExpression(n);
+		      	value = argv[1];
 		      	checkFloat(value);
 		      	float y = value.getFloatValue();
 		      	
-		      	n = args.getChild(2);
-		      	value = evaluateExpression(n);
+		      	value = argv[2];
 		      	checkFloat(value);
 		      	float sx = value.getFloatValue();
 		      	
-		      	n = args.getChild(3);
-		      	value = evaluateExpression(n);
+		      	value = argv[3];
 		      	checkFloat(value);
 		      	float sy = value.getFloatValue();
 		      	
-		      	Obstacle obs = new Obstacle();
-		      	obs.X = x;
-		      	obs.Y = y;
-		      	obs.sizeX = sx;
-		      	obs.sizeY = sy;
+		      	checkObstacle(x, y, sx, sy);
+		      	int id = obstacles.add(x, y, sx, sy);
+		      	indexObstacle(id);
+		      	++epoch;
+		      	
+		      	if (txttrace) {
+		      		out.println("Obstacle set:");
+		      		out.println("X: "+x+", Y: "+y+", H. size: "+sx+", V. size: "+sy);
+		      	}
+		      	if (!nodisplay) {
+		      		display.obstaclesChanged();
+		      	}
+		      	Data result = new Data(id);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case oMove:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkInteger(value);
+		      	int id = value.getIntegerValue();
+		      	checkObstacleId(id);
+		      	
+		      	value = argv[1];
+		      	checkFloat(value);
+		      	float x = obstacles.getX(id) + value.getFloatValue();
+		      	
+		      	value = argv[2];
+		      	checkFloat(value);
+		      	float y = obstacles.getY(id) + value.getFloatValue();
+		      	
+		      	float sx = obstacles.getSizeX(id), sy = obstacles.getSizeY(id);
+		      	checkObstacle(x, y, sx, sy);
+		      	moveObstacle(id, x, y);
+		      	++epoch;
+		      	
+		      	if (txttrace) {
+		      		out.println("Obstacle moved:");
+		      		out.println("Obstacle: "+id+", X: "+x+", Y: "+y);
+		      	}
+		      	if (!nodisplay) {
+		      		display.obstaclesChanged();
+		      	}
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case oRemove:
+        {
+		      	Data value;
 		      	
-		      	if (intersects(obs)) throw new RuntimeException("obstacle overlaps with robot");
+		      	value = argv[0];
+		      	checkInteger(value);
+		      	int id = value.getIntegerValue();
+		      	checkObstacleId(id);
 		      	
-		      	boolean valid = true;
-		      	if ((x - sx/2.0) < 0.0f) valid = false;
-    				if ((x + sx/2.0) > ENV_SIZE) valid = false;
-    				if ((y - sy/2.0) < 0.0f) valid = false;
-    				if ((y + sy/2.0) > ENV_SIZE) valid = false;
-    				if (!valid) throw new RuntimeException("obstacle out of bounds");
-    						      	
-		      	obsList.add(obs);
+		      	removeObstacle(id);
+		      	++epoch;
 		      	
 		      	if (txttrace) {
-		      		System.out.println("Obstacle set:");
-		      		System.out.println("X: "+x+", Y: "+y+", H. size: "+sx+", V. size: "+sy);
+		      		out.println("Obstacle removed:");
+		      		out.println("Obstacle: "+id);
 		      	}
 		      	if (!nodisplay) {
-		      		display.addObs(obs);
+		      		display.obstaclesChanged();
+		      	}
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case oVelocity:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkInteger(value);
+		      	int id = value.getIntegerValue();
+		      	checkObstacleId(id);
+		      	
+		      	value = argv[1];
+		      	checkFloat(value);
+		      	float vx = value.getFloatValue();
+		      	
+		      	value = argv[2];
+		      	checkFloat(value);
+		      	float vy = value.getFloatValue();
+		      	
+		      	movers.set(id, vx, vy);
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case oStep:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float dt = value.getFloatValue();
+		      	
+		      	if (dt < 0.0f) throw new RuntimeException("incorrect time step");
+		      	
+		      	int moved = elapse(dt, rX, rY, rRot);
+		      	
+		      	if (txttrace) {
+		      		out.println("Obstacles advanced:");
+		      		out.println("Time: "+dt+", Moved: "+moved);
 		      	}
-		      	Data result = new Data();
+		      	Data result = new Data(moved);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rSpeed:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float lin = value.getFloatValue();
+		      	
+		      	value = argv[1];
+		      	checkFloat(value);
+		      	float ang = value.getFloatValue();
+		      	
+		      	if (lin <= 0.0f || ang <= 0.0f) throw new RuntimeException("incorrect speed");
+		      	
+		      	linSpeed = lin;
+		      	angSpeed = ang;
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rTime:
+        {
+        		
+        		Data result = new Data((float)simTime);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rTrail")) 
+        case oLoad:
+        {
+		      	Data value;
+		      	
+		      	value = argv[0];
+		      	checkString(value);
+		      	
+		      	loadWorld(value.getStringValue());
+		      	
+		      	return Data.VOID;
+        }
+        //----------------------------------------------------------
+        case rTrail:
         {
-        		if (args.getChildCount() != 1) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
 
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkBoolean(value);
 		      	boolean activate = value.getBooleanValue();
 		      	
 		      	rTrail = activate;
 		      	
 		      	if (txttrace) {
-		      		if (activate) System.out.println("Trailing enabled.");
-		      		else System.out.println("Trailing disabled.");
+		      		if (activate) out.println("Trailing enabled.");
+		      		else out.println("Trailing disabled.");
 		      	}
 		      	if (!nodisplay) {
 		      		display.setTrail(activate);
 		      	}
 		      	
-		      	Data result = new Data();
-		      	return result;
+		      	return Data.VOID;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rFeel"))
+        case rFeel:
         {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 1) throw new RuntimeException("incorrect number of arguments");
-		      	AslTree n;
 		      	Data value;
 		      	
-		      	n = args.getChild(0);
-		      	value = evaluateExpression(n);
+		      	value = argv[0];
 		      	checkInteger(value);
 		      	int sensor = value.getIntegerValue();
 		      	
 		      	if (sensor < 0 || sensor > 7) throw new RuntimeException("incorrect sensor number");
 		      	
-		      	float orX, orY, orRot;
-		      	orX = rX; orY = rY; orRot = rRot;
-		      	
-		      	switch (sensor) {
-		      		case 0: rRot = rRot; break;
-		      		case 1: rRot = rRot + 45.0f; break;
-		      		case 2: rRot = rRot + 90.0f; break;
-		      		case 3: rRot = rRot + 135.0f; break;
-		      		case 4: rRot = rRot + 180.0f; break;
-		      		case 5: rRot = rRot + 225.0f; break;
-		      		case 6: rRot = rRot + 270.0f; break;
-		      		case 7: rRot = rRot + 315.0f; break;
-		      	}
-		      		
-		      	rX += SENSOR_R * Math.cos(Math.toRadians((double)rRot));
-						rY += SENSOR_R * Math.sin(Math.toRadians((double)rRot));
+		      	boolean sense = (feelSensors() & (1 << sensor)) != 0;
 		      	
-		      	boolean sense;
-		      	if (!checkColision() && checkValidPos()) sense = false;
-		      	else sense = true;
+		      	Data result = new Data(sense);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rFeelAll:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+        		
+        		Data result = new Data(feelSensors());
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rDistance:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+		      	Data value;
 		      	
-		      	rX = orX; rY = orY; rRot = orRot;
+		      	value = argv[0];
+		      	checkFloat(value);
+		      	float angle = value.getFloatValue();
 		      	
-		      	Data result = new Data(sense);
+		      	double a = Math.toRadians((double)(rRot + angle));
+		      	float dist = (float)motion.raycast(current, rX, rY, Math.cos(a), Math.sin(a));
+		      	
+		      	Data result = new Data(dist);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rNearest:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+        		
+        		float dist = -1.0f;
+        		if (findNearest()) {
+        			dist = (float)Math.hypot((double)nearestX - rX, (double)nearestY - rY);
+        		}
+        		
+        		Data result = new Data(dist);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rXPosition")) {
+        case rNearestDir:
+        {
+        		if (!positioned) throw new RuntimeException("robot is not positioned yet");
+        		
+        		float dir = 0.0f;
+        		if (findNearest()) {
+        			double a = Math.toDegrees(Math.atan2((double)nearestY - rY, (double)nearestX - rX));
+        			a = (a - rRot) % 360.0;
+        			if (a > 180.0) a -= 360.0;
+        			else if (a <= -180.0) a += 360.0;
+        			dir = (float)a;
+        		}
+        		
+        		Data result = new Data(dir);
+		      	return result;
+        }
+        //----------------------------------------------------------
+        case rXPosition:
+        {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 0) throw new RuntimeException("incorrect number of arguments");
         		
         		Data result = new Data(rX);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rYPosition")) {
+        case rYPosition:
+        {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 0) throw new RuntimeException("incorrect number of arguments");
         		
         		Data result = new Data(rY);
 		      	return result;
         }
         //----------------------------------------------------------
-        else if (funcname.equals("rRotation")) {
+        case rRotation:
+        {
         		if (!positioned) throw new RuntimeException("robot is not positioned yet");
-        		if (args.getChildCount() != 0) throw new RuntimeException("incorrect number of arguments");
         		
         		Data result = new Data(rRot);
 		      	return result;
         }
         //----------------------------------------------------------
-        
-        
-        // Get the AST of the function
-        AslTree f = FuncName2Tree.get(funcname);
-        
-        if (f == null) throw new RuntimeException(" function " + funcname + " not declared");
+        default: break;
+        }
+        assert false; // All the builtins are handled
+        return null;
+    }
 
+    /**
+     * Executes a user function.
+     * @param f The AST of the function.
+     * @param args The AST node representing the list of arguments of the caller.
+     * @return The data returned by the function.
+     */
+    private Data executeFunction (AslTree f, AslTree args) {
         // Gather the list of arguments of the caller. This function
         // performs all the checks required for the compatibility of
         // parameters.
         ArrayList<Data> Arg_values = listArguments(f, args);
 
+        // Compiled code of a hot function
+        if (jit != null) {
+            Data result = jit.execute(f, Arg_values, lineNumber());
+            if (result != null) return result;
+        }
+        return executeFunction(f, Arg_values, args);
+    }
+
+    /**
+     * Executes a user function with the values of the arguments.
+     * @param f The AST of the function.
+     * @param Arg_values The values of the arguments (the data of the
+     * variables passed by reference).
+     * @param args The AST node representing the list of arguments of the
+     * caller (null if the arguments have not been evaluated by the tree
+     * interpreter).
+     * @return The data returned by the function.
+     */
+    Data executeFunction (AslTree f, ArrayList<Data> Arg_values, AslTree args) {
+        String funcname = f.getChild(0).getText();
+        int caller = jitFunction;
+        if (jit != null) jitFunction = jit.id(f);
+
         // Dumps trace information (function call and arguments)
         if (trace != null) traceFunctionCall(f, Arg_values);
         
@@ -542,28 +1885,30 @@ public class Interp {
         int nparam = p.getChildCount(); // Number of parameters
 
         // Create the activation record in memory
-        Stack.pushActivationRecord(funcname, lineNumber());
+        Stack.pushActivationRecord(funcname, lineNumber(), f.getLocals(), f.getFrameSize());
+        pushFrame(args);
 
         // Track line number
         setLineNumber(f);
          
         // Copy the parameters to the current activation record
         for (int i = 0; i < nparam; ++i) {
-            String param_name = p.getChild(i).getText();
-            Stack.defineVariable(param_name, Arg_values.get(i));
+            Stack.defineVariable(p.getChild(i).getSlot(), Arg_values.get(i));
         }
 
         // Execute the instructions
         Data result = executeListInstructions (f.getChild(2));
 
         // If the result is null, then the function returns void
-        if (result == null) result = new Data();
+        if (result == null) result = Data.VOID;
         
         // Dumps trace information
         if (trace != null) traceReturn(f, result, Arg_values);
         
         // Destroy the activation record
+        popFrame();
         Stack.popActivationRecord();
+        jitFunction = caller;
 
         return result;
     }
@@ -577,14 +1922,38 @@ public class Interp {
      * statement has been executed).
      */
     private Data executeListInstructions (AslTree t) {
+        return executeListInstructions(t, 0, -1);
+    }
+
+    /**
+     * Executes a block of instructions from a given instruction. The
+     * position of the instruction being executed is tracked for the
+     * checkpoints.
+     * @param t The AST of the block of instructions.
+     * @param first The index of the first instruction executed.
+     * @param level If non-negative, the first instruction is resumed from
+     * the checkpoint at this level of the path (see resumeInstruction).
+     * @return The data returned by the instructions (null if no return
+     * statement has been executed).
+     */
+    private Data executeListInstructions (AslTree t, int first, int level) {
         assert t != null;
+        if (posDepth == posBlock.length) {
+            posBlock = Arrays.copyOf(posBlock, 2*posDepth);
+            posIndex = Arrays.copyOf(posIndex, 2*posDepth);
+        }
+        int d = posDepth++;
+        posBlock[d] = t;
         Data result = null;
         int ninstr = t.getChildCount();
-        for (int i = 0; i < ninstr; ++i) {
-            result = executeInstruction (t.getChild(i));
-            if (result != null) return result;
+        for (int i = first; i < ninstr; ++i) {
+            posIndex[d] = i;
+            if (level >= 0 && i == first) result = resumeInstruction (t.getChild(i), level);
+            else result = executeInstruction (t.getChild(i));
+            if (result != null) break;
         }
-        return null;
+        posDepth = d;
+        return result;
     }
     
     /**
@@ -598,17 +1967,33 @@ public class Interp {
     private Data executeInstruction (AslTree t) {
         assert t != null;
         
+        // Periodic checkpoint, delayed while it cannot be resumed
+        if (checkpointFile != null && --untilCheckpoint <= 0 && unsafeFrames == 0) {
+            writeCheckpoint(checkpointFile);
+            untilCheckpoint = checkpointPeriod;
+        }
+        
         setLineNumber(t);
         Data value; // The returned value
 
         // A big switch for all type of instructions
         switch (t.getType()) {
 
-            // Assignment
-            case RobotLexer.ASSIGN:
-                value = evaluateExpression(t.getChild(1));
-                Stack.defineVariable (t.getChild(0).getText(), value);
+            // Assignment. The result of an arithmetic operator is stored
+            // in the data of the variable, if it is already defined.
+            case RobotLexer.ASSIGN: {
+                AslTree e = t.getChild(1);
+                int slot = t.getChild(0).getSlot();
+                Data var = Stack.findVariable(slot);
+                if (var != null && isArithmetic(e)) {
+                    evaluateExpression(e, var);
+                    return null;
+                }
+                value = evaluateExpression(e);
+                if (fresh(e)) Stack.defineVariable (slot, value);
+                else Stack.assignVariable (slot, value);
                 return null;
+            }
 
             // If-then-else
             case RobotLexer.IF:
@@ -619,39 +2004,33 @@ public class Interp {
                 if (t.getChildCount() == 3) return executeListInstructions(t.getChild(2));
                 return null;
 
-            // While
+            // While. The values cached by the loop are reset when it
+            // starts (see LoopOptimizer).
             case RobotLexer.WHILE:
+                if (t.getCacheCount() != 0) Stack.clearSlots(t.getCache(), t.getCacheCount());
                 while (true) {
                     value = evaluateExpression(t.getChild(0));
                     checkBoolean(value);
                     if (!value.getBooleanValue()) return null;
                     Data r = executeListInstructions(t.getChild(1));
                     if (r != null) return r;
+                    if (jit != null) jit.backEdge(jitFunction);
                 }
 
             // Return
             case RobotLexer.RETURN:
                 if (t.getChildCount() != 0) {
-                    return evaluateExpression(t.getChild(0));
+                    // The result is retained by the caller: it is not shared
+                    AslTree e = t.getChild(0);
+                    value = evaluateExpression(e);
+                    return fresh(e) ? value : new Data(value);
                 }
-                return new Data(); // No expression: returns void data
+                return Data.VOID; // No expression: returns void data
 
             // Read statement: reads a variable and raises an exception
             // in case of a format error.
             case RobotLexer.READ:
-                String token = null;
-                Data val = new Data(0);
-                try {
-                    token = stdin.next();
-                    val.setValue(Integer.parseInt(token)); 
-                } catch (NumberFormatException ex) {
-                		try {
-                			val.setValue(Float.parseFloat(token));
-                		} catch (NumberFormatException ex2) {
-                			val.setValue(token);
-                		}
-                }
-                Stack.defineVariable (t.getChild(0).getText(), val);
+                Stack.defineVariable (t.getChild(0).getSlot(), readValue());
                 return null;
 
             // Write statement: it can write an expression or a string.
@@ -659,17 +2038,17 @@ public class Interp {
                 AslTree v = t.getChild(0);
                 // Special case for strings
                 if (v.getType() == RobotLexer.STRING) {
-                    System.out.format(v.getStringValue());
+                    out.format(v.getStringValue());
                     return null;
                 }
 
                 // Write an expression
-                System.out.print(evaluateExpression(v).toString());
+                out.print(evaluateExpression(v).toString());
                 return null;
 
             // Function call
             case RobotLexer.FUNCALL:
-                executeFunction(t.getChild(0).getText(), t.getChild(1));
+                executeFunction(t);
                 return null;
 
             default: assert false; // Should never happen
@@ -681,12 +2060,125 @@ public class Interp {
     }
 
     /**
-     * Evaluates the expression represented in the AST t.
+     * Reads a value from the input: an integer, a float or a string.
+     * @return The value read.
+     */
+    Data readValue() {
+        String token = null;
+        Data val = new Data(0);
+        try {
+            token = stdin.next();
+            val.setValue(Integer.parseInt(token)); 
+        } catch (NumberFormatException ex) {
+        		try {
+        			val.setValue(Float.parseFloat(token));
+        		} catch (NumberFormatException ex2) {
+        			val.setValue(token);
+        		}
+        }
+        return val;
+    }
+
+    /** Returns the standard output of the program. */
+    PrintStream getOutput() { return out; }
+
+    /** Indicates whether the function calls are traced. */
+    boolean tracing() { return trace != null; }
+
+    /**
+     * Evaluates the expression represented in the AST t. The data of
+     * the value can be shared (the data of a variable or a literal, or
+     * a Boolean constant): it must not be modified, and it must be copied
+     * to be retained, unless the expression is fresh (see fresh()).
      * @param t The AST of the expression
      * @return The value of the expression.
      */
      
     private Data evaluateExpression(AslTree t) {
+        return evaluateExpression(t, null);
+    }
+
+    /**
+     * Evaluates an expression. The result of an arithmetic operator is
+     * stored in a given data.
+     * @param t The AST of the expression
+     * @param target The data for the result of an arithmetic operator
+     * (the variable of an assignment), or null.
+     * @return The value of the expression.
+     */
+    private Data evaluateExpression(AslTree t, Data target) {
+        // Value cached in a hidden slot by the loop optimizations. The
+        // calls of the functions are not cached while they are traced.
+        if (t.getCache() >= 0 && (trace == null || !t.callsFunction())) {
+            Data value = t.getInduction() >= 0 ? evaluateReduced(t) : evaluateInvariant(t);
+            if (value != null) {
+                if (target == null) return value;
+                target.setData(value);
+                return target;
+            }
+        }
+        return evaluateNode(t, target);
+    }
+
+    /**
+     * Evaluates a loop-invariant expression. Its value is computed the
+     * first time it is evaluated after the loop starts, and cached in a
+     * hidden slot (see LoopOptimizer).
+     * @param t The AST of the expression.
+     * @return The cached value, that must not be modified.
+     */
+    private Data evaluateInvariant(AslTree t) {
+        Data value = Stack.findVariable(t.getCache());
+        if (value != null) return value;
+        value = new Data(evaluateNode(t, null));
+        Stack.defineVariable(t.getCache(), value);
+        return value;
+    }
+
+    /**
+     * Evaluates a strength-reduced multiplication of an induction
+     * variable (see LoopOptimizer). The hidden slots keep the product,
+     * the value of the variable and the increment of the product when
+     * the variable advances one step, so that the multiplication is only
+     * done when the variable jumps.
+     * @param t The AST of the multiplication.
+     * @return The product, that must not be modified, or null if the
+     * operands are not integers (it is evaluated as any multiplication).
+     */
+    private Data evaluateReduced(AslTree t) {
+        AslTree v = t.getChild(t.getInduction());
+        AslTree c = t.getChild(1 - t.getInduction());
+        Data x = Stack.findVariable(v.getSlot());
+        Data k = c.getType() == RobotLexer.ID ? Stack.findVariable(c.getSlot()) : c.getData();
+        if (x == null || k == null || !x.isInteger() || !k.isInteger()) return null;
+        int slot = t.getCache();
+        Data product = Stack.findVariable(slot);
+        if (product == null) {
+            product = new Data(x.getIntegerValue() * k.getIntegerValue());
+            Stack.defineVariable(slot, product);
+            Stack.defineVariable(slot + 1, new Data(x.getIntegerValue()));
+            Stack.defineVariable(slot + 2, new Data(t.getStep() * k.getIntegerValue()));
+            return product;
+        }
+        Data last = Stack.findVariable(slot + 1);
+        int d = x.getIntegerValue() - last.getIntegerValue();
+        if (d == t.getStep()) {
+            product.setValue(product.getIntegerValue() + Stack.findVariable(slot + 2).getIntegerValue());
+        } else if (d != 0) {
+            product.setValue(x.getIntegerValue() * k.getIntegerValue());
+        }
+        last.setValue(x.getIntegerValue());
+        return product;
+    }
+
+    /**
+     * Evaluates an expression without the cached values of the loops.
+     * @param t The AST of the expression
+     * @param target The data for the result of an arithmetic operator
+     * (the variable of an assignment), or null.
+     * @return The value of the expression.
+     */
+    private Data evaluateNode(AslTree t, Data target) {
         assert t != null;
 
         int previous_line = lineNumber();
@@ -698,27 +2190,18 @@ public class Interp {
         switch (type) {
             // A variable
             case RobotLexer.ID:
-                value = new Data(Stack.getVariable(t.getText()));
+                value = Stack.getVariable(t.getSlot());
                 break;
-            // An integer literal
+            // A literal
             case RobotLexer.INT:
-                value = new Data(t.getIntValue());
-                break;
-            // A Boolean literal
             case RobotLexer.BOOLEAN:
-                value = new Data(t.getBooleanValue());
-                break;
-            // A String literal
             case RobotLexer.STRING:
-                value = new Data(t.getStringValue());
-                break;
-            // A Float literal
             case RobotLexer.FLOAT:
-                value = new Data(t.getFloatValue());
+                value = t.getData();
                 break;
             // A function call. Checks that the function returns a result.
             case RobotLexer.FUNCALL:
-                value = executeFunction(t.getChild(0).getText(), t.getChild(1));
+                value = executeFunction(t);
                 assert value != null;
                 if (value.isVoid()) {
                     throw new RuntimeException ("function expected to return a value");
@@ -734,7 +2217,8 @@ public class Interp {
         }
         
         // Unary operators
-        value = evaluateExpression(t.getChild(0));
+        AslTree a = t.getChild(0);
+        value = evaluateExpression(a);
         if (t.getChildCount() == 1) {
             switch (type) {
                 case RobotLexer.PLUS:
@@ -742,12 +2226,13 @@ public class Interp {
                     break;
                 case RobotLexer.MINUS:
                     checkNumeric(value);
+                    if (!fresh(a)) value = new Data(value);
                     if (value.isFloat()) value.setValue(-value.getFloatValue());
                     else value.setValue(-value.getIntegerValue());
                     break;
                 case RobotLexer.NOT:
                     checkBoolean(value);
-                    value.setValue(!value.getBooleanValue());
+                    value = Data.valueOf(!value.getBooleanValue());
                     break;
                 default: assert false; // Should never happen
             }
@@ -755,7 +2240,14 @@ public class Interp {
             return value;
         }
 
-        // Two operands
+        // Two operands. A variable used as the first operand is copied
+        // if the second one calls a function, that could modify it.
+        AslTree b = t.getChild(1);
+        boolean owned = fresh(a);
+        if (aliases(a) && b.callsFunction() && type != RobotLexer.AND && type != RobotLexer.OR) {
+            value = new Data(value);
+            owned = true;
+        }
         Data value2;
         switch (type) {
             // Relational operators
@@ -765,7 +2257,7 @@ public class Interp {
             case RobotLexer.LE:
             case RobotLexer.GT:
             case RobotLexer.GE:
-                value2 = evaluateExpression(t.getChild(1));
+                value2 = evaluateExpression(b);
                 if (value.getType() != value2.getType()) {
                   throw new RuntimeException ("Incompatible types in relational expression");
                 }
@@ -774,21 +2266,21 @@ public class Interp {
 
             // Arithmetic operators
             case RobotLexer.PLUS:
-                value2 = evaluateExpression(t.getChild(1));
+                value2 = evaluateExpression(b);
                 if (value2.isInteger() || value2.isInteger()) { checkNumeric(value); checkNumeric(value2); }
-                value.evaluateArithmetic(type, value2);
+                value = evaluateArithmetic(type, value, owned, value2, fresh(b), target);
                 break;
             case RobotLexer.MINUS:
             case RobotLexer.MUL:
             case RobotLexer.DIV:
-            		value2 = evaluateExpression(t.getChild(1));
+            		value2 = evaluateExpression(b);
                 checkNumeric(value); checkNumeric(value2);
-                value.evaluateArithmetic(type, value2);
+                value = evaluateArithmetic(type, value, owned, value2, fresh(b), target);
                 break;
             case RobotLexer.MOD:
-                value2 = evaluateExpression(t.getChild(1));
+                value2 = evaluateExpression(b);
                 checkInteger(value); checkInteger(value2);
-                value.evaluateArithmetic(type, value2);
+                value = evaluateArithmetic(type, value, owned, value2, fresh(b), target);
                 break;
 
             // Boolean operators
@@ -797,7 +2289,7 @@ public class Interp {
                 // The first operand is evaluated, but the second
                 // is deferred (lazy, short-circuit evaluation).
                 checkBoolean(value);
-                value = evaluateBoolean(type, value, t.getChild(1));
+                value = evaluateBoolean(type, value, b);
                 break;
 
             default: assert false; // Should never happen
@@ -815,7 +2307,7 @@ public class Interp {
      * @param type Type of operator (token).
      * @param v First operand.
      * @param t AST node of the second operand.
-     * @return An Boolean data with the value of the expression.
+     * @return The shared Boolean data with the value of the expression.
      */
     private Data evaluateBoolean (int type, Data v, AslTree t) {
         // Boolean evaluation with short-circuit
@@ -823,12 +2315,12 @@ public class Interp {
         switch (type) {
             case RobotLexer.AND:
                 // Short circuit if v is false
-                if (!v.getBooleanValue()) return v;
+                if (!v.getBooleanValue()) return Data.FALSE;
                 break;
         
             case RobotLexer.OR:
                 // Short circuit if v is true
-                if (v.getBooleanValue()) return v;
+                if (v.getBooleanValue()) return Data.TRUE;
                 break;
                 
             default: assert false;
@@ -837,24 +2329,127 @@ public class Interp {
         // Return the value of the second expression
         v = evaluateExpression(t);
         checkBoolean(v);
-        return v;
+        return Data.valueOf(v.getBooleanValue());
+    }
+
+    /**
+     * Evaluates an arithmetic operator whose operands have been checked.
+     * The integer and float operations are calculated without creating
+     * data when the result can be stored in the target or in an operand
+     * that is owned by the caller.
+     * @param type Type of operator (token).
+     * @param a First operand.
+     * @param owned Indicates whether the first operand can be modified.
+     * @param b Second operand.
+     * @param owned2 Indicates whether the second operand can be modified.
+     * @param target The data for the result, or null.
+     * @return The data with the result.
+     */
+    private static Data evaluateArithmetic (int type, Data a, boolean owned, Data b, boolean owned2, Data target) {
+        Data r = target != null ? target : owned ? a : owned2 ? b : null;
+        if (a.isInteger() && b.isInteger()) {
+            int x = a.getIntegerValue(), y = b.getIntegerValue();
+            switch (type) {
+                case RobotLexer.PLUS: x += y; break;
+                case RobotLexer.MINUS: x -= y; break;
+                case RobotLexer.MUL: x *= y; break;
+                default:
+                    if (y == 0) throw new RuntimeException ("Division by zero");
+                    x = type == RobotLexer.DIV ? x / y : x % y;
+                    break;
+            }
+            if (r == null) return new Data(x);
+            r.setValue(x);
+            return r;
+        }
+        if (a.isFloat() && b.isFloat()) {
+            float x = a.getFloatValue(), y = b.getFloatValue();
+            switch (type) {
+                case RobotLexer.PLUS: x += y; break;
+                case RobotLexer.MINUS: x -= y; break;
+                case RobotLexer.MUL: x *= y; break;
+                default:
+                    if (y == 0.0) throw new RuntimeException ("Division by zero");
+                    x /= y;
+                    break;
+            }
+            if (r == null) return new Data(x);
+            r.setValue(x);
+            return r;
+        }
+        // Other types (Data checks them)
+        if (!owned) a = new Data(a);
+        a.evaluateArithmetic(type, b);
+        if (target == null) return a;
+        target.setData(a);
+        return target;
+    }
+
+    /**
+     * Indicates whether the data of an expression is created by its
+     * evaluation (an arithmetic operator or a function call), so that
+     * it can be modified or retained without a copy. The values cached
+     * by the loops are shared.
+     */
+    private static boolean fresh(AslTree t) {
+        if (t.getCache() >= 0) return false;
+        switch (t.getType()) {
+            case RobotLexer.FUNCALL:
+            case RobotLexer.MINUS:
+            case RobotLexer.MUL:
+            case RobotLexer.DIV:
+            case RobotLexer.MOD:
+                return true;
+            case RobotLexer.PLUS:
+                return t.getChildCount() == 2 || fresh(t.getChild(0));
+            default:
+                return false;
+        }
+    }
+
+    /** Indicates whether the data of an expression can be the data of a variable. */
+    private static boolean aliases(AslTree t) {
+        while (t.getType() == RobotLexer.PLUS && t.getChildCount() == 1) t = t.getChild(0);
+        return t.getType() == RobotLexer.ID;
+    }
+
+    /** Indicates whether an expression is a binary arithmetic operator. */
+    private static boolean isArithmetic(AslTree t) {
+        if (t.getChildCount() != 2) return false;
+        switch (t.getType()) {
+            case RobotLexer.PLUS:
+            case RobotLexer.MINUS:
+            case RobotLexer.MUL:
+            case RobotLexer.DIV:
+            case RobotLexer.MOD:
+                return true;
+            default:
+                return false;
+        }
     }
 
     /** Checks that the data is Boolean and raises an exception if it is not. */
-    private void checkBoolean (Data b) {
+    static void checkBoolean (Data b) {
         if (!b.isBoolean()) {
             throw new RuntimeException ("Expecting Boolean expression");
         }
     }
     
     /** Checks that the data is integer and raises an exception if it is not. */
-    private void checkInteger (Data b) {
+    static void checkInteger (Data b) {
         if (!b.isInteger()) {
             throw new RuntimeException ("Expecting integer number");
         }
     }
     
-    private void checkNumeric (Data b) {
+    /** Checks that the data is a string and raises an exception if it is not. */
+    private void checkString (Data b) {
+        if (!b.isString()) {
+            throw new RuntimeException ("Expecting string");
+        }
+    }
+    
+    static void checkNumeric (Data b) {
         if (!b.isInteger()) {
         		if (!b.isFloat()) {
         			throw new RuntimeException ("Expecting numerical expression");
@@ -895,15 +2490,17 @@ public class Interp {
             AslTree a = args.getChild(i); // Arguments passed by the caller
             setLineNumber(a);
             if (p.getType() == RobotLexer.PVALUE) {
-                // Pass by value: evaluate the expression
-                Params.add(i,evaluateExpression(a));
+                // Pass by value: evaluate the expression (the data
+                // becomes a variable of the callee)
+                Data v = evaluateExpression(a);
+                Params.add(i, fresh(a) ? v : new Data(v));
             } else {
                 // Pass by reference: check that it is a variable
                 if (a.getType() != RobotLexer.ID) {
                     throw new RuntimeException("Wrong argument for pass by reference");
                 }
                 // Find the variable and pass the reference
-                Data v = Stack.getVariable(a.getText());
+                Data v = Stack.getVariable(a.getSlot());
                 Params.add(i,v);
             }
         }
@@ -917,7 +2514,7 @@ public class Interp {
      * @param f AST of the function
      * @param arg_values Values of the parameters passed to the function
      */
-    private void traceFunctionCall(AslTree f, ArrayList<Data> arg_values) {
+    void traceFunctionCall(AslTree f, ArrayList<Data> arg_values) {
         function_nesting++;
         AslTree params = f.getChild(1);
         int nargs = params.getChildCount();
@@ -947,7 +2544,7 @@ public class Interp {
      * @param result The value of the result
      * @param arg_values The value of the parameters passed to the function
      */
-    private void traceReturn(AslTree f, Data result, ArrayList<Data> arg_values) {
+    void traceReturn(AslTree f, Data result, ArrayList<Data> arg_values) {
         for (int i=0; i < function_nesting; ++i) trace.print("|   ");
         function_nesting--;
         trace.print("return");
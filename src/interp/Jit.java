@@ -0,0 +1,223 @@
+package interp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tiered execution of the user functions. The tree interpreter counts
+ * the calls and the loop iterations (back-edges) of each function. When
+ * a function becomes hot, it is compiled in the background to a JVM
+ * class specialized for the types of the arguments of its last call (see
+ * JitCompiler). The following calls with the same types execute the
+ * compiled code; the calls with other types (the type guard fails) and
+ * the functions that cannot be compiled are executed by the interpreter.
+ * The compiled functions push their activation records (without slots),
+ * so that the stack traces are the same as in the interpreter.
+ */
+
+public class Jit {
+
+    /** Number of calls and back-edges that makes a function hot. */
+    static final int HOT = 1000;
+
+    /** Code of a compiled function. */
+    public interface Code {
+        /**
+         * Executes the function. The types of the arguments have been
+         * checked by the guard.
+         * @param j The JIT of the interpreter.
+         * @param argv The values of the arguments.
+         * @param line The line number of the call.
+         * @return The data returned by the function.
+         */
+        Data call(Jit j, Data[] argv, int line);
+    }
+
+    /**
+     * Compiled function and the types of its parameters (the guard). The
+     * code is null if the function could not be compiled.
+     */
+    static class Compiled {
+        final Code code;
+        final Data.Type[] types;
+        Compiled(Code c, Data.Type[] t) { code = c; types = t; }
+    }
+
+    /** Profile and compiled code of a function. */
+    private static class Entry {
+        AslTree function;
+        String name;
+        String[] locals;
+        int count = 0;
+        /** Arguments of the last call (their types are the specialization). */
+        Data[] lastArgs = null;
+        boolean requested = false;
+        volatile Compiled compiled = null;
+    }
+
+    /** Thread that compiles the hot functions of all the interpreters. */
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jit");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Interp interp;
+
+    private Stack stack;
+
+    private Program program;
+
+    /** Functions, in order of declaration (the ids used by the compiled code). */
+    private Entry[] entries;
+
+    private IdentityHashMap<AslTree,Integer> ids = new IdentityHashMap<AslTree,Integer>();
+
+    /** True once the line of the current runtime error has been set. */
+    private boolean located = false;
+
+    public Jit(Interp I, Stack S, Program P) {
+        interp = I;
+        stack = S;
+        program = P;
+        AslTree T = P.getTree();
+        entries = new Entry[T.getChildCount()];
+        for (int i = 0; i < entries.length; ++i) {
+            Entry e = new Entry();
+            e.function = T.getChild(i);
+            e.name = e.function.getChild(0).getText();
+            e.locals = e.function.getLocals();
+            entries[i] = e;
+            ids.put(e.function, i);
+        }
+    }
+
+    /** Returns the id of a function. */
+    int id(AslTree f) { return ids.get(f); }
+
+    /**
+     * Executes a function called by the interpreter, if it has been
+     * compiled for the types of the arguments.
+     * @return The data returned by the function, or null if it must be
+     * executed by the interpreter.
+     */
+    Data execute(AslTree f, ArrayList<Data> args, int line) {
+        Entry e = entries[id(f)];
+        Compiled c = e.compiled;
+        if (c != null && c.code != null && matches(c.types, args)) {
+            return c.code.call(this, args.toArray(new Data[args.size()]), line);
+        }
+        if (!e.requested) {
+            ++e.count;
+            if (e.lastArgs == null || e.count >= HOT) e.lastArgs = args.toArray(new Data[args.size()]);
+            if (e.count >= HOT) request(e);
+        }
+        return null;
+    }
+
+    /** Counts an iteration of a loop of a function run by the interpreter. */
+    void backEdge(int id) {
+        Entry e = entries[id];
+        if (!e.requested && ++e.count >= HOT && e.lastArgs != null) request(e);
+    }
+
+    /** Compiles a hot function in the background. */
+    private void request(Entry e) {
+        e.requested = true;
+        final Entry entry = e;
+        final Data.Type[] types = new Data.Type[e.lastArgs.length];
+        for (int i = 0; i < types.length; ++i) types[i] = e.lastArgs[i].getType();
+        compiler.execute(() -> entry.compiled = JitCompiler.compile(program, entry.function, types));
+    }
+
+    /** Checks the types of the arguments of a call. */
+    private static boolean matches(Data.Type[] types, ArrayList<Data> args) {
+        for (int i = 0; i < types.length; ++i) {
+            if (args.get(i).getType() != types[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(Data.Type[] types, Data[] argv) {
+        for (int i = 0; i < types.length; ++i) {
+            if (argv[i].getType() != types[i]) return false;
+        }
+        return true;
+    }
+
+    //----------------------------------------------------------------
+    // Entry points of the compiled code
+
+    /**
+     * Calls a user function from the compiled code, with the arguments
+     * passed by value.
+     */
+    Data invoke(int id, Data[] argv, int line) {
+        Entry e = entries[id];
+        Compiled c = e.compiled;
+        if (c != null && c.code != null && matches(c.types, argv)) return c.code.call(this, argv, line);
+        if (!e.requested) {
+            ++e.count;
+            if (e.lastArgs == null || e.count >= HOT) e.lastArgs = argv;
+            if (e.count >= HOT) request(e);
+        }
+        try {
+            interp.setLineNumber(line);
+            return interp.executeFunction(e.function, new ArrayList<Data>(Arrays.asList(argv)), null);
+        } catch (RuntimeException | StackOverflowError ex) {
+            located = true; // The interpreter has set the line of the error
+            throw ex;
+        }
+    }
+
+    /** Pushes the activation record of a compiled function. */
+    void enter(int id, int line) {
+        Entry e = entries[id];
+        stack.pushActivationRecord(e.name, line, e.locals, 0);
+    }
+
+    /** Pops the activation record of a compiled function. */
+    void leave() {
+        stack.popActivationRecord();
+    }
+
+    /** Sets the line of a runtime error raised in a compiled function. */
+    void fail(int line) {
+        if (!located) {
+            located = true;
+            interp.setLineNumber(line);
+        }
+    }
+
+    Data builtin(Builtin b, Data[] argv) {
+        return interp.executeBuiltin(b, argv);
+    }
+
+    void format(String s) { interp.getOutput().format(s); }
+
+    void print(String s) { interp.getOutput().print(s); }
+
+    static int div(int a, int b) {
+        if (b == 0) throw new RuntimeException ("Division by zero");
+        return a / b;
+    }
+
+    static int mod(int a, int b) {
+        if (b == 0) throw new RuntimeException ("Division by zero");
+        return a % b;
+    }
+
+    static float div(float a, float b) {
+        if (b == 0.0) throw new RuntimeException ("Division by zero");
+        return a / b;
+    }
+
+    /** Checks the result of a call used in an expression. */
+    static Data value(Data d) {
+        if (d.isVoid()) throw new RuntimeException ("function expected to return a value");
+        return d;
+    }
+}
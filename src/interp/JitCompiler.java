@@ -0,0 +1,656 @@
+package interp;
+
+import parser.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiler of hot functions to JVM classes (see Jit). The types of the
+ * variables are inferred from the types of the arguments of a call (the
+ * specialization), and the compiled code keeps the variables in Java
+ * locals of primitive types. A function is only compiled if each variable
+ * has a single type and it is defined before it is used, and the types of
+ * all the expressions are known. The functions that read from the input
+ * or pass arguments by reference to user functions are left to the
+ * interpreter. Since the class-file API is not available in this JDK,
+ * the code is generated as Java source, compiled in memory with the
+ * system Java compiler and defined as a hidden class of this package.
+ */
+
+class JitCompiler {
+
+    /** Raised when a function cannot be compiled. */
+    @SuppressWarnings("serial")
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String msg) { super(msg, null, false, false); }
+    }
+
+    /** Types inferred for a function and a specialization. */
+    private static class Analysis {
+        AslTree f;
+        Data.Type[] params;
+        /** Type of each slot (null if unknown). */
+        Data.Type[] vars;
+        /** Slots of the parameters passed by reference. */
+        boolean[] byRef;
+        /** Type of the returned values (null if unknown or none). */
+        Data.Type result = null;
+        boolean changed;
+        /** In the last pass, unknown types are not allowed. */
+        boolean strict = false;
+    }
+
+    /** Index of each function (as in Jit). */
+    private IdentityHashMap<AslTree,Integer> ids = new IdentityHashMap<AslTree,Integer>();
+
+    /** Completed analyses, analyses in progress and failed ones. */
+    private HashMap<String,Analysis> done = new HashMap<String,Analysis>();
+
+    private HashMap<String,Analysis> active = new HashMap<String,Analysis>();
+
+    private HashSet<String> failed = new HashSet<String>();
+
+    /** Source being generated. */
+    private StringBuilder src;
+
+    private JitCompiler(Program P) {
+        AslTree T = P.getTree();
+        for (int i = 0; i < T.getChildCount(); ++i) ids.put(T.getChild(i), i);
+    }
+
+    /**
+     * Compiles a function for the given types of the arguments. The
+     * result is shared by all the interpreters of the program.
+     * @return The compiled function (its code is null if the function
+     * cannot be compiled).
+     */
+    static Jit.Compiled compile(Program P, AslTree f, Data.Type[] types) {
+        String key = key(f, types);
+        ConcurrentHashMap<String,Jit.Compiled> cache = P.getJitCache();
+        Jit.Compiled c = cache.get(key);
+        if (c != null) return c;
+        Jit.Code code = null;
+        try {
+            JitCompiler jc = new JitCompiler(P);
+            Analysis a = jc.analyze(f, types);
+            String cls = "Jit_" + f.getChild(0).getText();
+            code = load(cls, jc.generate(a, cls));
+        } catch (Unsupported e) {
+            // Left to the interpreter
+        }
+        cache.putIfAbsent(key, new Jit.Compiled(code, types));
+        return cache.get(key);
+    }
+
+    /** Key of a function and the types of its arguments, e.g. "f(IF)". */
+    private static String key(AslTree f, Data.Type[] types) {
+        StringBuilder s = new StringBuilder(f.getChild(0).getText()).append('(');
+        for (Data.Type t : types) s.append(t.name().charAt(0));
+        return s.append(')').toString();
+    }
+
+    //----------------------------------------------------------------
+    // Type inference
+
+    /**
+     * Infers the types of a function. The passes are repeated until
+     * no more types are found, and a last pass checks that all the
+     * types are known.
+     */
+    private Analysis analyze(AslTree f, Data.Type[] types) {
+        String key = key(f, types);
+        Analysis a = done.get(key);
+        if (a != null) return a;
+        if (failed.contains(key)) throw new Unsupported(key);
+        a = new Analysis();
+        a.f = f;
+        a.params = types;
+        int n = f.getLocals().length;
+        a.vars = new Data.Type[n];
+        a.byRef = new boolean[n];
+        AslTree p = f.getChild(1);
+        for (int i = 0; i < types.length; ++i) {
+            int slot = p.getChild(i).getSlot();
+            a.vars[slot] = types[i];
+            a.byRef[slot] = p.getChild(i).getType() == RobotLexer.PREF;
+        }
+        active.put(key, a);
+        try {
+            do {
+                a.changed = false;
+                block(a, f.getChild(2));
+            } while (a.changed);
+            a.strict = true;
+            block(a, f.getChild(2));
+            boolean[] defined = new boolean[n];
+            for (int i = 0; i < types.length; ++i) defined[p.getChild(i).getSlot()] = true;
+            defineBlock(f.getChild(2), defined);
+        } catch (Unsupported e) {
+            failed.add(key);
+            throw e;
+        } finally {
+            active.remove(key);
+        }
+        done.put(key, a);
+        return a;
+    }
+
+    private void block(Analysis a, AslTree t) {
+        for (int i = 0; i < t.getChildCount(); ++i) instruction(a, t.getChild(i));
+    }
+
+    private void instruction(Analysis a, AslTree t) {
+        Data.Type type;
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                type = expression(a, t.getChild(1));
+                if (type == null) return;
+                int slot = t.getChild(0).getSlot();
+                if (a.vars[slot] == null) {
+                    a.vars[slot] = type;
+                    a.changed = true;
+                } else if (a.vars[slot] != type) throw new Unsupported("variable with several types");
+                return;
+            case RobotLexer.IF:
+                condition(a, t.getChild(0));
+                block(a, t.getChild(1));
+                if (t.getChildCount() == 3) block(a, t.getChild(2));
+                return;
+            case RobotLexer.WHILE:
+                condition(a, t.getChild(0));
+                block(a, t.getChild(1));
+                return;
+            case RobotLexer.RETURN:
+                if (t.getChildCount() == 0) return;
+                type = expression(a, t.getChild(0));
+                if (type == null) return;
+                if (a.result == null) {
+                    a.result = type;
+                    a.changed = true;
+                } else if (a.result != type) throw new Unsupported("results with several types");
+                return;
+            case RobotLexer.READ:
+                throw new Unsupported("read");
+            case RobotLexer.WRITE:
+                if (t.getChild(0).getType() != RobotLexer.STRING) expression(a, t.getChild(0));
+                return;
+            case RobotLexer.FUNCALL:
+                call(a, t, false);
+                return;
+            default: assert false;
+        }
+    }
+
+    private void condition(Analysis a, AslTree t) {
+        Data.Type type = expression(a, t);
+        if (type != null && type != Data.Type.BOOLEAN) throw new Unsupported("condition");
+    }
+
+    /**
+     * Infers the type of an expression.
+     * @return The type, or null if it is not known yet.
+     */
+    private Data.Type expression(Analysis a, AslTree t) {
+        int type = t.getType();
+        switch (type) {
+            case RobotLexer.ID: {
+                Data.Type v = a.vars[t.getSlot()];
+                if (v == null && a.strict) throw new Unsupported("variable without type");
+                return v;
+            }
+            case RobotLexer.INT: return Data.Type.INTEGER;
+            case RobotLexer.FLOAT: return Data.Type.FLOAT;
+            case RobotLexer.BOOLEAN: return Data.Type.BOOLEAN;
+            case RobotLexer.STRING: return Data.Type.STRING;
+            case RobotLexer.FUNCALL: return call(a, t, true);
+            default: break;
+        }
+
+        Data.Type l = expression(a, t.getChild(0));
+        if (t.getChildCount() == 1) {
+            if (l == null) return null;
+            if (type == RobotLexer.NOT) {
+                if (l != Data.Type.BOOLEAN) throw new Unsupported("operand");
+            } else if (!numeric(l)) throw new Unsupported("operand");
+            return l;
+        }
+
+        Data.Type r = expression(a, t.getChild(1));
+        switch (type) {
+            case RobotLexer.AND:
+            case RobotLexer.OR:
+                if ((l != null && l != Data.Type.BOOLEAN) || (r != null && r != Data.Type.BOOLEAN)) {
+                    throw new Unsupported("operand");
+                }
+                return Data.Type.BOOLEAN;
+            case RobotLexer.EQUAL:
+            case RobotLexer.NOT_EQUAL:
+            case RobotLexer.LT:
+            case RobotLexer.LE:
+            case RobotLexer.GT:
+            case RobotLexer.GE:
+                if (l != null && r != null) {
+                    if (l != r) throw new Unsupported("operands");
+                    if (!numeric(l) && type != RobotLexer.EQUAL && type != RobotLexer.NOT_EQUAL) {
+                        throw new Unsupported("operands");
+                    }
+                }
+                return Data.Type.BOOLEAN;
+            default:
+                if (l == null || r == null) return null;
+                if (l != r || !numeric(l)) throw new Unsupported("operands");
+                if (type == RobotLexer.MOD && l != Data.Type.INTEGER) throw new Unsupported("operands");
+                return l;
+        }
+    }
+
+    private static boolean numeric(Data.Type t) {
+        return t == Data.Type.INTEGER || t == Data.Type.FLOAT;
+    }
+
+    /**
+     * Infers the type of the result of a call.
+     * @param value True if the result is used in an expression.
+     * @return The type, or null if it is not known yet.
+     */
+    private Data.Type call(Analysis a, AslTree t, boolean value) {
+        AslTree args = t.getChild(1);
+        int n = args.getChildCount();
+        Data.Type[] types = new Data.Type[n];
+        boolean known = true;
+        for (int i = 0; i < n; ++i) {
+            types[i] = expression(a, args.getChild(i));
+            if (types[i] == null) known = false;
+        }
+
+        Builtin b = t.getBuiltin();
+        if (b != null) {
+            if (value && b.getResultType() == Data.Type.VOID) throw new Unsupported("void builtin");
+            return b.getResultType();
+        }
+
+        AslTree f = t.getFunction();
+        AslTree p = f.getChild(1);
+        for (int i = 0; i < n; ++i) {
+            if (p.getChild(i).getType() == RobotLexer.PREF) throw new Unsupported("argument by reference");
+        }
+        if (!known) return null;
+
+        Data.Type result;
+        Analysis callee = active.get(key(f, types));
+        if (callee != null) result = callee.result; // Recursive call: the result found so far
+        else {
+            try {
+                result = analyze(f, types).result;
+                if (result == null) result = Data.Type.VOID;
+            } catch (Unsupported e) {
+                // The callee is executed by the interpreter
+                if (value && a.strict) throw e;
+                return null;
+            }
+        }
+        if (value && result == Data.Type.VOID) throw new Unsupported("void function");
+        if (result == null && value && a.strict) throw new Unsupported("unknown result");
+        return result;
+    }
+
+    /**
+     * Checks that the variables are defined before they are used.
+     * @param defined The variables defined before the block (updated).
+     * @return True if the block always returns.
+     */
+    private boolean defineBlock(AslTree t, boolean[] defined) {
+        for (int i = 0; i < t.getChildCount(); ++i) {
+            if (defineInstruction(t.getChild(i), defined)) return true;
+        }
+        return false;
+    }
+
+    private boolean defineInstruction(AslTree t, boolean[] defined) {
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                use(t.getChild(1), defined);
+                defined[t.getChild(0).getSlot()] = true;
+                return false;
+            case RobotLexer.IF: {
+                use(t.getChild(0), defined);
+                boolean[] d1 = defined.clone(), d2 = defined.clone();
+                boolean r1 = defineBlock(t.getChild(1), d1);
+                boolean r2 = t.getChildCount() == 3 && defineBlock(t.getChild(2), d2);
+                for (int i = 0; i < defined.length; ++i) defined[i] = (r1 || d1[i]) && (r2 || d2[i]);
+                return r1 && r2;
+            }
+            case RobotLexer.WHILE:
+                use(t.getChild(0), defined);
+                defineBlock(t.getChild(1), defined.clone());
+                return false;
+            case RobotLexer.RETURN:
+                if (t.getChildCount() != 0) use(t.getChild(0), defined);
+                return true;
+            case RobotLexer.WRITE:
+                use(t.getChild(0), defined);
+                return false;
+            default: // Function call
+                use(t, defined);
+                return false;
+        }
+    }
+
+    /** Checks that the variables of an expression are defined. */
+    private void use(AslTree t, boolean[] defined) {
+        if (t.getType() == RobotLexer.ID) {
+            if (!defined[t.getSlot()]) throw new Unsupported("variable not defined");
+            return;
+        }
+        if (t.getType() == RobotLexer.FUNCALL) t = t.getChild(1);
+        for (int i = 0; i < t.getChildCount(); ++i) use(t.getChild(i), defined);
+    }
+
+    //----------------------------------------------------------------
+    // Code generation
+
+    /** Generates the source of the class of a function. */
+    private String generate(Analysis a, String cls) {
+        AslTree f = a.f;
+        AslTree p = f.getChild(1);
+        src = new StringBuilder();
+        src.append("package interp;\n\n");
+        src.append("public final class ").append(cls).append(" implements Jit.Code {\n\n");
+
+        // Entry point: unboxes the arguments
+        src.append("    public Data call(Jit j, Data[] a, int line) {\n");
+        src.append("        return run(j");
+        for (int i = 0; i < a.params.length; ++i) {
+            src.append(", a[").append(i).append(']');
+            if (!a.byRef[p.getChild(i).getSlot()]) src.append('.').append(getter(a.params[i])).append("()");
+        }
+        src.append(", line);\n    }\n\n");
+
+        src.append("    static Data run(Jit j");
+        boolean[] param = new boolean[a.vars.length];
+        for (int i = 0; i < a.params.length; ++i) {
+            int slot = p.getChild(i).getSlot();
+            param[slot] = true;
+            src.append(", ").append(a.byRef[slot] ? "Data" : javaType(a.params[i])).append(" v").append(slot);
+        }
+        src.append(", int line) {\n");
+        src.append("        j.enter(").append(ids.get(f)).append(", line);\n");
+        src.append("        int ln = ").append(f.getLine()).append(";\n");
+        src.append("        try {\n");
+        for (int i = 0; i < a.vars.length; ++i) {
+            if (param[i] || a.vars[i] == null) continue;
+            String type = javaType(a.vars[i]);
+            src.append("            ").append(type).append(" v").append(i).append(" = ")
+               .append(type.equals("boolean") ? "false" : type.equals("String") ? "null" : "0")
+               .append(";\n");
+        }
+        genBlock(a, f.getChild(2), 3);
+        src.append("            j.leave();\n");
+        src.append("            return Data.VOID;\n");
+        src.append("        } catch (RuntimeException | StackOverflowError e) {\n");
+        src.append("            j.fail(ln);\n");
+        src.append("            throw e;\n");
+        src.append("        }\n    }\n}\n");
+        return src.toString();
+    }
+
+    private void genBlock(Analysis a, AslTree t, int level) {
+        for (int i = 0; i < t.getChildCount(); ++i) {
+            AslTree s = t.getChild(i);
+            genInstruction(a, s, level);
+            if (s.getType() == RobotLexer.RETURN) return; // The rest is dead
+        }
+    }
+
+    private void genInstruction(Analysis a, AslTree t, int level) {
+        indent(level).append("ln = ").append(t.getLine()).append(";\n");
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN: {
+                int slot = t.getChild(0).getSlot();
+                String e = genExpression(a, t.getChild(1));
+                if (a.byRef[slot]) indent(level).append('v').append(slot).append(".setValue(").append(e).append(");\n");
+                else indent(level).append('v').append(slot).append(" = ").append(e).append(";\n");
+                break;
+            }
+            case RobotLexer.IF:
+                indent(level).append("if (").append(genExpression(a, t.getChild(0))).append(") {\n");
+                genBlock(a, t.getChild(1), level + 1);
+                if (t.getChildCount() == 3) {
+                    indent(level).append("} else {\n");
+                    genBlock(a, t.getChild(2), level + 1);
+                }
+                indent(level).append("}\n");
+                break;
+            case RobotLexer.WHILE:
+                // The condition is evaluated with the line of the loop
+                indent(level).append("while (true) {\n");
+                indent(level + 1).append("ln = ").append(t.getLine()).append(";\n");
+                indent(level + 1).append("if (!").append(genExpression(a, t.getChild(0))).append(") break;\n");
+                genBlock(a, t.getChild(1), level + 1);
+                indent(level).append("}\n");
+                break;
+            case RobotLexer.RETURN:
+                // "if (true)" keeps the next instructions reachable for javac
+                if (t.getChildCount() == 0) {
+                    indent(level).append("if (true) { j.leave(); return Data.VOID; }\n");
+                } else {
+                    indent(level).append("if (true) { Data ret = new Data(")
+                                 .append(genExpression(a, t.getChild(0)))
+                                 .append("); j.leave(); return ret; }\n");
+                }
+                break;
+            case RobotLexer.WRITE: {
+                AslTree v = t.getChild(0);
+                if (v.getType() == RobotLexer.STRING) {
+                    indent(level).append("j.format(").append(quote(v.getStringValue())).append(");\n");
+                } else {
+                    indent(level).append("j.print(String.valueOf(").append(genExpression(a, v)).append("));\n");
+                }
+                break;
+            }
+            case RobotLexer.FUNCALL:
+                indent(level).append(genCall(a, t)).append(";\n");
+                break;
+            default: assert false;
+        }
+    }
+
+    /** Generates a Java expression with the value of an expression. */
+    private String genExpression(Analysis a, AslTree t) {
+        int type = t.getType();
+        switch (type) {
+            case RobotLexer.ID: {
+                int slot = t.getSlot();
+                if (a.byRef[slot]) return "v" + slot + "." + getter(a.vars[slot]) + "()";
+                return "v" + slot;
+            }
+            case RobotLexer.INT: return Integer.toString(t.getIntValue());
+            case RobotLexer.FLOAT: {
+                float x = t.getFloatValue();
+                if (Float.isInfinite(x) || Float.isNaN(x)) {
+                    return "Float.intBitsToFloat(" + Float.floatToIntBits(x) + ")";
+                }
+                return Float.toString(x) + "f";
+            }
+            case RobotLexer.BOOLEAN: return t.getBooleanValue() ? "true" : "false";
+            case RobotLexer.STRING: return quote(t.getStringValue());
+            case RobotLexer.FUNCALL: {
+                Data.Type result = resultType(a, t);
+                String call = genCall(a, t);
+                if (t.getBuiltin() == null) call = "Jit.value(" + call + ")";
+                return call + "." + getter(result) + "()";
+            }
+            default: break;
+        }
+
+        String l = genExpression(a, t.getChild(0));
+        if (t.getChildCount() == 1) {
+            switch (type) {
+                case RobotLexer.MINUS: return "(-" + l + ")";
+                case RobotLexer.NOT: return "(!" + l + ")";
+                default: return l;
+            }
+        }
+
+        String r = genExpression(a, t.getChild(1));
+        Data.Type operand = expression(a, t.getChild(0));
+        switch (type) {
+            case RobotLexer.AND: return "(" + l + " && " + r + ")";
+            case RobotLexer.OR: return "(" + l + " || " + r + ")";
+            case RobotLexer.PLUS: return "(" + l + " + " + r + ")";
+            case RobotLexer.MINUS: return "(" + l + " - " + r + ")";
+            case RobotLexer.MUL: return "(" + l + " * " + r + ")";
+            case RobotLexer.DIV: return "Jit.div(" + l + ", " + r + ")";
+            case RobotLexer.MOD: return "Jit.mod(" + l + ", " + r + ")";
+            case RobotLexer.EQUAL:
+                if (operand == Data.Type.STRING) return l + ".equals(" + r + ")";
+                return "(" + l + " == " + r + ")";
+            case RobotLexer.NOT_EQUAL:
+                if (operand == Data.Type.STRING) return "(!" + l + ".equals(" + r + "))";
+                return "(" + l + " != " + r + ")";
+            case RobotLexer.LT: return "(" + l + " < " + r + ")";
+            case RobotLexer.LE: return "(" + l + " <= " + r + ")";
+            case RobotLexer.GT: return "(" + l + " > " + r + ")";
+            case RobotLexer.GE: return "(" + l + " >= " + r + ")";
+            default: assert false; return null;
+        }
+    }
+
+    /** Type of the result of a call in an expression (known after the analysis). */
+    private Data.Type resultType(Analysis a, AslTree t) {
+        return call(a, t, true);
+    }
+
+    /**
+     * Generates a call. A recursive call with the same types of the
+     * arguments calls the compiled method directly. The other calls go
+     * through the Jit, which executes the compiled code or the
+     * interpreter.
+     */
+    private String genCall(Analysis a, AslTree t) {
+        AslTree args = t.getChild(1);
+        int n = args.getChildCount();
+        Builtin b = t.getBuiltin();
+        if (b != null) return "j.builtin(Builtin." + b.name() + ", " + genArgs(a, args) + ")";
+
+        // Line of the call recorded in the stack trace, as in the interpreter
+        int line = n == 0 ? args.getLine() : args.getChild(n-1).getLine();
+        AslTree f = t.getFunction();
+        Data.Type[] types = new Data.Type[n];
+        for (int i = 0; i < n; ++i) types[i] = expression(a, args.getChild(i));
+        if (f == a.f && Arrays.equals(types, a.params)) {
+            StringBuilder s = new StringBuilder("run(j");
+            for (int i = 0; i < n; ++i) s.append(", ").append(genExpression(a, args.getChild(i)));
+            return s.append(", ").append(line).append(')').toString();
+        }
+        return "j.invoke(" + ids.get(f) + ", " + genArgs(a, args) + ", " + line + ")";
+    }
+
+    /** Generates an array with the values of the arguments. */
+    private String genArgs(Analysis a, AslTree args) {
+        int n = args.getChildCount();
+        if (n == 0) return "new Data[0]";
+        StringBuilder s = new StringBuilder("new Data[] {");
+        for (int i = 0; i < n; ++i) {
+            if (i > 0) s.append(", ");
+            s.append("new Data(").append(genExpression(a, args.getChild(i))).append(')');
+        }
+        return s.append('}').toString();
+    }
+
+    private StringBuilder indent(int level) {
+        for (int i = 0; i < level; ++i) src.append("    ");
+        return src;
+    }
+
+    private static String javaType(Data.Type t) {
+        switch (t) {
+            case INTEGER: return "int";
+            case FLOAT: return "float";
+            case BOOLEAN: return "boolean";
+            default: return "String";
+        }
+    }
+
+    private static String getter(Data.Type t) {
+        switch (t) {
+            case INTEGER: return "getIntegerValue";
+            case FLOAT: return "getFloatValue";
+            case BOOLEAN: return "getBooleanValue";
+            default: return "getStringValue";
+        }
+    }
+
+    /** Returns a Java string literal. */
+    private static String quote(String s) {
+        StringBuilder q = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') q.append('\\').append(c);
+            else if (c < 32 || c > 126) q.append(String.format("\\u%04x", (int)c));
+            else q.append(c);
+        }
+        return q.append('"').toString();
+    }
+
+    //----------------------------------------------------------------
+    // Loading
+
+    /**
+     * Compiles the source of a class in memory and defines it as a hidden
+     * class of this package.
+     * @return An instance of the class, or null if it cannot be compiled.
+     */
+    private static Jit.Code load(String cls, final String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) return null; // Only a runtime is available
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager>(
+                                 javac.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location loc, String name,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() { return bytes; }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///interp/" + cls + ".java"),
+                                                       JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreErrors) { return source; }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                                             "-g:none", "-proc:none", "-nowarn");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        try {
+            if (!javac.getTask(null, fm, diagnostics, options, null, Collections.singletonList(file)).call()) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes.toByteArray(), true);
+            return (Jit.Code)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
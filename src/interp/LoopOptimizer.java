@@ -0,0 +1,324 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Optimizer of the loops of a resolved program, for the tree
+ * interpreter. The expressions of a loop that are invariant get a
+ * hidden slot of the activation record (after the variables), where
+ * the interpreter caches their value. The value is computed the first
+ * time the expression is evaluated after the loop starts, and the slots
+ * of the loop are reset each time it starts. Computing the value lazily
+ * rather than before the loop keeps the runtime errors (and the calls)
+ * where they were in the original program.
+ * An expression is invariant in a loop if its variables are not
+ * assigned, read or passed by reference in the loop, and it only calls
+ * pure functions: user functions without parameters by reference,
+ * input/output or calls to builtins or impure functions. The parameters
+ * passed by reference are never invariant, since they can be aliased.
+ * An expression is cached in the outermost loop where it is invariant.
+ * The multiplications of an induction variable (a variable whose only
+ * assignment in the loop adds or subtracts a literal) by a literal or
+ * an invariant variable are strength-reduced: when the operands are
+ * integers, the product is updated with an addition when the variable
+ * advances one step.
+ */
+
+public class LoopOptimizer {
+
+    /** Number of hidden slots of a strength-reduced multiplication. */
+    static final int REDUCED_SLOTS = 3;
+
+    /** A loop being optimized. */
+    private static class Loop {
+        /** Slots of the variables modified in the loop. */
+        HashSet<Integer> modified = new HashSet<Integer>();
+        /** Step of each induction variable of the loop (by slot). */
+        HashMap<Integer,Integer> steps = new HashMap<Integer,Integer>();
+        /** Expressions cached in the loop. */
+        ArrayList<AslTree> cached = new ArrayList<AslTree>();
+    }
+
+    /** Pure functions of the program. */
+    private HashSet<AslTree> pure = new HashSet<AslTree>();
+
+    /** Slots of the parameters passed by reference of the function. */
+    private HashSet<Integer> refs;
+
+    /** Next hidden slot of the function. */
+    private int next;
+
+    /** Optimizes the loops of all the functions of a resolved program. */
+    public static void optimize(AslTree T) {
+        LoopOptimizer o = new LoopOptimizer();
+        o.findPureFunctions(T);
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) o.optimizeFunction(T.getChild(i));
+    }
+
+    /**
+     * Finds the pure functions. All the functions without parameters by
+     * reference are assumed to be pure, and the ones with side effects
+     * or calls to impure functions are removed until none is removed.
+     */
+    private void findPureFunctions(AslTree T) {
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            AslTree f = T.getChild(i);
+            boolean byValue = true;
+            AslTree p = f.getChild(1);
+            for (int k = 0; k < p.getChildCount(); ++k) {
+                if (p.getChild(k).getType() == RobotLexer.PREF) byValue = false;
+            }
+            if (byValue) pure.add(f);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < n; ++i) {
+                AslTree f = T.getChild(i);
+                if (pure.contains(f) && !isPure(f.getChild(2))) {
+                    pure.remove(f);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /** Checks that a subtree has no input/output and only calls pure functions. */
+    private boolean isPure(AslTree t) {
+        switch (t.getType()) {
+            case RobotLexer.READ:
+            case RobotLexer.WRITE:
+                return false;
+            case RobotLexer.FUNCALL:
+                if (t.getBuiltin() != null || !pure.contains(t.getFunction())) return false;
+                break;
+            default: break;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            if (!isPure(t.getChild(i))) return false;
+        }
+        return true;
+    }
+
+    private void optimizeFunction(AslTree f) {
+        refs = new HashSet<Integer>();
+        AslTree p = f.getChild(1);
+        for (int i = 0; i < p.getChildCount(); ++i) {
+            if (p.getChild(i).getType() == RobotLexer.PREF) refs.add(p.getChild(i).getSlot());
+        }
+        next = f.getLocals().length;
+        block(f.getChild(2), new ArrayList<Loop>());
+        f.setCacheCount(next - f.getLocals().length);
+    }
+
+    /**
+     * Optimizes a block of instructions.
+     * @param loops The loops that contain the block, from the outermost.
+     */
+    private void block(AslTree t, ArrayList<Loop> loops) {
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) instruction(t.getChild(i), loops);
+    }
+
+    private void instruction(AslTree t, ArrayList<Loop> loops) {
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                expression(t.getChild(1), loops);
+                break;
+            case RobotLexer.IF:
+                expression(t.getChild(0), loops);
+                block(t.getChild(1), loops);
+                if (t.getChildCount() == 3) block(t.getChild(2), loops);
+                break;
+            case RobotLexer.WHILE:
+                loop(t, loops);
+                break;
+            case RobotLexer.RETURN:
+                if (t.getChildCount() != 0) expression(t.getChild(0), loops);
+                break;
+            case RobotLexer.WRITE:
+                if (t.getChild(0).getType() != RobotLexer.STRING) expression(t.getChild(0), loops);
+                break;
+            case RobotLexer.FUNCALL:
+                arguments(t, loops);
+                break;
+            default: break;
+        }
+    }
+
+    /**
+     * Optimizes a loop. The hidden slots of the expressions cached in
+     * the loop are consecutive, and the loop is annotated with them.
+     */
+    private void loop(AslTree t, ArrayList<Loop> loops) {
+        Loop l = new Loop();
+        HashMap<Integer,Integer> assignments = new HashMap<Integer,Integer>();
+        HashMap<Integer,Integer> steps = new HashMap<Integer,Integer>();
+        scan(t, l.modified, assignments, steps);
+        for (Integer slot : steps.keySet()) {
+            if (assignments.get(slot) == 1 && !refs.contains(slot)) l.steps.put(slot, steps.get(slot));
+        }
+
+        loops.add(l);
+        expression(t.getChild(0), loops);
+        block(t.getChild(1), loops);
+        loops.remove(loops.size() - 1);
+
+        t.setCache(next);
+        for (AslTree e : l.cached) {
+            e.setCache(next);
+            next += e.getInduction() >= 0 ? REDUCED_SLOTS : 1;
+        }
+        t.setCacheCount(next - t.getCache());
+    }
+
+    /**
+     * Collects the variables modified in a subtree of a loop. The
+     * assignments are counted, and the step of the assignments that
+     * advance an induction variable is recorded. The variables read or
+     * passed by reference are counted as assigned twice, so that they
+     * are not induction variables.
+     */
+    private static void scan(AslTree t, HashSet<Integer> modified,
+                             HashMap<Integer,Integer> assignments, HashMap<Integer,Integer> steps) {
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN: {
+                int slot = t.getChild(0).getSlot();
+                modified.add(slot);
+                assignments.merge(slot, 1, Integer::sum);
+                Integer step = step(slot, t.getChild(1));
+                if (step != null) steps.put(slot, step);
+                break;
+            }
+            case RobotLexer.READ: {
+                int slot = t.getChild(0).getSlot();
+                modified.add(slot);
+                assignments.merge(slot, 2, Integer::sum);
+                break;
+            }
+            case RobotLexer.FUNCALL:
+                AslTree f = t.getFunction();
+                if (f == null) break;
+                AslTree args = t.getChild(1);
+                for (int i = 0; i < args.getChildCount(); ++i) {
+                    AslTree a = args.getChild(i);
+                    if (f.getChild(1).getChild(i).getType() == RobotLexer.PREF &&
+                        a.getType() == RobotLexer.ID) {
+                        modified.add(a.getSlot());
+                        assignments.merge(a.getSlot(), 2, Integer::sum);
+                    }
+                }
+                break;
+            default: break;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) scan(t.getChild(i), modified, assignments, steps);
+    }
+
+    /**
+     * Returns the step of an assignment to a variable (x = x + k,
+     * x = k + x or x = x - k, with an integer literal k), or null if it
+     * does not advance the variable.
+     */
+    private static Integer step(int slot, AslTree e) {
+        if (e.getChildCount() != 2) return null;
+        AslTree a = e.getChild(0), b = e.getChild(1);
+        int k;
+        if (e.getType() == RobotLexer.PLUS && isVariable(a, slot) && b.getType() == RobotLexer.INT) k = b.getIntValue();
+        else if (e.getType() == RobotLexer.PLUS && isVariable(b, slot) && a.getType() == RobotLexer.INT) k = a.getIntValue();
+        else if (e.getType() == RobotLexer.MINUS && isVariable(a, slot) && b.getType() == RobotLexer.INT) k = -b.getIntValue();
+        else return null;
+        return k == 0 ? null : k;
+    }
+
+    private static boolean isVariable(AslTree t, int slot) {
+        return t.getType() == RobotLexer.ID && t.getSlot() == slot;
+    }
+
+    /**
+     * Optimizes an expression of the loops.
+     * @param loops The loops that contain the expression, from the outermost.
+     */
+    private void expression(AslTree t, ArrayList<Loop> loops) {
+        if (loops.isEmpty()) return;
+        boolean compound = t.getType() == RobotLexer.FUNCALL ? t.getFunction() != null : t.getChildCount() > 0;
+        if (compound) {
+            for (Loop l : loops) {
+                if (invariant(t, l)) {
+                    l.cached.add(t);
+                    return;
+                }
+            }
+            Loop l = loops.get(loops.size() - 1);
+            if (t.getType() == RobotLexer.MUL && reduce(t, l)) {
+                l.cached.add(t);
+                return;
+            }
+        }
+        if (t.getType() == RobotLexer.FUNCALL) {
+            arguments(t, loops);
+            return;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) expression(t.getChild(i), loops);
+    }
+
+    /** Optimizes the arguments passed by value of a call. */
+    private void arguments(AslTree t, ArrayList<Loop> loops) {
+        AslTree f = t.getFunction();
+        AslTree args = t.getChild(1);
+        for (int i = 0; i < args.getChildCount(); ++i) {
+            if (f != null && f.getChild(1).getChild(i).getType() == RobotLexer.PREF) continue;
+            expression(args.getChild(i), loops);
+        }
+    }
+
+    /** Checks whether an expression is invariant in a loop. */
+    private boolean invariant(AslTree t, Loop l) {
+        switch (t.getType()) {
+            case RobotLexer.ID:
+                return !l.modified.contains(t.getSlot()) && !refs.contains(t.getSlot());
+            case RobotLexer.INT: case RobotLexer.FLOAT:
+            case RobotLexer.BOOLEAN: case RobotLexer.STRING:
+                return true;
+            case RobotLexer.FUNCALL: {
+                if (!pure.contains(t.getFunction())) return false;
+                AslTree args = t.getChild(1);
+                for (int i = 0; i < args.getChildCount(); ++i) {
+                    if (!invariant(args.getChild(i), l)) return false;
+                }
+                return true;
+            }
+            default:
+                int n = t.getChildCount();
+                for (int i = 0; i < n; ++i) {
+                    if (!invariant(t.getChild(i), l)) return false;
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Strength-reduces a multiplication of an induction variable of a
+     * loop by a literal or an invariant variable.
+     * @return True if the multiplication has been reduced.
+     */
+    private boolean reduce(AslTree t, Loop l) {
+        for (int k = 0; k < 2; ++k) {
+            AslTree v = t.getChild(k), c = t.getChild(1 - k);
+            if (v.getType() != RobotLexer.ID || !l.steps.containsKey(v.getSlot())) continue;
+            if (c.getType() == RobotLexer.INT || (c.getType() == RobotLexer.ID && invariant(c, l))) {
+                t.setInduction(k, l.steps.get(v.getSlot()));
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,644 @@
+package interp;
+
+/**
+ * Geometry of the motion of the robots in the environment. The robots
+ * are circles and the obstacles are the rectangles of the store. It
+ * tests whether a robot placed at a point collides, and calculates
+ * analytically how far a robot can travel along a segment (or turn
+ * along a circular arc) before touching an obstacle, another robot or
+ * the simulation bounds. The obstacles and the positioned robots are
+ * found through their spatial indices, and only the cells close to the
+ * path are visited. The robot that moves (self) is skipped in the index
+ * of the robots.
+ * The tests at a point can use the occupancy map and the collision
+ * kernel, if they are enabled. The tests only read the structures, so
+ * that the robots of the fleet can be tested in parallel.
+ */
+
+public class Motion {
+
+    /** Obstacles and their spatial index. */
+    private ObstacleStore obstacles;
+    private ObstacleGrid obsGrid;
+
+    /** Robots and the spatial index of the positioned ones. */
+    private RobotFleet fleet;
+    private ObstacleGrid robotGrid;
+
+    /** Size of the side of the (square) environment. */
+    private float envSize;
+
+    /** Radius of the robots. */
+    private float radius;
+
+    /** Collision margin with the bounds of the environment. */
+    private float margin;
+
+    /** Step back from a contact point to the last free position. */
+    private float step;
+
+    /** Occupancy map of the robot positions (null if not enabled). */
+    private OccupancyMap occupancy = null;
+
+    /** Batch collision kernel (null to use the scalar test). */
+    private CollisionKernel kernel = null;
+
+    /**
+     * Constructor of the geometry of an environment.
+     * @param obstacles The store of the obstacles.
+     * @param obsGrid The spatial index of the obstacles.
+     * @param fleet The robots.
+     * @param robotGrid The spatial index of the positioned robots.
+     * @param envSize Size of the side of the (square) environment.
+     * @param r Radius of the robots.
+     * @param margin Collision margin with the bounds of the environment.
+     * @param step Step back from a contact point (see moveFleet).
+     */
+    public Motion(ObstacleStore obstacles, ObstacleGrid obsGrid, RobotFleet fleet,
+                  ObstacleGrid robotGrid, float envSize, float r, float margin, float step) {
+        this.obstacles = obstacles;
+        this.obsGrid = obsGrid;
+        this.fleet = fleet;
+        this.robotGrid = robotGrid;
+        this.envSize = envSize;
+        radius = r;
+        this.margin = margin;
+        this.step = step;
+    }
+
+    /** Defines the occupancy map used by blockedWorld (null if none). */
+    public void setOccupancy(OccupancyMap map) { occupancy = map; }
+
+    /** Defines the collision kernel used by checkColision (null if none). */
+    public void setKernel(CollisionKernel k) { kernel = k; }
+
+    /** Checks if the robot placed at (x,y) is in the simulation bounds. */
+    public boolean checkValidPos(float x, float y) {
+        boolean valid = true;
+        if ((x - radius - margin) < 0.0f) valid = false;
+        if ((x + radius + margin) > envSize) valid = false;
+        if ((y - radius - margin) < 0.0f) valid = false;
+        if ((y + radius + margin) > envSize) valid = false;
+        return valid;
+    }
+
+    /**
+     * Checks for intersection between the robot placed at (x,y) and the
+     * obstacle with the given identifier.
+     */
+    public boolean intersects(int id, float x, float y) {
+        return intersects(obstacles.getX(id), obstacles.getY(id),
+                          obstacles.getSizeX(id), obstacles.getSizeY(id), x, y);
+    }
+
+    /**
+     * Checks for intersection between the robot placed at (x,y) and the
+     * obstacle centered at (oX,oY) with sizes (oSizeX,oSizeY).
+     */
+    public boolean intersects(float oX, float oY, float oSizeX, float oSizeY,
+                              float x, float y) {
+        float cdx = (float)Math.abs((double)x - (double)oX);
+        float cdy = (float)Math.abs((double)y - (double)oY);
+
+        if (cdx > (oSizeX/2.0f + radius)) { return false; }
+        if (cdy > (oSizeY/2.0f + radius)) { return false; }
+
+        if (cdx <= (oSizeX/2.0f)) { return true; }
+        if (cdy <= (oSizeY/2.0f)) { return true; }
+
+        float cdsq = (float)Math.pow((cdx - oSizeX/2.0f),2.0) +
+                             (float)Math.pow((cdy - oSizeY/2.0f),2.0);
+
+        return (cdsq <= (float)Math.pow(radius,2.0));
+    }
+
+    /**
+     * Checks for intersection between the robot placed at (x,y) and all
+     * the obstacles.
+     */
+    public boolean checkColision(float x, float y) {
+        if (kernel != null) return obsGrid.overlaps(kernel, x, y, radius);
+        // The cells are visited directly (an obstacle may be tested more
+        // than once) so that the test can run in parallel
+        int i0 = obsGrid.cellOf(x - radius), i1 = obsGrid.cellOf(x + radius);
+        int j0 = obsGrid.cellOf(y - radius), j1 = obsGrid.cellOf(y + radius);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int n = obsGrid.getCount(i, j);
+                int[] ids = obsGrid.getBucket(i, j);
+                for (int k = 0; k < n; ++k) {
+                    if (intersects(ids[k], x, y)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks for intersection between the robot placed at (x,y) and the
+     * other positioned robots (all but self).
+     */
+    public boolean robotColision(float x, float y, int self) {
+        float d = 2.0f*radius;
+        int i0 = robotGrid.cellOf(x - d), i1 = robotGrid.cellOf(x + d);
+        int j0 = robotGrid.cellOf(y - d), j1 = robotGrid.cellOf(y + d);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int n = robotGrid.getCount(i, j);
+                int[] ids = robotGrid.getBucket(i, j);
+                for (int k = 0; k < n; ++k) {
+                    int id = ids[k];
+                    if (id == self) continue;
+                    double dx = (double)x - fleet.getX(id);
+                    double dy = (double)y - fleet.getY(id);
+                    if (dx*dx + dy*dy <= (double)d*d) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Checks whether an obstacle placed at (x,y) is in the simulation bounds. */
+    public boolean obstacleInBounds(float x, float y, float sx, float sy) {
+        return x - sx/2.0 >= 0.0f && x + sx/2.0 <= envSize &&
+               y - sy/2.0 >= 0.0f && y + sy/2.0 <= envSize;
+    }
+
+    /**
+     * Returns a robot (other than self) that overlaps with an obstacle
+     * placed at (x,y), or -1 if there is none. Only the robots in the
+     * cells around the obstacle are checked.
+     */
+    public int overlappingRobot(float x, float y, float sx, float sy, int self) {
+        float m = radius + margin;
+        int n = robotGrid.query(x - sx/2.0f - m, y - sy/2.0f - m, x + sx/2.0f + m, y + sy/2.0f + m);
+        int[] ids = robotGrid.getFound();
+        for (int k = 0; k < n; ++k) {
+            int id = ids[k];
+            if (id != self && intersects(x, y, sx, sy, fleet.getX(id), fleet.getY(id))) return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the robot self placed at (x,y) collides with an
+     * obstacle, another robot or the simulation bounds.
+     */
+    public boolean blocked(float x, float y, int self) {
+        if (fleet.size() > 1 && robotColision(x, y, self)) return true;
+        return blockedWorld(x, y);
+    }
+
+    /**
+     * Checks whether the robot placed at (x,y) collides with an obstacle
+     * or is out of the simulation bounds. If the occupancy map is enabled,
+     * the exact test is only done for the cells that straddle a boundary.
+     */
+    public boolean blockedWorld(float x, float y) {
+        if (occupancy != null) {
+            int c = occupancy.get(x, y);
+            if (c == OccupancyMap.FREE) return false;
+            if (c == OccupancyMap.BLOCKED) return true;
+        }
+        return checkColision(x, y) || !checkValidPos(x, y);
+    }
+
+    /**
+     * Distance that the robot can travel from (x,y) along the unit
+     * vector (dx,dy) before leaving the simulation bounds.
+     */
+    private double sweepBounds(float x, float y, double dx, double dy) {
+        double lo = radius + margin;
+        double hi = envSize - radius - margin;
+        // The gaps are widened by the step, so that rounding errors of
+        // a robot lying on the bounds do not block the motion along
+        // them. The robot steps back if the final position is invalid.
+        double t = Double.POSITIVE_INFINITY;
+        if (dx > 0.0) t = Math.min(t, (Math.max(hi - x, 0.0) + step)/dx);
+        else if (dx < 0.0) t = Math.min(t, (Math.min(lo - x, 0.0) - step)/dx);
+        if (dy > 0.0) t = Math.min(t, (Math.max(hi - y, 0.0) + step)/dy);
+        else if (dy < 0.0) t = Math.min(t, (Math.min(lo - y, 0.0) - step)/dy);
+        return t;
+    }
+
+    /**
+     * Distance that the robot can travel from (x,y) along the unit
+     * vector (dx,dy) before touching the obstacle. The robot touches
+     * the obstacle when its center enters the rectangle of the obstacle
+     * inflated by the radius (a rectangle with rounded corners). The
+     * rounded rectangle is the union of two crossed rectangles and four
+     * circles centered at the corners of the obstacle.
+     * @return The distance, or infinity if the robot never touches it.
+     */
+    public double sweepObstacle(int id, float x, float y, double dx, double dy) {
+        double px = (double)x - (double)obstacles.getX(id);
+        double py = (double)y - (double)obstacles.getY(id);
+        double hx = obstacles.getSizeX(id)/2.0;
+        double hy = obstacles.getSizeY(id)/2.0;
+        double t = sweepBox(px, py, dx, dy, hx + radius, hy);
+        t = Math.min(t, sweepBox(px, py, dx, dy, hx, hy + radius));
+        t = Math.min(t, sweepCircle(px - hx, py - hy, dx, dy, radius));
+        t = Math.min(t, sweepCircle(px + hx, py - hy, dx, dy, radius));
+        t = Math.min(t, sweepCircle(px - hx, py + hy, dx, dy, radius));
+        t = Math.min(t, sweepCircle(px + hx, py + hy, dx, dy, radius));
+        return t;
+    }
+
+    /**
+     * Entry distance of the ray (px,py)+t(dx,dy) into the box
+     * [-ex,ex]x[-ey,ey] (slab method). Returns 0 if the origin is
+     * inside the box and infinity if the ray misses it.
+     */
+    private static double sweepBox(double px, double py, double dx, double dy,
+                                   double ex, double ey) {
+        double tmin = 0.0;
+        double tmax = Double.POSITIVE_INFINITY;
+        if (dx == 0.0) {
+            if (px < -ex || px > ex) return Double.POSITIVE_INFINITY;
+        } else {
+            double t1 = (-ex - px)/dx;
+            double t2 = (ex - px)/dx;
+            tmin = Math.max(tmin, Math.min(t1, t2));
+            tmax = Math.min(tmax, Math.max(t1, t2));
+        }
+        if (dy == 0.0) {
+            if (py < -ey || py > ey) return Double.POSITIVE_INFINITY;
+        } else {
+            double t1 = (-ey - py)/dy;
+            double t2 = (ey - py)/dy;
+            tmin = Math.max(tmin, Math.min(t1, t2));
+            tmax = Math.min(tmax, Math.max(t1, t2));
+        }
+        return tmin <= tmax ? tmin : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Entry distance of the ray (px,py)+t(dx,dy), with (dx,dy) a unit
+     * vector, into the circle of radius r centered at the origin.
+     * Returns 0 if the origin is inside the circle and infinity if the
+     * ray misses it.
+     */
+    private static double sweepCircle(double px, double py, double dx, double dy,
+                                      double r) {
+        double c = px*px + py*py - r*r;
+        if (c <= 0.0) return 0.0;
+        double b = px*dx + py*dy;
+        if (b >= 0.0) return Double.POSITIVE_INFINITY; // Moving away
+        double disc = b*b - c;
+        if (disc < 0.0) return Double.POSITIVE_INFINITY;
+        return -b - Math.sqrt(disc);
+    }
+
+    /**
+     * Distance that the robot self can travel from (x,y) along the unit
+     * vector (dx,dy) before touching an obstacle, another robot or the
+     * simulation bounds, limited to dist.
+     */
+    public double sweep(int self, float x, float y, double dx, double dy, double dist) {
+        return sweepRobots(self, x, y, dx, dy, sweepWorld(x, y, dx, dy, dist));
+    }
+
+    /**
+     * Distance that the robot can travel from (x,y) along the unit
+     * vector (dx,dy) before touching an obstacle or the simulation bounds,
+     * limited to dist. The path is visited in chunks of one grid cell and
+     * only the obstacles in the cells close to each chunk are checked. The
+     * visit stops as soon as a contact is found within the visited chunks.
+     */
+    public double sweepWorld(float x, float y, double dx, double dy, double dist) {
+        double t = Math.min(dist, sweepBounds(x, y, dx, dy));
+        float m = radius + margin;
+        float cs = obsGrid.getCellSize();
+        for (double s = 0.0; s < t; s += cs) {
+            double e = Math.min(s + cs, t);
+            double ax = x + s*dx, ay = y + s*dy;
+            double bx = x + e*dx, by = y + e*dy;
+            int i0 = obsGrid.cellOf((float)Math.min(ax, bx) - m);
+            int i1 = obsGrid.cellOf((float)Math.max(ax, bx) + m);
+            int j0 = obsGrid.cellOf((float)Math.min(ay, by) - m);
+            int j1 = obsGrid.cellOf((float)Math.max(ay, by) + m);
+            for (int j = j0; j <= j1; ++j) {
+                for (int i = i0; i <= i1; ++i) {
+                    int n = obsGrid.getCount(i, j);
+                    int[] ids = obsGrid.getBucket(i, j);
+                    for (int k = 0; k < n; ++k) {
+                        t = Math.min(t, sweepObstacle(ids[k], x, y, dx, dy));
+                    }
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Distance that the robot self can travel from (x,y) along the unit
+     * vector (dx,dy) before touching another positioned robot, limited
+     * to dist. Two robots touch when their centers are 2*radius apart.
+     */
+    public double sweepRobots(int self, float x, float y, double dx, double dy, double dist) {
+        if (fleet.size() <= 1) return dist;
+        double t = dist;
+        float m = 2.0f*radius + margin;
+        int i0 = robotGrid.cellOf((float)Math.min(x, x + t*dx) - m);
+        int i1 = robotGrid.cellOf((float)Math.max(x, x + t*dx) + m);
+        int j0 = robotGrid.cellOf((float)Math.min(y, y + t*dy) - m);
+        int j1 = robotGrid.cellOf((float)Math.max(y, y + t*dy) + m);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int n = robotGrid.getCount(i, j);
+                int[] ids = robotGrid.getBucket(i, j);
+                for (int k = 0; k < n; ++k) {
+                    int id = ids[k];
+                    if (id == self) continue;
+                    t = Math.min(t, sweepCircle((double)x - fleet.getX(id), (double)y - fleet.getY(id),
+                                                dx, dy, 2.0*radius));
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Distance that the obstacle can travel along the unit vector (ux,uy)
+     * before touching a robot other than self, limited to dist. The robots
+     * are swept against the obstacle with the opposite motion (the
+     * relative motion is the same), and only the robots in the cells
+     * around the path of the obstacle are checked.
+     */
+    public double sweepMover(int id, double ux, double uy, double dist, int self) {
+        double t = dist;
+        float x = obstacles.getX(id), y = obstacles.getY(id);
+        float hx = obstacles.getSizeX(id)/2.0f + radius + margin;
+        float hy = obstacles.getSizeY(id)/2.0f + radius + margin;
+        float ex = (float)(x + dist*ux), ey = (float)(y + dist*uy);
+        int n = robotGrid.query(Math.min(x, ex) - hx, Math.min(y, ey) - hy,
+                                Math.max(x, ex) + hx, Math.max(y, ey) + hy);
+        int[] ids = robotGrid.getFound();
+        for (int k = 0; k < n; ++k) {
+            if (ids[k] == self) continue;
+            t = Math.min(t, sweepObstacle(id, fleet.getX(ids[k]), fleet.getY(ids[k]), -ux, -uy));
+        }
+        return t;
+    }
+
+    /**
+     * Distance from (x,y) to the nearest obstacle edge, robot (other than
+     * self) or simulation bound along the unit vector (dx,dy). The grid
+     * cells crossed by the ray are visited in order (DDA traversal) and
+     * the traversal stops at the first cell whose exit lies beyond the
+     * nearest hit found so far.
+     */
+    public double raycast(int self, float x, float y, double dx, double dy) {
+        double best = Double.POSITIVE_INFINITY;
+        if (dx > 0.0) best = Math.min(best, (envSize - x)/dx);
+        else if (dx < 0.0) best = Math.min(best, -x/dx);
+        if (dy > 0.0) best = Math.min(best, (envSize - y)/dy);
+        else if (dy < 0.0) best = Math.min(best, -y/dy);
+
+        float cs = obsGrid.getCellSize();
+        int cells = obsGrid.getCells();
+        int i = obsGrid.cellOf(x);
+        int j = obsGrid.cellOf(y);
+        int stepI = dx > 0.0 ? 1 : -1;
+        int stepJ = dy > 0.0 ? 1 : -1;
+        double tMaxI = Double.POSITIVE_INFINITY, tDeltaI = Double.POSITIVE_INFINITY;
+        double tMaxJ = Double.POSITIVE_INFINITY, tDeltaJ = Double.POSITIVE_INFINITY;
+        if (dx != 0.0) {
+            tMaxI = ((i + (dx > 0.0 ? 1 : 0))*cs - x)/dx;
+            tDeltaI = cs/Math.abs(dx);
+        }
+        if (dy != 0.0) {
+            tMaxJ = ((j + (dy > 0.0 ? 1 : 0))*cs - y)/dy;
+            tDeltaJ = cs/Math.abs(dy);
+        }
+
+        while (true) {
+            int n = obsGrid.getCount(i, j);
+            int[] ids = obsGrid.getBucket(i, j);
+            for (int k = 0; k < n; ++k) {
+                int id = ids[k];
+                best = Math.min(best, sweepBox((double)x - obstacles.getX(id),
+                                               (double)y - obstacles.getY(id), dx, dy,
+                                               obstacles.getSizeX(id)/2.0,
+                                               obstacles.getSizeY(id)/2.0));
+            }
+            if (fleet.size() > 1) {
+                n = robotGrid.getCount(i, j);
+                ids = robotGrid.getBucket(i, j);
+                for (int k = 0; k < n; ++k) {
+                    int id = ids[k];
+                    if (id == self) continue;
+                    best = Math.min(best, sweepCircle((double)x - fleet.getX(id),
+                                                      (double)y - fleet.getY(id), dx, dy, radius));
+                }
+            }
+            double exit = Math.min(tMaxI, tMaxJ);
+            if (best <= exit) break;
+            if (tMaxI < tMaxJ) {
+                i += stepI; tMaxI += tDeltaI;
+            } else {
+                j += stepJ; tMaxJ += tDeltaJ;
+            }
+            if (i < 0 || i >= cells || j < 0 || j >= cells) break;
+        }
+        return best;
+    }
+
+    /**
+     * Angle that the robot self can turn along the arc of radius rho
+     * centered at (cx,cy), starting at the angle a0 in the direction dir
+     * (1 for counterclockwise, -1 for clockwise), before touching an
+     * obstacle, another robot or the simulation bounds, limited to limit.
+     * The arc is visited in pieces of one grid cell and only the obstacles
+     * and robots in the cells close to each piece are checked. For every
+     * obstacle, the circle of the arc is intersected with the edges and
+     * corner circles of the obstacle inflated by the radius of the robot.
+     */
+    public double arcContact(int self, double cx, double cy, double rho, double a0, int dir,
+                             double limit) {
+        double best = limit;
+
+        // Simulation bounds (widened by the step as in sweepBounds)
+        double lo = radius + margin - step;
+        double hi = envSize - radius - margin + step;
+        best = Math.min(best, arcLine(cx, cy, rho, a0, dir, true, lo));
+        best = Math.min(best, arcLine(cx, cy, rho, a0, dir, true, hi));
+        best = Math.min(best, arcLine(cx, cy, rho, a0, dir, false, lo));
+        best = Math.min(best, arcLine(cx, cy, rho, a0, dir, false, hi));
+
+        int pieces = (int)Math.ceil(best*rho/obsGrid.getCellSize());
+        double piece = best/Math.max(pieces, 1);
+        double sagitta = rho*(1.0 - Math.cos(piece/2.0));
+        float m = (float)(radius + margin + sagitta);
+        float mr = (float)(2.0*radius + margin + sagitta);
+        boolean robots = fleet.size() > 1;
+        for (double s = 0.0; s < best; s += piece) {
+            double e = Math.min(s + piece, best);
+            double ax = cx + rho*Math.cos(a0 + dir*s), ay = cy + rho*Math.sin(a0 + dir*s);
+            double bx = cx + rho*Math.cos(a0 + dir*e), by = cy + rho*Math.sin(a0 + dir*e);
+            int i0 = obsGrid.cellOf((float)Math.min(ax, bx) - m);
+            int i1 = obsGrid.cellOf((float)Math.max(ax, bx) + m);
+            int j0 = obsGrid.cellOf((float)Math.min(ay, by) - m);
+            int j1 = obsGrid.cellOf((float)Math.max(ay, by) + m);
+            for (int j = j0; j <= j1; ++j) {
+                for (int i = i0; i <= i1; ++i) {
+                    int n = obsGrid.getCount(i, j);
+                    int[] ids = obsGrid.getBucket(i, j);
+                    for (int k = 0; k < n; ++k) {
+                        best = Math.min(best, arcObstacle(ids[k], cx, cy, rho, a0, dir));
+                    }
+                }
+            }
+            if (!robots) continue;
+
+            // Robots close to the piece (two robots touch at 2*radius)
+            i0 = robotGrid.cellOf((float)Math.min(ax, bx) - mr);
+            i1 = robotGrid.cellOf((float)Math.max(ax, bx) + mr);
+            j0 = robotGrid.cellOf((float)Math.min(ay, by) - mr);
+            j1 = robotGrid.cellOf((float)Math.max(ay, by) + mr);
+            for (int j = j0; j <= j1; ++j) {
+                for (int i = i0; i <= i1; ++i) {
+                    int n = robotGrid.getCount(i, j);
+                    int[] ids = robotGrid.getBucket(i, j);
+                    for (int k = 0; k < n; ++k) {
+                        if (ids[k] == self) continue;
+                        best = Math.min(best, arcCircle(cx, cy, rho, a0, dir,
+                                                        fleet.getX(ids[k]), fleet.getY(ids[k]), 2.0*radius, -1));
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Angle along the arc until the first contact with the obstacle
+     * inflated by the radius, or infinity if there is no contact. The
+     * candidates are the intersections of the circle of the arc with the
+     * lines of the four edges and with the four corner circles; only the
+     * ones on the boundary of the inflated obstacle are kept.
+     */
+    private double arcObstacle(int id, double cx, double cy, double rho, double a0, int dir) {
+        double ox = obstacles.getX(id), oy = obstacles.getY(id);
+        double hx = obstacles.getSizeX(id)/2.0, hy = obstacles.getSizeY(id)/2.0;
+        double t = Double.POSITIVE_INFINITY;
+        t = Math.min(t, arcLine(cx, cy, rho, a0, dir, true, ox - hx - radius, id));
+        t = Math.min(t, arcLine(cx, cy, rho, a0, dir, true, ox + hx + radius, id));
+        t = Math.min(t, arcLine(cx, cy, rho, a0, dir, false, oy - hy - radius, id));
+        t = Math.min(t, arcLine(cx, cy, rho, a0, dir, false, oy + hy + radius, id));
+        t = Math.min(t, arcCircle(cx, cy, rho, a0, dir, ox - hx, oy - hy, radius, id));
+        t = Math.min(t, arcCircle(cx, cy, rho, a0, dir, ox + hx, oy - hy, radius, id));
+        t = Math.min(t, arcCircle(cx, cy, rho, a0, dir, ox - hx, oy + hy, radius, id));
+        t = Math.min(t, arcCircle(cx, cy, rho, a0, dir, ox + hx, oy + hy, radius, id));
+        return t;
+    }
+
+    //Angle along the arc until it crosses the vertical (x = c) or
+    //horizontal (y = c) line, or infinity if it never crosses it
+    private double arcLine(double cx, double cy, double rho, double a0, int dir,
+                           boolean vertical, double c) {
+        return arcLine(cx, cy, rho, a0, dir, vertical, c, -1);
+    }
+
+    //Angle along the arc until it crosses the line at a point on the
+    //boundary of the obstacle id (any point if id is -1)
+    private double arcLine(double cx, double cy, double rho, double a0, int dir,
+                           boolean vertical, double c, int id) {
+        double d = vertical ? c - cx : c - cy;
+        if (Math.abs(d) > rho) return Double.POSITIVE_INFINITY;
+        double w = Math.sqrt(rho*rho - d*d);
+        double t;
+        if (vertical) {
+            t = arcPoint(cx, cy, a0, dir, c, cy - w, id);
+            t = Math.min(t, arcPoint(cx, cy, a0, dir, c, cy + w, id));
+        } else {
+            t = arcPoint(cx, cy, a0, dir, cx - w, c, id);
+            t = Math.min(t, arcPoint(cx, cy, a0, dir, cx + w, c, id));
+        }
+        return t;
+    }
+
+    //Angle along the arc until it crosses the circle of radius r centered
+    //at (px,py), at a point on the boundary of the obstacle id (any point
+    //if id is -1), or infinity if it never crosses it
+    private double arcCircle(double cx, double cy, double rho, double a0, int dir,
+                             double px, double py, double r, int id) {
+        double dx = px - cx, dy = py - cy;
+        double d = Math.sqrt(dx*dx + dy*dy);
+        if (d == 0.0 || d > rho + r || d < Math.abs(rho - r)) return Double.POSITIVE_INFINITY;
+        double a = (rho*rho - r*r + d*d)/(2.0*d);
+        double h = Math.sqrt(Math.max(rho*rho - a*a, 0.0));
+        double mx = cx + a*dx/d, my = cy + a*dy/d;
+        double t = arcPoint(cx, cy, a0, dir, mx - h*dy/d, my + h*dx/d, id);
+        return Math.min(t, arcPoint(cx, cy, a0, dir, mx + h*dy/d, my - h*dx/d, id));
+    }
+
+    //Angle along the arc until the point (qx,qy) of its circle, or
+    //infinity if the point is not on the boundary of the obstacle id
+    private double arcPoint(double cx, double cy, double a0, int dir,
+                            double qx, double qy, int id) {
+        if (id >= 0) {
+            double hx = obstacles.getSizeX(id)/2.0, hy = obstacles.getSizeY(id)/2.0;
+            double ex = Math.max(0.0, Math.abs(qx - obstacles.getX(id)) - hx);
+            double ey = Math.max(0.0, Math.abs(qy - obstacles.getY(id)) - hy);
+            double r = radius + 1e-6;
+            if (ex*ex + ey*ey > r*r) return Double.POSITIVE_INFINITY;
+        }
+        double t = dir*(Math.atan2(qy - cy, qx - cx) - a0);
+        t = t % (2.0*Math.PI);
+        if (t < 0.0) t += 2.0*Math.PI;
+        return t;
+    }
+
+    /**
+     * Moves all the positioned robots of the fleet the given distance
+     * along their headings. The motion of each robot against the
+     * obstacles is calculated in parallel. Then the robots are moved in
+     * order of identifier, and each one stops when it touches a robot (at
+     * its new position if it has already moved), at the last free
+     * position before the contact. The index of the robots is updated.
+     * @param stopped The robots marked are not moved, and the robots
+     * that stop before the distance are marked (null if the motion is
+     * not split in pieces).
+     * @return The longest distance moved by a robot.
+     */
+    public double moveFleet(final float dist, final boolean[] stopped) {
+        final int n = fleet.size();
+        final double[] t = new double[n];
+        final double[] dx = new double[n];
+        final double[] dy = new double[n];
+
+        fleet.parallel(id -> {
+            t[id] = -1.0;
+            if (!fleet.isPositioned(id) || (stopped != null && stopped[id])) return;
+            float x = fleet.getX(id), y = fleet.getY(id);
+            if (blockedWorld(x, y)) return;
+            double a = Math.toRadians((double)fleet.getRot(id));
+            double ux = Math.cos(a), uy = Math.sin(a);
+            if (dist < 0.0f) { ux = -ux; uy = -uy; }
+            dx[id] = ux; dy[id] = uy;
+            t[id] = sweepWorld(x, y, ux, uy, Math.abs(dist));
+        });
+
+        double longest = 0.0;
+        for (int id = 0; id < n; ++id) {
+            if (t[id] < 0.0) continue;
+            float x = fleet.getX(id), y = fleet.getY(id);
+            if (robotColision(x, y, id)) continue;
+            double ti = sweepRobots(id, x, y, dx[id], dy[id], t[id]);
+            float nX = (float)(x + ti*dx[id]);
+            float nY = (float)(y + ti*dy[id]);
+            while (ti > 0.0 && blocked(nX, nY, id)) {
+                ti = Math.max(ti - step, 0.0);
+                nX = (float)(x + ti*dx[id]);
+                nY = (float)(y + ti*dy[id]);
+            }
+            longest = Math.max(longest, ti);
+            if (stopped != null && ti < Math.abs(dist)) stopped[id] = true;
+            robotGrid.remove(id, x, y, radius, radius);
+            fleet.setPos(id, nX, nY);
+            robotGrid.insert(id, nX, nY, radius, radius);
+        }
+        return longest;
+    }
+}
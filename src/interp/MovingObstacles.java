@@ -0,0 +1,101 @@
+package interp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Set of the obstacles that move with a constant velocity. Only these
+ * obstacles are visited when the simulated clock advances. The set is
+ * stored in parallel arrays (identifier and velocity), and the position
+ * of each obstacle in the arrays is kept to remove it in constant time.
+ */
+
+public class MovingObstacles {
+
+    /** Identifiers and velocities of the moving obstacles. */
+    private int[] ids = new int[16];
+
+    private float[] vx = new float[16], vy = new float[16];
+
+    /** Number of moving obstacles. */
+    private int count = 0;
+
+    /** Position of each obstacle in the arrays (-1 if it does not move). */
+    private int[] index = new int[0];
+
+    /** Returns the number of moving obstacles. */
+    public int size() { return count; }
+
+    public int getId(int k) { return ids[k]; }
+
+    public float getVX(int k) { return vx[k]; }
+
+    public float getVY(int k) { return vy[k]; }
+
+    /**
+     * Defines the velocity of an obstacle. A null velocity removes the
+     * obstacle from the set.
+     */
+    public void set(int id, float vX, float vY) {
+        if (vX == 0.0f && vY == 0.0f) {
+            remove(id);
+            return;
+        }
+        if (id >= index.length) {
+            int size = index.length;
+            index = Arrays.copyOf(index, Math.max(2*size, id + 1));
+            Arrays.fill(index, size, index.length, -1);
+        }
+        int k = index[id];
+        if (k < 0) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, 2*count);
+                vx = Arrays.copyOf(vx, 2*count);
+                vy = Arrays.copyOf(vy, 2*count);
+            }
+            k = count++;
+            ids[k] = id;
+            index[id] = k;
+        }
+        vx[k] = vX;
+        vy[k] = vY;
+    }
+
+    /** Removes an obstacle from the set. The last one takes its place. */
+    public void remove(int id) {
+        if (id >= index.length || index[id] < 0) return;
+        int k = index[id];
+        int last = --count;
+        ids[k] = ids[last];
+        vx[k] = vx[last];
+        vy[k] = vy[last];
+        index[ids[k]] = k;
+        index[id] = -1;
+    }
+
+    /** Writes the moving obstacles in binary form, in order. */
+    public void write(DataOutputStream o) throws IOException {
+        o.writeInt(count);
+        for (int k = 0; k < count; ++k) {
+            o.writeInt(ids[k]);
+            o.writeFloat(vx[k]);
+            o.writeFloat(vy[k]);
+        }
+    }
+
+    /**
+     * Reads the moving obstacles written by write() into an empty set.
+     * The order of the obstacles is kept.
+     */
+    public void read(DataInputStream in) throws IOException {
+        assert count == 0;
+        int n = in.readInt();
+        for (int k = 0; k < n; ++k) {
+            int id = in.readInt();
+            if (id < 0) throw new IOException("incorrect obstacle number");
+            set(id, in.readFloat(), in.readFloat());
+        }
+    }
+}
@@ -0,0 +1,1033 @@
+package interp;
+
+import parser.*;
+
+/**
+ * Node of the executable tree of a function, built from the AST by
+ * NodeInterp. The nodes of the expressions specialize themselves to the
+ * types of the values seen during the execution: an uninitialized node
+ * evaluates its operands in the generic way, and then it replaces itself
+ * in its parent by a node for those types (e.g. IntAddNode for two
+ * integers). A specialized node asks its operands for unboxed values
+ * (executeInt, executeFloat, executeBoolean), so that the loops with
+ * integers or floats do not dispatch on the type of the data. When an
+ * operand produces a value of another type (UnexpectedType), the node
+ * is replaced by its generic form for the rest of the execution.
+ * <p>
+ * The nodes report the errors at the same lines as the tree interpreter:
+ * each statement sets the line number before it is executed, and the
+ * nodes of the expressions set their line only when they raise an error.
+ */
+
+public abstract class Node {
+
+    /** Line of the AST node. */
+    final int line;
+
+    /** Parent of the node (used to replace it). */
+    Node parent;
+
+    Node(int l) { line = l; }
+
+    /**
+     * Replaces a child by another node. A child that has already been
+     * replaced (by a recursive call of the function) is ignored.
+     */
+    void replaceChild(Node old, Node n) {}
+
+    /** Replaces the node in its parent. */
+    final <T extends Node> T replace(T n) {
+        n.parent = parent;
+        parent.replaceChild(this, n);
+        return n;
+    }
+
+    /** Makes the node the parent of a child. */
+    final <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    /** Raised by a typed execution when the value has another type. */
+    @SuppressWarnings("serial")
+    static final class UnexpectedType extends Exception {
+        final Data value;
+        UnexpectedType(Data v) {
+            super(null, null, false, false);
+            value = v;
+        }
+    }
+
+    //----------------------------------------------------------------
+    // Functions
+
+    /** Function: the root of the tree of its body. */
+    static final class FunctionNode extends Node {
+        final AslTree tree;
+        final String name;
+        final String[] locals;
+        /** Slots of the parameters. */
+        int[] params;
+        BlockNode body;
+        FunctionNode(AslTree f) {
+            super(f.getLine());
+            tree = f;
+            name = f.getChild(0).getText();
+            locals = f.getLocals();
+        }
+    }
+
+    //----------------------------------------------------------------
+    // Expressions
+
+    /** Expression. */
+    abstract static class Expr extends Node {
+        Expr(int l) { super(l); }
+
+        /**
+         * Evaluates the expression.
+         * @return A new data with the value (it can be modified by the caller).
+         */
+        abstract Data execute(NodeInterp n);
+
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            return expectInt(execute(n));
+        }
+
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            return expectFloat(execute(n));
+        }
+
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            return expectBoolean(execute(n));
+        }
+
+        static int expectInt(Data d) throws UnexpectedType {
+            if (d.isInteger()) return d.getIntegerValue();
+            throw new UnexpectedType(d);
+        }
+
+        static float expectFloat(Data d) throws UnexpectedType {
+            if (d.isFloat()) return d.getFloatValue();
+            throw new UnexpectedType(d);
+        }
+
+        static boolean expectBoolean(Data d) throws UnexpectedType {
+            if (d.isBoolean()) return d.getBooleanValue();
+            throw new UnexpectedType(d);
+        }
+    }
+
+    static final class IntLiteralNode extends Expr {
+        final int value;
+        IntLiteralNode(int l, int v) { super(l); value = v; }
+        Data execute(NodeInterp n) { return new Data(value); }
+        int executeInt(NodeInterp n) { return value; }
+    }
+
+    static final class FloatLiteralNode extends Expr {
+        final float value;
+        FloatLiteralNode(int l, float v) { super(l); value = v; }
+        Data execute(NodeInterp n) { return new Data(value); }
+        float executeFloat(NodeInterp n) { return value; }
+    }
+
+    static final class BooleanLiteralNode extends Expr {
+        final boolean value;
+        BooleanLiteralNode(int l, boolean v) { super(l); value = v; }
+        Data execute(NodeInterp n) { return new Data(value); }
+        boolean executeBoolean(NodeInterp n) { return value; }
+    }
+
+    static final class StringLiteralNode extends Expr {
+        final String value;
+        StringLiteralNode(int l, String v) { super(l); value = v; }
+        Data execute(NodeInterp n) { return new Data(value); }
+    }
+
+    /** Read of a variable. */
+    abstract static class LocalNode extends Expr {
+        final int slot;
+        final String name;
+        LocalNode(int l, int s, String v) { super(l); slot = s; name = v; }
+        LocalNode(LocalNode r) { this(r.line, r.slot, r.name); }
+    }
+
+    /** Read of a variable that has not been executed yet. */
+    static final class UninitializedLocalReadNode extends LocalNode {
+        UninitializedLocalReadNode(int l, int s, String v) { super(l, s, v); }
+        Data execute(NodeInterp n) {
+            Data v = n.variable(this);
+            if (v.isInteger()) replace(new LocalIntReadNode(this));
+            else if (v.isFloat()) replace(new LocalFloatReadNode(this));
+            else replace(new LocalReadNode(this));
+            return new Data(v);
+        }
+    }
+
+    static final class LocalReadNode extends LocalNode {
+        LocalReadNode(LocalNode r) { super(r); }
+        Data execute(NodeInterp n) { return new Data(n.variable(this)); }
+    }
+
+    static final class LocalIntReadNode extends LocalNode {
+        LocalIntReadNode(LocalNode r) { super(r); }
+        Data execute(NodeInterp n) {
+            Data v = n.variable(this);
+            if (!v.isInteger()) replace(new LocalReadNode(this));
+            return new Data(v);
+        }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            Data v = n.variable(this);
+            if (v.isInteger()) return v.getIntegerValue();
+            replace(new LocalReadNode(this));
+            throw new UnexpectedType(new Data(v));
+        }
+    }
+
+    static final class LocalFloatReadNode extends LocalNode {
+        LocalFloatReadNode(LocalNode r) { super(r); }
+        Data execute(NodeInterp n) {
+            Data v = n.variable(this);
+            if (!v.isFloat()) replace(new LocalReadNode(this));
+            return new Data(v);
+        }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            Data v = n.variable(this);
+            if (v.isFloat()) return v.getFloatValue();
+            replace(new LocalReadNode(this));
+            throw new UnexpectedType(new Data(v));
+        }
+    }
+
+    //----------------------------------------------------------------
+    // Unary operators
+
+    abstract static class UnaryNode extends Expr {
+        Expr child;
+        UnaryNode(int l, Expr c) { super(l); child = adopt(c); }
+        UnaryNode(UnaryNode u) { this(u.line, u.child); }
+        void replaceChild(Node old, Node n) {
+            if (child == old) child = (Expr) n;
+        }
+    }
+
+    /** Unary plus: checks that the operand is numeric. */
+    static final class PosNode extends UnaryNode {
+        PosNode(int l, Expr c) { super(l, c); }
+        Data execute(NodeInterp n) {
+            Data v = child.execute(n);
+            if (!v.isInteger() && !v.isFloat()) throw n.error(line, "Expecting numerical expression");
+            return v;
+        }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            try {
+                return child.executeInt(n);
+            } catch (UnexpectedType e) {
+                if (!e.value.isFloat()) throw n.error(line, "Expecting numerical expression");
+                throw e;
+            }
+        }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            try {
+                return child.executeFloat(n);
+            } catch (UnexpectedType e) {
+                if (!e.value.isInteger()) throw n.error(line, "Expecting numerical expression");
+                throw e;
+            }
+        }
+    }
+
+    static final class NotNode extends UnaryNode {
+        NotNode(int l, Expr c) { super(l, c); }
+        Data execute(NodeInterp n) { return new Data(executeBoolean(n)); }
+        boolean executeBoolean(NodeInterp n) {
+            try {
+                return !child.executeBoolean(n);
+            } catch (UnexpectedType e) {
+                throw n.error(line, "Expecting Boolean expression");
+            }
+        }
+    }
+
+    /** Unary minus that has not been executed yet. */
+    static final class UninitializedNegNode extends UnaryNode {
+        UninitializedNegNode(int l, Expr c) { super(l, c); }
+        Data execute(NodeInterp n) {
+            Data v = child.execute(n);
+            if (v.isInteger()) replace(new IntNegNode(this));
+            else if (v.isFloat()) replace(new FloatNegNode(this));
+            else replace(new NegNode(this));
+            return negate(n, line, v);
+        }
+    }
+
+    static final class NegNode extends UnaryNode {
+        NegNode(UnaryNode u) { super(u); }
+        Data execute(NodeInterp n) { return negate(n, line, child.execute(n)); }
+    }
+
+    static final class IntNegNode extends UnaryNode {
+        IntNegNode(UnaryNode u) { super(u); }
+        Data execute(NodeInterp n) {
+            try {
+                return new Data(executeInt(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            try {
+                return -child.executeInt(n);
+            } catch (UnexpectedType e) {
+                replace(new NegNode(this));
+                return expectInt(negate(n, line, e.value));
+            }
+        }
+    }
+
+    static final class FloatNegNode extends UnaryNode {
+        FloatNegNode(UnaryNode u) { super(u); }
+        Data execute(NodeInterp n) {
+            try {
+                return new Data(executeFloat(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            try {
+                return -child.executeFloat(n);
+            } catch (UnexpectedType e) {
+                replace(new NegNode(this));
+                return expectFloat(negate(n, line, e.value));
+            }
+        }
+    }
+
+    /** Generic unary minus (the data is modified). */
+    static Data negate(NodeInterp n, int line, Data v) {
+        if (v.isFloat()) v.setValue(-v.getFloatValue());
+        else if (v.isInteger()) v.setValue(-v.getIntegerValue());
+        else throw n.error(line, "Expecting numerical expression");
+        return v;
+    }
+
+    //----------------------------------------------------------------
+    // Binary operators
+
+    /** Binary operator. The type is the token of the operator. */
+    abstract static class BinaryNode extends Expr {
+        final int type;
+        Expr left, right;
+        BinaryNode(int l, int t, Expr a, Expr b) {
+            super(l);
+            type = t;
+            left = adopt(a);
+            right = adopt(b);
+        }
+        BinaryNode(BinaryNode b) { this(b.line, b.type, b.left, b.right); }
+
+        void replaceChild(Node old, Node n) {
+            if (left == old) left = (Expr) n;
+            else if (right == old) right = (Expr) n;
+        }
+
+        /** Generic evaluation of the operator, reporting the errors at its line. */
+        final Data apply(NodeInterp n, Data a, Data b) {
+            try {
+                return binary(type, a, b);
+            } catch (RuntimeException e) {
+                n.setLineNumber(line);
+                throw e;
+            }
+        }
+
+        /** Replaces the node by the generic operator and evaluates it. */
+        final Data generalize(NodeInterp n, Data a, Data b) {
+            replace(new GenericBinaryNode(this));
+            return apply(n, a, b);
+        }
+
+        /** Generalizes the node when the left operand has an unexpected type. */
+        final Data generalize(NodeInterp n, Data a) {
+            return generalize(n, a, right.execute(n));
+        }
+    }
+
+    /** Binary operator that has not been executed yet. */
+    static final class UninitializedBinaryNode extends BinaryNode {
+        UninitializedBinaryNode(int l, int t, Expr a, Expr b) { super(l, t, a, b); }
+        Data execute(NodeInterp n) {
+            Data a = left.execute(n);
+            Data b = right.execute(n);
+            replace(specialize(a, b));
+            return apply(n, a, b);
+        }
+
+        /** Returns the node of the operator for the types of the operands. */
+        private BinaryNode specialize(Data a, Data b) {
+            if (a.isInteger() && b.isInteger()) {
+                switch (type) {
+                    case RobotLexer.PLUS: return new IntAddNode(this);
+                    case RobotLexer.MINUS: return new IntSubNode(this);
+                    case RobotLexer.MUL: return new IntMulNode(this);
+                    case RobotLexer.DIV: return new IntDivNode(this);
+                    case RobotLexer.MOD: return new IntModNode(this);
+                    case RobotLexer.EQUAL: return new IntEqNode(this);
+                    case RobotLexer.NOT_EQUAL: return new IntNeNode(this);
+                    case RobotLexer.LT: return new IntLtNode(this);
+                    case RobotLexer.LE: return new IntLeNode(this);
+                    case RobotLexer.GT: return new IntGtNode(this);
+                    case RobotLexer.GE: return new IntGeNode(this);
+                    default: break;
+                }
+            } else if (a.isFloat() && b.isFloat()) {
+                switch (type) {
+                    case RobotLexer.PLUS: return new FloatAddNode(this);
+                    case RobotLexer.MINUS: return new FloatSubNode(this);
+                    case RobotLexer.MUL: return new FloatMulNode(this);
+                    case RobotLexer.DIV: return new FloatDivNode(this);
+                    case RobotLexer.EQUAL: return new FloatEqNode(this);
+                    case RobotLexer.NOT_EQUAL: return new FloatNeNode(this);
+                    case RobotLexer.LT: return new FloatLtNode(this);
+                    case RobotLexer.LE: return new FloatLeNode(this);
+                    case RobotLexer.GT: return new FloatGtNode(this);
+                    case RobotLexer.GE: return new FloatGeNode(this);
+                    default: break;
+                }
+            }
+            return new GenericBinaryNode(this);
+        }
+    }
+
+    static final class GenericBinaryNode extends BinaryNode {
+        GenericBinaryNode(BinaryNode b) { super(b); }
+        Data execute(NodeInterp n) {
+            Data a = left.execute(n);
+            return apply(n, a, right.execute(n));
+        }
+    }
+
+    /**
+     * Generic evaluation of a binary operator, with the same checks as
+     * the tree interpreter. The first operand is modified.
+     */
+    static Data binary(int type, Data a, Data b) {
+        switch (type) {
+            case RobotLexer.EQUAL:
+            case RobotLexer.NOT_EQUAL:
+            case RobotLexer.LT:
+            case RobotLexer.LE:
+            case RobotLexer.GT:
+            case RobotLexer.GE:
+                if (a.getType() != b.getType()) {
+                    throw new RuntimeException ("Incompatible types in relational expression");
+                }
+                return new Data(a.evaluateRelational(type, b)); // Not shared
+            case RobotLexer.PLUS:
+                if (b.isInteger()) { Interp.checkNumeric(a); Interp.checkNumeric(b); }
+                break;
+            case RobotLexer.MOD:
+                Interp.checkInteger(a); Interp.checkInteger(b);
+                break;
+            default:
+                Interp.checkNumeric(a); Interp.checkNumeric(b);
+                break;
+        }
+        a.evaluateArithmetic(type, b);
+        return a;
+    }
+
+    /** Arithmetic operator with integer operands. */
+    abstract static class IntArithNode extends BinaryNode {
+        IntArithNode(BinaryNode b) { super(b); }
+        final Data execute(NodeInterp n) {
+            try {
+                return new Data(executeInt(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+    }
+
+    /** Relational operator with integer operands. */
+    abstract static class IntCompareNode extends BinaryNode {
+        IntCompareNode(BinaryNode b) { super(b); }
+        final Data execute(NodeInterp n) {
+            try {
+                return new Data(executeBoolean(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+    }
+
+    /** Arithmetic operator with float operands. */
+    abstract static class FloatArithNode extends BinaryNode {
+        FloatArithNode(BinaryNode b) { super(b); }
+        final Data execute(NodeInterp n) {
+            try {
+                return new Data(executeFloat(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+    }
+
+    /** Relational operator with float operands. */
+    abstract static class FloatCompareNode extends BinaryNode {
+        FloatCompareNode(BinaryNode b) { super(b); }
+        final Data execute(NodeInterp n) {
+            try {
+                return new Data(executeBoolean(n));
+            } catch (UnexpectedType e) {
+                return e.value;
+            }
+        }
+    }
+
+    static final class IntAddNode extends IntArithNode {
+        IntAddNode(BinaryNode b) { super(b); }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, new Data(a), e.value)); }
+            return a + b;
+        }
+    }
+
+    static final class IntSubNode extends IntArithNode {
+        IntSubNode(BinaryNode b) { super(b); }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, new Data(a), e.value)); }
+            return a - b;
+        }
+    }
+
+    static final class IntMulNode extends IntArithNode {
+        IntMulNode(BinaryNode b) { super(b); }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, new Data(a), e.value)); }
+            return a * b;
+        }
+    }
+
+    static final class IntDivNode extends IntArithNode {
+        IntDivNode(BinaryNode b) { super(b); }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, new Data(a), e.value)); }
+            if (b == 0) throw n.error(line, "Division by zero");
+            return a / b;
+        }
+    }
+
+    static final class IntModNode extends IntArithNode {
+        IntModNode(BinaryNode b) { super(b); }
+        int executeInt(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectInt(generalize(n, new Data(a), e.value)); }
+            if (b == 0) throw n.error(line, "Division by zero");
+            return a % b;
+        }
+    }
+
+    static final class IntEqNode extends IntCompareNode {
+        IntEqNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a == b;
+        }
+    }
+
+    static final class IntNeNode extends IntCompareNode {
+        IntNeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a != b;
+        }
+    }
+
+    static final class IntLtNode extends IntCompareNode {
+        IntLtNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a < b;
+        }
+    }
+
+    static final class IntLeNode extends IntCompareNode {
+        IntLeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a <= b;
+        }
+    }
+
+    static final class IntGtNode extends IntCompareNode {
+        IntGtNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a > b;
+        }
+    }
+
+    static final class IntGeNode extends IntCompareNode {
+        IntGeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            int a, b;
+            try { a = left.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeInt(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a >= b;
+        }
+    }
+
+    static final class FloatAddNode extends FloatArithNode {
+        FloatAddNode(BinaryNode b) { super(b); }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, new Data(a), e.value)); }
+            return a + b;
+        }
+    }
+
+    static final class FloatSubNode extends FloatArithNode {
+        FloatSubNode(BinaryNode b) { super(b); }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, new Data(a), e.value)); }
+            return a - b;
+        }
+    }
+
+    static final class FloatMulNode extends FloatArithNode {
+        FloatMulNode(BinaryNode b) { super(b); }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, new Data(a), e.value)); }
+            return a * b;
+        }
+    }
+
+    static final class FloatDivNode extends FloatArithNode {
+        FloatDivNode(BinaryNode b) { super(b); }
+        float executeFloat(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectFloat(generalize(n, new Data(a), e.value)); }
+            if (b == 0.0) throw n.error(line, "Division by zero");
+            return a / b;
+        }
+    }
+
+    static final class FloatEqNode extends FloatCompareNode {
+        FloatEqNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a == b;
+        }
+    }
+
+    static final class FloatNeNode extends FloatCompareNode {
+        FloatNeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a != b;
+        }
+    }
+
+    static final class FloatLtNode extends FloatCompareNode {
+        FloatLtNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a < b;
+        }
+    }
+
+    static final class FloatLeNode extends FloatCompareNode {
+        FloatLeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a <= b;
+        }
+    }
+
+    static final class FloatGtNode extends FloatCompareNode {
+        FloatGtNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a > b;
+        }
+    }
+
+    static final class FloatGeNode extends FloatCompareNode {
+        FloatGeNode(BinaryNode b) { super(b); }
+        boolean executeBoolean(NodeInterp n) throws UnexpectedType {
+            float a, b;
+            try { a = left.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, e.value)); }
+            try { b = right.executeFloat(n); } catch (UnexpectedType e) { return expectBoolean(generalize(n, new Data(a), e.value)); }
+            return a >= b;
+        }
+    }
+
+    /** Boolean operators, with short-circuit evaluation. */
+    abstract static class LogicalNode extends Expr {
+        Expr left, right;
+        LogicalNode(int l, Expr a, Expr b) {
+            super(l);
+            left = adopt(a);
+            right = adopt(b);
+        }
+        void replaceChild(Node old, Node n) {
+            if (left == old) left = (Expr) n;
+            else if (right == old) right = (Expr) n;
+        }
+        abstract boolean executeBoolean(NodeInterp n);
+        final Data execute(NodeInterp n) { return new Data(executeBoolean(n)); }
+        final boolean operand(NodeInterp n, Expr e) {
+            try {
+                return e.executeBoolean(n);
+            } catch (UnexpectedType x) {
+                throw n.error(line, "Expecting Boolean expression");
+            }
+        }
+    }
+
+    static final class AndNode extends LogicalNode {
+        AndNode(int l, Expr a, Expr b) { super(l, a, b); }
+        boolean executeBoolean(NodeInterp n) {
+            return operand(n, left) && operand(n, right);
+        }
+    }
+
+    static final class OrNode extends LogicalNode {
+        OrNode(int l, Expr a, Expr b) { super(l, a, b); }
+        boolean executeBoolean(NodeInterp n) {
+            return operand(n, left) || operand(n, right);
+        }
+    }
+
+    //----------------------------------------------------------------
+    // Function calls
+
+    /** Call of a function. */
+    abstract static class CallNode extends Expr {
+        final Expr[] args;
+        CallNode(int l, Expr[] a) {
+            super(l);
+            args = a;
+            for (Expr e : a) adopt(e);
+        }
+        void replaceChild(Node old, Node n) {
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i] == old) args[i] = (Expr) n;
+            }
+        }
+        final Data[] arguments(NodeInterp n) {
+            Data[] argv = new Data[args.length];
+            for (int i = 0; i < argv.length; ++i) argv[i] = args[i].execute(n);
+            return argv;
+        }
+
+        /** Executes the call as a statement. */
+        abstract Data invoke(NodeInterp n);
+
+        /** Executes the call in an expression, that requires a result. */
+        Data execute(NodeInterp n) {
+            int previous = n.lineNumber();
+            Data v = invoke(n);
+            if (v.isVoid()) throw new RuntimeException ("function expected to return a value");
+            n.setLineNumber(previous);
+            return v;
+        }
+    }
+
+    /**
+     * Call of a user function. The line of the call is the line of the
+     * last argument, as in the tree interpreter.
+     */
+    static final class UserCallNode extends CallNode {
+        final FunctionNode function;
+        final int callLine;
+        UserCallNode(int l, FunctionNode f, Expr[] a, int cl) {
+            super(l, a);
+            function = f;
+            callLine = cl;
+        }
+        Data invoke(NodeInterp n) { return n.call(function, arguments(n), callLine); }
+    }
+
+    static final class BuiltinCallNode extends CallNode {
+        final Builtin builtin;
+        BuiltinCallNode(int l, Builtin b, Expr[] a) {
+            super(l, a);
+            builtin = b;
+        }
+        Data invoke(NodeInterp n) {
+            Data[] argv = arguments(n);
+            n.setLineNumber(line);
+            return n.builtin(builtin, argv);
+        }
+    }
+
+    /** Argument passed by reference: the data of the variable. */
+    static final class RefNode extends LocalNode {
+        RefNode(int l, int s, String v) { super(l, s, v); }
+        Data execute(NodeInterp n) { return n.variable(this); }
+    }
+
+    /** Argument passed by reference that is not a variable. */
+    static final class BadRefNode extends Expr {
+        BadRefNode(int l) { super(l); }
+        Data execute(NodeInterp n) {
+            throw n.error(line, "Wrong argument for pass by reference");
+        }
+    }
+
+    //----------------------------------------------------------------
+    // Statements
+
+    /** Statement. */
+    abstract static class Stmt extends Node {
+        Stmt(int l) { super(l); }
+
+        /**
+         * Executes the statement.
+         * @return The data returned by a return statement, or null.
+         */
+        abstract Data execute(NodeInterp n);
+    }
+
+    static final class BlockNode extends Stmt {
+        final Stmt[] stmts;
+        BlockNode(int l, Stmt[] s) {
+            super(l);
+            stmts = s;
+            for (Stmt e : s) adopt(e);
+        }
+        void replaceChild(Node old, Node n) {
+            for (int i = 0; i < stmts.length; ++i) {
+                if (stmts[i] == old) stmts[i] = (Stmt) n;
+            }
+        }
+        Data execute(NodeInterp n) {
+            for (Stmt s : stmts) {
+                Data r = s.execute(n);
+                if (r != null) return r;
+            }
+            return null;
+        }
+    }
+
+    /** Assignment to a variable. */
+    abstract static class AssignBase extends Stmt {
+        final int slot;
+        Expr value;
+        AssignBase(int l, int s, Expr v) {
+            super(l);
+            slot = s;
+            value = adopt(v);
+        }
+        AssignBase(AssignBase a) { this(a.line, a.slot, a.value); }
+        void replaceChild(Node old, Node n) {
+            if (value == old) value = (Expr) n;
+        }
+    }
+
+    /** Assignment that has not been executed yet. */
+    static final class UninitializedAssignNode extends AssignBase {
+        UninitializedAssignNode(int l, int s, Expr v) { super(l, s, v); }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            Data v = value.execute(n);
+            if (v.isInteger()) replace(new IntAssignNode(this));
+            else if (v.isFloat()) replace(new FloatAssignNode(this));
+            else replace(new AssignNode(this));
+            n.define(slot, v);
+            return null;
+        }
+    }
+
+    static final class AssignNode extends AssignBase {
+        AssignNode(AssignBase a) { super(a); }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            n.define(slot, value.execute(n));
+            return null;
+        }
+    }
+
+    /** Assignment of an integer, that reuses the data of the variable. */
+    static final class IntAssignNode extends AssignBase {
+        IntAssignNode(AssignBase a) { super(a); }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            try {
+                n.define(slot, value.executeInt(n));
+            } catch (UnexpectedType e) {
+                replace(new AssignNode(this));
+                n.define(slot, e.value);
+            }
+            return null;
+        }
+    }
+
+    /** Assignment of a float, that reuses the data of the variable. */
+    static final class FloatAssignNode extends AssignBase {
+        FloatAssignNode(AssignBase a) { super(a); }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            try {
+                n.define(slot, value.executeFloat(n));
+            } catch (UnexpectedType e) {
+                replace(new AssignNode(this));
+                n.define(slot, e.value);
+            }
+            return null;
+        }
+    }
+
+    static final class IfNode extends Stmt {
+        Expr cond;
+        final BlockNode then, otherwise;
+        IfNode(int l, Expr c, BlockNode t, BlockNode e) {
+            super(l);
+            cond = adopt(c);
+            then = adopt(t);
+            otherwise = e == null ? null : adopt(e);
+        }
+        void replaceChild(Node old, Node n) {
+            if (cond == old) cond = (Expr) n;
+        }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            if (condition(n, cond)) return then.execute(n);
+            if (otherwise != null) return otherwise.execute(n);
+            return null;
+        }
+    }
+
+    /**
+     * Loop. The line is only set before the first iteration: as in the
+     * tree interpreter, a condition that is not Boolean is reported at
+     * the line of the last instruction executed.
+     */
+    static final class WhileNode extends Stmt {
+        Expr cond;
+        final BlockNode body;
+        WhileNode(int l, Expr c, BlockNode b) {
+            super(l);
+            cond = adopt(c);
+            body = adopt(b);
+        }
+        void replaceChild(Node old, Node n) {
+            if (cond == old) cond = (Expr) n;
+        }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            while (condition(n, cond)) {
+                Data r = body.execute(n);
+                if (r != null) return r;
+            }
+            return null;
+        }
+    }
+
+    /** Evaluates the condition of a statement. */
+    static boolean condition(NodeInterp n, Expr cond) {
+        try {
+            return cond.executeBoolean(n);
+        } catch (UnexpectedType e) {
+            throw new RuntimeException ("Expecting Boolean expression");
+        }
+    }
+
+    static final class ReturnNode extends Stmt {
+        Expr value;
+        ReturnNode(int l, Expr v) {
+            super(l);
+            value = v == null ? null : adopt(v);
+        }
+        void replaceChild(Node old, Node n) {
+            if (value == old) value = (Expr) n;
+        }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            return value == null ? Data.VOID : value.execute(n);
+        }
+    }
+
+    static final class ReadNode extends Stmt {
+        final int slot;
+        ReadNode(int l, int s) { super(l); slot = s; }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            n.define(slot, n.readValue());
+            return null;
+        }
+    }
+
+    static final class WriteNode extends Stmt {
+        Expr value;
+        WriteNode(int l, Expr v) { super(l); value = adopt(v); }
+        void replaceChild(Node old, Node n) {
+            if (value == old) value = (Expr) n;
+        }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            n.print(value.execute(n).toString());
+            return null;
+        }
+    }
+
+    static final class WriteStringNode extends Stmt {
+        final String value;
+        WriteStringNode(int l, String v) { super(l); value = v; }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            n.format(value);
+            return null;
+        }
+    }
+
+    /** Function call as a statement (the result is discarded). */
+    static final class CallStmtNode extends Stmt {
+        final CallNode call;
+        CallStmtNode(int l, CallNode c) { super(l); call = adopt(c); }
+        Data execute(NodeInterp n) {
+            n.setLineNumber(line);
+            call.invoke(n);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import interp.Node.*;
+
+/**
+ * Interpreter of the executable trees of the functions (see Node). The
+ * trees are built from the AST of the program when the interpreter is
+ * created, so that each interpreter specializes its own trees. As in
+ * the VM, the variables are the slots of the activation records of the
+ * stack of the interpreter, and the builtins, the input/output and the
+ * trace of the function calls are delegated to the interpreter.
+ */
+
+public class NodeInterp {
+
+    /** Interpreter that executes the builtins. */
+    private Interp interp;
+
+    /** Memory of the interpreter. */
+    private Stack stack;
+
+    /** Tree of each function (by its AST). */
+    private IdentityHashMap<AslTree,FunctionNode> functions = new IdentityHashMap<AslTree,FunctionNode>();
+
+    public NodeInterp(Interp I, Stack S, Program P) {
+        interp = I;
+        stack = S;
+        AslTree T = P.getTree();
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) functions.put(T.getChild(i), new FunctionNode(T.getChild(i)));
+        for (FunctionNode f : functions.values()) buildFunction(f);
+    }
+
+    /**
+     * Executes a function without parameters (the main function).
+     * @return The data returned by the function.
+     */
+    public Data run(String name) {
+        for (FunctionNode f : functions.values()) {
+            if (f.name.equals(name)) return call(f, new Data[0], interp.lineNumber());
+        }
+        throw new RuntimeException(" function " + name + " not declared");
+    }
+
+    /**
+     * Executes a function.
+     * @param f The tree of the function.
+     * @param argv The values of the arguments (the data of the variables
+     * passed by reference).
+     * @param line The line number of the call.
+     * @return The data returned by the function.
+     */
+    Data call(FunctionNode f, Data[] argv, int line) {
+        interp.setLineNumber(line);
+        ArrayList<Data> traced = null;
+        if (interp.tracing()) {
+            traced = new ArrayList<Data>(Arrays.asList(argv));
+            interp.traceFunctionCall(f.tree, traced);
+        }
+        stack.pushActivationRecord(f.name, line, f.locals);
+        interp.setLineNumber(f.line);
+        for (int i = 0; i < argv.length; ++i) stack.defineVariable(f.params[i], argv[i]);
+        Data result = f.body.execute(this);
+        if (result == null) result = Data.VOID;
+        if (traced != null) interp.traceReturn(f.tree, result, traced);
+        stack.popActivationRecord();
+        return result;
+    }
+
+    //----------------------------------------------------------------
+    // Services for the nodes
+
+    int lineNumber() { return interp.lineNumber(); }
+
+    void setLineNumber(int line) { interp.setLineNumber(line); }
+
+    /** Sets the line of a runtime error and returns the exception. */
+    RuntimeException error(int line, String msg) {
+        interp.setLineNumber(line);
+        return new RuntimeException (msg);
+    }
+
+    /** Returns the data of a variable, checking that it is defined. */
+    Data variable(LocalNode v) {
+        Data d = stack.getSlots()[stack.getBase() + v.slot];
+        if (d == null) throw error(v.line, "Variable " + v.name + " not defined");
+        return d;
+    }
+
+    void define(int slot, Data value) { stack.defineVariable(slot, value); }
+
+    /** Defines an integer variable, reusing its data. */
+    void define(int slot, int value) {
+        Data[] s = stack.getSlots();
+        int i = stack.getBase() + slot;
+        if (s[i] == null) s[i] = new Data(value);
+        else s[i].setValue(value);
+    }
+
+    /** Defines a float variable, reusing its data. */
+    void define(int slot, float value) {
+        Data[] s = stack.getSlots();
+        int i = stack.getBase() + slot;
+        if (s[i] == null) s[i] = new Data(value);
+        else s[i].setValue(value);
+    }
+
+    Data builtin(Builtin b, Data[] argv) { return interp.executeBuiltin(b, argv); }
+
+    Data readValue() { return interp.readValue(); }
+
+    void format(String s) { interp.getOutput().format(s); }
+
+    void print(String s) { interp.getOutput().print(s); }
+
+    //----------------------------------------------------------------
+    // Construction of the trees
+
+    private void buildFunction(FunctionNode f) {
+        AslTree p = f.tree.getChild(1);
+        int nparam = p.getChildCount();
+        f.params = new int[nparam];
+        for (int i = 0; i < nparam; ++i) f.params[i] = p.getChild(i).getSlot();
+        f.body = f.adopt(block(f.tree.getChild(2)));
+    }
+
+    private BlockNode block(AslTree t) {
+        int n = t.getChildCount();
+        Stmt[] s = new Stmt[n];
+        for (int i = 0; i < n; ++i) s[i] = statement(t.getChild(i));
+        return new BlockNode(t.getLine(), s);
+    }
+
+    private Stmt statement(AslTree t) {
+        int line = t.getLine();
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                return new UninitializedAssignNode(line, t.getChild(0).getSlot(), expression(t.getChild(1)));
+
+            case RobotLexer.IF:
+                return new IfNode(line, expression(t.getChild(0)), block(t.getChild(1)),
+                                  t.getChildCount() == 3 ? block(t.getChild(2)) : null);
+
+            case RobotLexer.WHILE:
+                return new WhileNode(line, expression(t.getChild(0)), block(t.getChild(1)));
+
+            case RobotLexer.RETURN:
+                return new ReturnNode(line, t.getChildCount() != 0 ? expression(t.getChild(0)) : null);
+
+            case RobotLexer.READ:
+                return new ReadNode(line, t.getChild(0).getSlot());
+
+            case RobotLexer.WRITE:
+                AslTree v = t.getChild(0);
+                if (v.getType() == RobotLexer.STRING) return new WriteStringNode(line, v.getStringValue());
+                return new WriteNode(line, expression(v));
+
+            case RobotLexer.FUNCALL:
+                return new CallStmtNode(line, call(t));
+
+            default: assert false; // Should never happen
+        }
+        return null;
+    }
+
+    private Expr expression(AslTree t) {
+        int line = t.getLine();
+        int type = t.getType();
+        switch (type) {
+            case RobotLexer.ID:
+                return new UninitializedLocalReadNode(line, t.getSlot(), t.getText());
+            case RobotLexer.INT:
+                return new IntLiteralNode(line, t.getIntValue());
+            case RobotLexer.BOOLEAN:
+                return new BooleanLiteralNode(line, t.getBooleanValue());
+            case RobotLexer.STRING:
+                return new StringLiteralNode(line, t.getStringValue());
+            case RobotLexer.FLOAT:
+                return new FloatLiteralNode(line, t.getFloatValue());
+            case RobotLexer.FUNCALL:
+                return call(t);
+            default: break;
+        }
+
+        Expr a = expression(t.getChild(0));
+        if (t.getChildCount() == 1) {
+            switch (type) {
+                case RobotLexer.PLUS: return new PosNode(line, a);
+                case RobotLexer.MINUS: return new UninitializedNegNode(line, a);
+                case RobotLexer.NOT: return new NotNode(line, a);
+                default: assert false; // Should never happen
+            }
+        }
+
+        Expr b = expression(t.getChild(1));
+        switch (type) {
+            case RobotLexer.AND: return new AndNode(line, a, b);
+            case RobotLexer.OR: return new OrNode(line, a, b);
+            default: return new UninitializedBinaryNode(line, type, a, b);
+        }
+    }
+
+    /**
+     * Builds a function call. The number of arguments has been checked
+     * when the program was linked.
+     */
+    private CallNode call(AslTree t) {
+        AslTree args = t.getChild(1);
+        int n = args.getChildCount();
+        Expr[] argv = new Expr[n];
+        Builtin b = t.getBuiltin();
+        if (b != null) {
+            for (int i = 0; i < n; ++i) argv[i] = expression(args.getChild(i));
+            return new BuiltinCallNode(t.getLine(), b, argv);
+        }
+
+        AslTree f = t.getFunction();
+        AslTree pars = f.getChild(1);
+        for (int i = 0; i < n; ++i) {
+            AslTree a = args.getChild(i);
+            if (pars.getChild(i).getType() == RobotLexer.PVALUE) argv[i] = expression(a);
+            else if (a.getType() == RobotLexer.ID) argv[i] = new RefNode(a.getLine(), a.getSlot(), a.getText());
+            else argv[i] = new BadRefNode(a.getLine());
+        }
+        int callLine = n == 0 ? args.getLine() : args.getChild(n-1).getLine();
+        return new UserCallNode(t.getLine(), functions.get(f), argv, callLine);
+    }
+}
@@ -0,0 +1,125 @@
+package interp;
+
+/**
+ * Model of the noise of the motion and the sensors of the robot. It is
+ * defined by a specification with comma-separated fields:
+ * <pre>
+ *   move=dist:scale   relative error of the distance of rMove/rMoveUntil
+ *   turn=dist:scale   error (degrees) of the angle of rTurn
+ *   feel=fp:fn        probabilities of false positives and false
+ *                     negatives of each sensor reading
+ * </pre>
+ * where dist is gauss (scale is the standard deviation) or uniform
+ * (the error is uniform in [-scale,scale]). For example,
+ * "move=gauss:0.05,turn=uniform:2,feel=0.01:0.02".
+ * The model has no state: the random numbers are drawn from the
+ * generator of each execution, so that a seed reproduces a trial.
+ */
+
+public class NoiseModel {
+
+    /** Distributions of the errors. */
+    private static final int NONE = 0;
+    private static final int GAUSS = 1;
+    private static final int UNIFORM = 2;
+
+    private int moveDist = NONE;
+
+    private double moveScale = 0.0;
+
+    private int turnDist = NONE;
+
+    private double turnScale = 0.0;
+
+    /** Probabilities of false positives and false negatives. */
+    private double falsePos = 0.0, falseNeg = 0.0;
+
+    /**
+     * Constructor of the model from a specification.
+     * @throws IllegalArgumentException if the specification is incorrect.
+     */
+    public NoiseModel(String spec) {
+        for (String field : spec.split(",")) {
+            int eq = field.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("incorrect noise field " + field);
+            String key = field.substring(0, eq).trim();
+            String[] v = field.substring(eq + 1).trim().split(":");
+            try {
+                if (v.length != 2) throw new NumberFormatException();
+                if (key.equals("move")) {
+                    moveDist = distribution(v[0]);
+                    moveScale = Double.parseDouble(v[1]);
+                } else if (key.equals("turn")) {
+                    turnDist = distribution(v[0]);
+                    turnScale = Double.parseDouble(v[1]);
+                } else if (key.equals("feel")) {
+                    falsePos = Double.parseDouble(v[0]);
+                    falseNeg = Double.parseDouble(v[1]);
+                    if (falsePos < 0.0 || falsePos > 1.0 || falseNeg < 0.0 || falseNeg > 1.0) {
+                        throw new NumberFormatException();
+                    }
+                } else throw new IllegalArgumentException("unknown noise field " + key);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("incorrect noise field " + field);
+            }
+        }
+    }
+
+    private static int distribution(String name) {
+        if (name.equals("gauss")) return GAUSS;
+        if (name.equals("uniform")) return UNIFORM;
+        throw new NumberFormatException();
+    }
+
+    /**
+     * Returns the specification of the model in a canonical form: the
+     * fields that add noise, in a fixed order and with the numbers
+     * written by Java. Two specifications of the same model have the
+     * same canonical form.
+     */
+    public String getSpec() {
+        StringBuilder spec = new StringBuilder();
+        if (moveDist != NONE) {
+            spec.append(",move=").append(moveDist == GAUSS ? "gauss" : "uniform").append(':').append(moveScale);
+        }
+        if (turnDist != NONE) {
+            spec.append(",turn=").append(turnDist == GAUSS ? "gauss" : "uniform").append(':').append(turnScale);
+        }
+        if (falsePos != 0.0 || falseNeg != 0.0) {
+            spec.append(",feel=").append(falsePos).append(':').append(falseNeg);
+        }
+        return spec.length() == 0 ? "" : spec.substring(1);
+    }
+
+    /** Draws an error of the given distribution and scale. */
+    private static double sample(int dist, double scale, SplitMix rng) {
+        if (dist == GAUSS) return scale*rng.nextGaussian();
+        if (dist == UNIFORM) return scale*(2.0*rng.nextDouble() - 1.0);
+        return 0.0;
+    }
+
+    /** Returns the distance actually travelled for a commanded distance. */
+    public float move(float dist, SplitMix rng) {
+        if (moveDist == NONE) return dist;
+        return (float)(dist*(1.0 + sample(moveDist, moveScale, rng)));
+    }
+
+    /** Returns the angle actually turned for a commanded angle. */
+    public float turn(float angle, SplitMix rng) {
+        if (turnDist == NONE) return angle;
+        return (float)(angle + sample(turnDist, turnScale, rng));
+    }
+
+    /**
+     * Returns the readings of the sensors (bit i for sensor i) with
+     * false positives and false negatives.
+     */
+    public int feel(int mask, SplitMix rng) {
+        if (falsePos == 0.0 && falseNeg == 0.0) return mask;
+        for (int i = 0; i < 8; ++i) {
+            boolean on = (mask & (1 << i)) != 0;
+            if (rng.nextDouble() < (on ? falseNeg : falsePos)) mask ^= 1 << i;
+        }
+        return mask;
+    }
+}
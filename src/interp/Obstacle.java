@@ -1,13 +0,0 @@
-package interp;
-
-public class Obstacle {
-			
-		public float X;
-
-	  public float Y;
-		  
-	  public float sizeX;
-		  
-	  public float sizeY;
-		  
-}
@@ -0,0 +1,195 @@
+package interp;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the simulation environment used as a spatial index
+ * of the obstacles. Each cell (bucket) stores the identifiers of the
+ * obstacles whose bounding box overlaps the cell. An obstacle spanning
+ * several cells is stored in all of them.
+ * Queries return the obstacles stored in the cells overlapped by a
+ * rectangle, each one reported only once.
+ * Each cell also keeps a copy of the geometry of its obstacles (centers
+ * and half sizes) in parallel float arrays, so that a collision kernel
+ * can test them in batches.
+ */
+
+public class ObstacleGrid {
+
+    /** Number of cells per side of the grid. */
+    private int cells;
+
+    /** Size of the side of a cell. */
+    private float cellSize;
+
+    /** Identifiers stored in each cell (cells are stored by rows). */
+    private int[][] buckets;
+
+    /** Number of identifiers stored in each cell. */
+    private int[] counts;
+
+    /** Centers and half sizes of the obstacles stored in each cell. */
+    private float[][] bucketX, bucketY, bucketHX, bucketHY;
+
+    /** Stamp of the last query that reported each identifier. */
+    private int[] marks = new int[16];
+
+    /** Stamp of the current query. */
+    private int stamp = 0;
+
+    /** Identifiers reported by the last query. */
+    private int[] found = new int[16];
+
+    /**
+     * Constructor of the grid.
+     * @param envSize Size of the side of the (square) environment.
+     * @param size Size of the side of a cell.
+     */
+    public ObstacleGrid(float envSize, float size) {
+        cellSize = size;
+        cells = Math.max(1, (int)Math.ceil(envSize/size));
+        buckets = new int[cells*cells][];
+        counts = new int[cells*cells];
+        bucketX = new float[cells*cells][];
+        bucketY = new float[cells*cells][];
+        bucketHX = new float[cells*cells][];
+        bucketHY = new float[cells*cells][];
+    }
+
+    /** Returns the number of cells per side of the grid. */
+    public int getCells() { return cells; }
+
+    /** Returns the size of the side of a cell. */
+    public float getCellSize() { return cellSize; }
+
+    /** Returns the cell index containing the coordinate c (clamped). */
+    public int cellOf(float c) {
+        int i = (int)Math.floor(c/cellSize);
+        if (i < 0) return 0;
+        if (i >= cells) return cells - 1;
+        return i;
+    }
+
+    /** Returns the number of identifiers stored in the cell (i,j). */
+    public int getCount(int i, int j) { return counts[j*cells + i]; }
+
+    /**
+     * Returns the identifiers stored in the cell (i,j). Only the first
+     * getCount(i,j) positions are valid.
+     */
+    public int[] getBucket(int i, int j) { return buckets[j*cells + i]; }
+
+    /**
+     * Inserts the box centered at (x,y) with half sizes (hx,hy) in all
+     * the cells overlapped by it.
+     */
+    public void insert(int id, float x, float y, float hx, float hy) {
+        int i0 = cellOf(x - hx), i1 = cellOf(x + hx);
+        int j0 = cellOf(y - hy), j1 = cellOf(y + hy);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int c = j*cells + i;
+                if (buckets[c] == null) {
+                    buckets[c] = new int[4];
+                    bucketX[c] = new float[4]; bucketY[c] = new float[4];
+                    bucketHX[c] = new float[4]; bucketHY[c] = new float[4];
+                } else if (counts[c] == buckets[c].length) {
+                    int size = 2*counts[c];
+                    buckets[c] = Arrays.copyOf(buckets[c], size);
+                    bucketX[c] = Arrays.copyOf(bucketX[c], size);
+                    bucketY[c] = Arrays.copyOf(bucketY[c], size);
+                    bucketHX[c] = Arrays.copyOf(bucketHX[c], size);
+                    bucketHY[c] = Arrays.copyOf(bucketHY[c], size);
+                }
+                int k = counts[c]++;
+                buckets[c][k] = id;
+                bucketX[c][k] = x; bucketY[c][k] = y;
+                bucketHX[c][k] = hx; bucketHY[c][k] = hy;
+            }
+        }
+        if (id >= marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(2*marks.length, id + 1));
+        }
+    }
+
+    /**
+     * Removes the box inserted with the given identifier, center and half
+     * sizes from all the cells overlapped by it. The last entry of each
+     * cell takes the place of the removed one.
+     */
+    public void remove(int id, float x, float y, float hx, float hy) {
+        int i0 = cellOf(x - hx), i1 = cellOf(x + hx);
+        int j0 = cellOf(y - hy), j1 = cellOf(y + hy);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int c = j*cells + i;
+                int[] b = buckets[c];
+                for (int k = 0; k < counts[c]; ++k) {
+                    if (b[k] != id) continue;
+                    int last = --counts[c];
+                    b[k] = b[last];
+                    bucketX[c][k] = bucketX[c][last]; bucketY[c][k] = bucketY[c][last];
+                    bucketHX[c][k] = bucketHX[c][last]; bucketHY[c][k] = bucketHY[c][last];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the identifiers stored in the cells overlapped by the
+     * rectangle [minX,maxX]x[minY,maxY]. Each identifier is reported
+     * once. The identifiers can be read with getFound().
+     * @return The number of identifiers found.
+     */
+    public int query(float minX, float minY, float maxX, float maxY) {
+        int i0 = cellOf(minX), i1 = cellOf(maxX);
+        int j0 = cellOf(minY), j1 = cellOf(maxY);
+        newStamp();
+        int n = 0;
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int c = j*cells + i;
+                int[] b = buckets[c];
+                for (int k = 0; k < counts[c]; ++k) {
+                    int id = b[k];
+                    if (marks[id] == stamp) continue;
+                    marks[id] = stamp;
+                    if (n == found.length) found = Arrays.copyOf(found, 2*n);
+                    found[n++] = id;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Returns the identifiers reported by the last query. */
+    public int[] getFound() { return found; }
+
+    /**
+     * Checks whether the circle of radius r centered at (x,y) overlaps
+     * any box stored in the cells overlapped by the circle. The boxes of
+     * each cell are tested in a batch by the kernel.
+     */
+    public boolean overlaps(CollisionKernel kernel, float x, float y, float r) {
+        int i0 = cellOf(x - r), i1 = cellOf(x + r);
+        int j0 = cellOf(y - r), j1 = cellOf(y + r);
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int c = j*cells + i;
+                if (counts[c] == 0) continue;
+                if (kernel.overlaps(bucketX[c], bucketY[c], bucketHX[c], bucketHY[c],
+                                    counts[c], x, y, r)) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Starts a new query, so that all identifiers are unmarked. */
+    private void newStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+    }
+}
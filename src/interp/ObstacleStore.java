@@ -0,0 +1,217 @@
+package interp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Storage of the obstacles of the environment as a structure of arrays.
+ * Each obstacle is a rectangle defined by its center (X,Y) and its sizes
+ * (sizeX,sizeY), and it is identified by its position in the columns.
+ * The columns are off-heap float buffers. They are either direct buffers
+ * that grow as obstacles are added, or the columns of a world file
+ * mapped in memory. A mapped store is copied to direct buffers the first
+ * time an obstacle is added or moved. Removed obstacles keep their
+ * identifiers and are marked in a bitset.
+ * The store can be written to a checkpoint. A store that still maps an
+ * unchanged world file is written as the name of the file.
+ * <p>
+ * A world file is a little-endian binary file with a header of 16 bytes
+ * (the magic "RWLD", the version, the number of obstacles n and a
+ * reserved word) followed by the columns X, Y, sizeX and sizeY, each one
+ * with n floats.
+ */
+
+public class ObstacleStore {
+
+    /** Magic number of the world files ("RWLD"). */
+    public static final int MAGIC = 0x444c5752;
+
+    /** Version of the world files. */
+    public static final int VERSION = 1;
+
+    /** Size of the header of the world files. */
+    public static final int HEADER = 16;
+
+    /** Columns with the centers and sizes of the obstacles. */
+    private FloatBuffer X, Y, sizeX, sizeY;
+
+    /** Number of obstacles. */
+    private int count = 0;
+
+    /** True if the columns are read-only (mapped from a file). */
+    private boolean mapped = false;
+
+    /** World file mapped by the columns (null if they are not mapped). */
+    private String mappedFile = null;
+
+    /** Identifiers of the removed obstacles. */
+    private BitSet removed = new BitSet();
+
+    /** Constructor of an empty store. */
+    public ObstacleStore() {
+        allocate(64);
+    }
+
+    /** Returns the number of obstacles. */
+    public int size() { return count; }
+
+    public float getX(int i) { return X.get(i); }
+
+    public float getY(int i) { return Y.get(i); }
+
+    public float getSizeX(int i) { return sizeX.get(i); }
+
+    public float getSizeY(int i) { return sizeY.get(i); }
+
+    /** Returns true if the obstacle has been removed. */
+    public boolean isRemoved(int i) { return removed.get(i); }
+
+    /** Defines the center of an obstacle. */
+    public void setPos(int i, float x, float y) {
+        if (mapped) allocate(count);
+        X.put(i, x);
+        Y.put(i, y);
+    }
+
+    /** Marks an obstacle as removed. Its identifier is not reused. */
+    public void remove(int i) {
+        removed.set(i);
+    }
+
+    /**
+     * Adds an obstacle.
+     * @return The identifier of the obstacle.
+     */
+    public int add(float x, float y, float sx, float sy) {
+        if (mapped || count == X.capacity()) allocate(Math.max(64, 2*count));
+        X.put(count, x);
+        Y.put(count, y);
+        sizeX.put(count, sx);
+        sizeY.put(count, sy);
+        return count++;
+    }
+
+    /**
+     * Loads the obstacles of a world file. The file is mapped in memory.
+     * If the store is empty, the mapped columns are used directly.
+     * Otherwise, the obstacles are appended to the current columns.
+     * @return The identifier of the first obstacle loaded.
+     */
+    public int load(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buf;
+        try {
+            FileChannel ch = raf.getChannel();
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            raf.close(); // The mapping remains valid
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+            throw new IOException("not a world file");
+        }
+        if (buf.getInt(4) != VERSION) throw new IOException("unsupported world file version");
+        int n = buf.getInt(8);
+        if (n < 0 || buf.limit() < HEADER + 16L*n) throw new IOException("truncated world file");
+
+        FloatBuffer[] cols = new FloatBuffer[4];
+        for (int c = 0; c < 4; ++c) {
+            buf.position(HEADER + 4*c*n);
+            buf.limit(HEADER + 4*(c+1)*n);
+            cols[c] = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            buf.clear();
+        }
+
+        int first = count;
+        if (count == 0) {
+            X = cols[0]; Y = cols[1]; sizeX = cols[2]; sizeY = cols[3];
+            count = n;
+            mapped = true;
+            mappedFile = new File(file).getAbsolutePath();
+        } else {
+            if (count + n > X.capacity()) allocate(count + n);
+            for (int i = 0; i < n; ++i) {
+                X.put(count + i, cols[0].get(i));
+                Y.put(count + i, cols[1].get(i));
+                sizeX.put(count + i, cols[2].get(i));
+                sizeY.put(count + i, cols[3].get(i));
+            }
+            count += n;
+        }
+        return first;
+    }
+
+    /**
+     * Writes the obstacles in binary form: the name of the mapped world
+     * file or the columns, followed by the removed obstacles.
+     */
+    public void write(DataOutputStream o) throws IOException {
+        o.writeInt(count);
+        o.writeBoolean(mappedFile != null);
+        if (mappedFile != null) o.writeUTF(mappedFile);
+        else {
+            for (int i = 0; i < count; ++i) {
+                o.writeFloat(X.get(i));
+                o.writeFloat(Y.get(i));
+                o.writeFloat(sizeX.get(i));
+                o.writeFloat(sizeY.get(i));
+            }
+        }
+        long[] bits = removed.toLongArray();
+        o.writeInt(bits.length);
+        for (long b : bits) o.writeLong(b);
+    }
+
+    /** Reads the obstacles written by write() into an empty store. */
+    public void read(DataInputStream in) throws IOException {
+        assert count == 0;
+        int n = in.readInt();
+        if (n < 0) throw new IOException("incorrect number of obstacles");
+        if (in.readBoolean()) {
+            String file = in.readUTF();
+            load(file);
+            if (count != n) throw new IOException("world file " + file + " has changed");
+        } else {
+            if (n > X.capacity()) allocate(n);
+            for (int i = 0; i < n; ++i) {
+                X.put(i, in.readFloat());
+                Y.put(i, in.readFloat());
+                sizeX.put(i, in.readFloat());
+                sizeY.put(i, in.readFloat());
+            }
+            count = n;
+        }
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; ++i) bits[i] = in.readLong();
+        removed = BitSet.valueOf(bits);
+    }
+
+    /**
+     * Replaces the columns by new direct buffers with the given capacity,
+     * copying the current obstacles.
+     */
+    private void allocate(int capacity) {
+        FloatBuffer[] cols = new FloatBuffer[4];
+        for (int c = 0; c < 4; ++c) {
+            cols[c] = ByteBuffer.allocateDirect(4*capacity)
+                                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        for (int i = 0; i < count; ++i) {
+            cols[0].put(i, X.get(i));
+            cols[1].put(i, Y.get(i));
+            cols[2].put(i, sizeX.get(i));
+            cols[3].put(i, sizeY.get(i));
+        }
+        X = cols[0]; Y = cols[1]; sizeX = cols[2]; sizeY = cols[3];
+        mapped = false;
+        mappedFile = null;
+    }
+}
@@ -0,0 +1,311 @@
+package interp;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy of the obstacles, built incrementally as
+ * the obstacles are inserted. It is a binary tree of axis-aligned boxes
+ * where every leaf holds the bounding box of an obstacle and every
+ * internal node the union of the boxes of its children.
+ * New leaves are inserted next to the sibling that minimizes the growth
+ * of the perimeters of the boxes, and the tree is kept balanced with
+ * rotations (as in AVL trees), so that its height is logarithmic.
+ * Items can be removed or moved (removed and inserted again) without
+ * rebuilding the tree. The nodes are stored in parallel arrays, and the
+ * nodes released by removals are kept in a free list.
+ */
+
+public class ObstacleTree {
+
+    /** Null node index. */
+    private static final int NULL = -1;
+
+    /** Boxes of the nodes. */
+    private float[] minX, minY, maxX, maxY;
+
+    /** Structure of the tree. Leaves have no children. */
+    private int[] parent, left, right;
+
+    /** Height of each node (0 for leaves). */
+    private int[] height;
+
+    /** Identifier of the obstacle stored in each leaf. */
+    private int[] item;
+
+    /** Root of the tree. */
+    private int root = NULL;
+
+    /** Number of allocated nodes. */
+    private int nodeCount = 0;
+
+    /** First node of the free list (linked through parent). */
+    private int freeList = NULL;
+
+    /** Leaf of each item (NULL if not in the tree). */
+    private int[] leaves = new int[16];
+
+    /** Stack of nodes used by the queries. */
+    private int[] stack = new int[64];
+
+    /** Squared distance of the nearest item found by the last query. */
+    private double nearestDist2;
+
+    /** Constructor of an empty tree. */
+    public ObstacleTree() {
+        allocate(16);
+        Arrays.fill(leaves, NULL);
+    }
+
+    /** Returns true if the tree has no items. */
+    public boolean isEmpty() { return root == NULL; }
+
+    /**
+     * Inserts an item with the bounding box [x0,x1]x[y0,y1].
+     */
+    public void insert(int id, float x0, float y0, float x1, float y1) {
+        int leaf = newNode();
+        minX[leaf] = x0; minY[leaf] = y0;
+        maxX[leaf] = x1; maxY[leaf] = y1;
+        item[leaf] = id;
+        if (id >= leaves.length) {
+            int size = leaves.length;
+            leaves = Arrays.copyOf(leaves, Math.max(2*size, id + 1));
+            Arrays.fill(leaves, size, leaves.length, NULL);
+        }
+        leaves[id] = leaf;
+        insertLeaf(leaf);
+    }
+
+    /** Removes the item with the given identifier, if it is in the tree. */
+    public void remove(int id) {
+        if (id >= leaves.length || leaves[id] == NULL) return;
+        int leaf = leaves[id];
+        leaves[id] = NULL;
+        removeLeaf(leaf);
+        freeNode(leaf);
+    }
+
+    /** Moves an item to the bounding box [x0,x1]x[y0,y1]. */
+    public void move(int id, float x0, float y0, float x1, float y1) {
+        remove(id);
+        insert(id, x0, y0, x1, y1);
+    }
+
+    /**
+     * Finds the item whose box is nearest to the point (x,y). The
+     * squared distance can be read with getNearestDist2().
+     * @return The identifier of the item, or -1 if the tree is empty.
+     */
+    public int nearest(float x, float y) {
+        nearestDist2 = Double.POSITIVE_INFINITY;
+        if (root == NULL) return -1;
+        int found = -1;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int n = stack[--top];
+            if (dist2(n, x, y) >= nearestDist2) continue;
+            if (left[n] == NULL) {
+                nearestDist2 = dist2(n, x, y);
+                found = item[n];
+                continue;
+            }
+            // The nearest child is visited first
+            int a = left[n], b = right[n];
+            if (dist2(a, x, y) < dist2(b, x, y)) { int c = a; a = b; b = c; }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, 2*stack.length);
+            stack[top++] = a;
+            stack[top++] = b;
+        }
+        return found;
+    }
+
+    /** Returns the squared distance of the item found by nearest(). */
+    public double getNearestDist2() { return nearestDist2; }
+
+    /** Squared distance from (x,y) to the box of the node n. */
+    private double dist2(int n, float x, float y) {
+        double dx = Math.max(0.0, Math.max((double)minX[n] - x, (double)x - maxX[n]));
+        double dy = Math.max(0.0, Math.max((double)minY[n] - y, (double)y - maxY[n]));
+        return dx*dx + dy*dy;
+    }
+
+    /** Perimeter of the box of the node n. */
+    private float perimeter(int n) {
+        return 2.0f*((maxX[n] - minX[n]) + (maxY[n] - minY[n]));
+    }
+
+    /** Perimeter of the union of the boxes of the nodes a and b. */
+    private float perimeter(int a, int b) {
+        float w = Math.max(maxX[a], maxX[b]) - Math.min(minX[a], minX[b]);
+        float h = Math.max(maxY[a], maxY[b]) - Math.min(minY[a], minY[b]);
+        return 2.0f*(w + h);
+    }
+
+    /** Recalculates the box and height of an internal node. */
+    private void refit(int n) {
+        int a = left[n], b = right[n];
+        minX[n] = Math.min(minX[a], minX[b]);
+        minY[n] = Math.min(minY[a], minY[b]);
+        maxX[n] = Math.max(maxX[a], maxX[b]);
+        maxY[n] = Math.max(maxY[a], maxY[b]);
+        height[n] = 1 + Math.max(height[a], height[b]);
+    }
+
+    /** Inserts a leaf in the tree. */
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+
+        // Find the best sibling for the leaf
+        int index = root;
+        while (left[index] != NULL) {
+            int l = left[index], r = right[index];
+            float area = perimeter(index);
+            float combined = perimeter(index, leaf);
+            // Cost of creating a new parent for this node and the leaf
+            float cost = 2.0f*combined;
+            // Minimum cost of pushing the leaf further down the tree
+            float inheritance = 2.0f*(combined - area);
+            float costL = perimeter(l, leaf) + inheritance;
+            if (left[l] != NULL) costL -= perimeter(l);
+            float costR = perimeter(r, leaf) + inheritance;
+            if (left[r] != NULL) costR -= perimeter(r);
+            if (cost < costL && cost < costR) break;
+            index = costL < costR ? l : r;
+        }
+        int sibling = index;
+
+        // Create a new parent for the sibling and the leaf
+        int oldParent = parent[sibling];
+        int newParent = newNode();
+        parent[newParent] = oldParent;
+        left[newParent] = sibling;
+        right[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        refit(newParent);
+        if (oldParent == NULL) root = newParent;
+        else if (left[oldParent] == sibling) left[oldParent] = newParent;
+        else right[oldParent] = newParent;
+
+        // Walk back up the tree fixing heights and boxes
+        index = parent[leaf];
+        while (index != NULL) {
+            index = balance(index);
+            refit(index);
+            index = parent[index];
+        }
+    }
+
+    /** Removes a leaf from the tree. Its sibling replaces its parent. */
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+        int p = parent[leaf];
+        int gp = parent[p];
+        int sibling = left[p] == leaf ? right[p] : left[p];
+        parent[sibling] = gp;
+        freeNode(p);
+        if (gp == NULL) {
+            root = sibling;
+            return;
+        }
+        if (left[gp] == p) left[gp] = sibling;
+        else right[gp] = sibling;
+
+        // Walk back up the tree fixing heights and boxes
+        int index = gp;
+        while (index != NULL) {
+            index = balance(index);
+            refit(index);
+            index = parent[index];
+        }
+    }
+
+    /**
+     * Performs a left or right rotation if the node a is unbalanced.
+     * @return The new root of the subtree.
+     */
+    private int balance(int a) {
+        if (left[a] == NULL || height[a] < 2) return a;
+        int b = left[a], c = right[a];
+        int diff = height[c] - height[b];
+        if (diff > 1) return rotate(a, c, b);
+        if (diff < -1) return rotate(a, b, c);
+        return a;
+    }
+
+    /**
+     * Promotes the child up (the tallest child of a) in place of a.
+     * The other child of a stays below a, and the shortest child of up
+     * replaces it as a child of a.
+     * @return The new root of the subtree (up).
+     */
+    private int rotate(int a, int up, int other) {
+        int f = left[up], g = right[up];
+
+        // Swap a and up
+        left[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+        if (parent[up] == NULL) root = up;
+        else if (left[parent[up]] == a) left[parent[up]] = up;
+        else right[parent[up]] = up;
+
+        // The tallest child of up stays with it
+        int keep = f, give = g;
+        if (height[f] < height[g]) { keep = g; give = f; }
+        right[up] = keep;
+        if (left[a] == up) left[a] = give;
+        else right[a] = give;
+        parent[give] = a;
+        refit(a);
+        refit(up);
+        return up;
+    }
+
+    /** Allocates a new node, reusing the free list if possible. */
+    private int newNode() {
+        int n;
+        if (freeList != NULL) {
+            n = freeList;
+            freeList = parent[n];
+        } else {
+            if (nodeCount == parent.length) allocate(2*nodeCount);
+            n = nodeCount++;
+        }
+        parent[n] = left[n] = right[n] = NULL;
+        height[n] = 0;
+        item[n] = -1;
+        return n;
+    }
+
+    /** Returns a node to the free list. */
+    private void freeNode(int n) {
+        parent[n] = freeList;
+        freeList = n;
+    }
+
+    /** Resizes the arrays of nodes to the given capacity. */
+    private void allocate(int capacity) {
+        if (parent == null) {
+            minX = new float[capacity]; minY = new float[capacity];
+            maxX = new float[capacity]; maxY = new float[capacity];
+            parent = new int[capacity]; left = new int[capacity];
+            right = new int[capacity]; height = new int[capacity];
+            item = new int[capacity];
+            return;
+        }
+        minX = Arrays.copyOf(minX, capacity); minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity); maxY = Arrays.copyOf(maxY, capacity);
+        parent = Arrays.copyOf(parent, capacity); left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity); height = Arrays.copyOf(height, capacity);
+        item = Arrays.copyOf(item, capacity);
+    }
+}
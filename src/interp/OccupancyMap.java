@@ -0,0 +1,221 @@
+package interp;
+
+/**
+ * Rasterized occupancy map of the positions of the robot center.
+ * The environment is divided in square cells and each cell is
+ * classified as FREE (the robot does not collide in any point of the
+ * cell), BLOCKED (the robot collides or is out of bounds in all the
+ * points of the cell) or MIXED (the cell straddles a boundary and an
+ * exact test is required). The obstacles are inflated by the radius of
+ * the robot and the bounds of the environment by the radius plus the
+ * collision margin. The classification is stored in two packed bitsets.
+ * When an obstacle is removed or moved, the cells around it are reset to
+ * the classification of the bounds and the nearby obstacles are
+ * rasterized again (adding an obstacle twice does not change the map).
+ */
+
+public class OccupancyMap {
+
+    /** Classification of the cells. */
+    public static final int FREE = 0;
+    public static final int BLOCKED = 1;
+    public static final int MIXED = 2;
+
+    /** Tolerance for the classification (absorbs rounding errors). */
+    private static final float EPS = 0.0001f;
+
+    /** Number of cells per side of the map. */
+    private int cells;
+
+    /** Size of the side of a cell. */
+    private float cellSize;
+
+    /** Radius of the robot. */
+    private float radius;
+
+    /** Valid interval of the coordinates of the robot center. */
+    private float lo, hi;
+
+    /** Cells reset by the last call to clearObstacle(). */
+    private int clearI0, clearJ0, clearI1, clearJ1;
+
+    /** Bit i set if cell i is blocked. */
+    private long[] blocked;
+
+    /** Bit i set if cell i is mixed. */
+    private long[] mixed;
+
+    /**
+     * Constructor of the map. Only the bounds of the environment are
+     * rasterized.
+     * @param envSize Size of the side of the (square) environment.
+     * @param r Radius of the robot.
+     * @param margin Collision margin with the bounds of the environment.
+     * @param res Number of cells per unit of length.
+     */
+    public OccupancyMap(float envSize, float r, float margin, int res) {
+        cells = Math.max(1, (int)Math.ceil(envSize*res));
+        cellSize = envSize/cells;
+        radius = r;
+        blocked = new long[(cells*cells + 63)/64];
+        mixed = new long[blocked.length];
+
+        // Valid positions of the robot center
+        lo = r + margin;
+        hi = envSize - r - margin;
+        resetCells(0, 0, cells - 1, cells - 1);
+    }
+
+    /**
+     * Sets the cells [i0,i1]x[j0,j1] to the classification given by the
+     * bounds of the environment only.
+     */
+    private void resetCells(int i0, int j0, int i1, int j1) {
+        for (int j = j0; j <= j1; ++j) {
+            int cy = classifyRange(j*cellSize, (j+1)*cellSize, lo, hi);
+            for (int i = i0; i <= i1; ++i) {
+                int cx = classifyRange(i*cellSize, (i+1)*cellSize, lo, hi);
+                int c = j*cells + i;
+                clear(blocked, c);
+                clear(mixed, c);
+                if (cx == BLOCKED || cy == BLOCKED) set(blocked, c);
+                else if (cx == MIXED || cy == MIXED) set(mixed, c);
+            }
+        }
+    }
+
+    /**
+     * Classifies the interval [a,b] of one coordinate with respect to
+     * the valid interval [lo,hi].
+     */
+    private static int classifyRange(float a, float b, float lo, float hi) {
+        if (b < lo - EPS || a > hi + EPS) return BLOCKED;
+        if (a > lo + EPS && b < hi - EPS) return FREE;
+        return MIXED;
+    }
+
+    /** Returns the number of cells per side of the map. */
+    public int getCells() { return cells; }
+
+    /** Returns the size of the side of a cell. */
+    public float getCellSize() { return cellSize; }
+
+    /** Returns the classification of the cell (i,j). */
+    public int getCell(int i, int j) {
+        if (i < 0 || j < 0 || i >= cells || j >= cells) return BLOCKED;
+        int c = j*cells + i;
+        if (get(blocked, c)) return BLOCKED;
+        if (get(mixed, c)) return MIXED;
+        return FREE;
+    }
+
+    /** Returns the classification of the cell containing (x,y). */
+    public int get(float x, float y) {
+        if (x < 0.0f || y < 0.0f) return BLOCKED;
+        return getCell((int)(x/cellSize), (int)(y/cellSize));
+    }
+
+    /**
+     * Rasterizes an obstacle. Only the cells around the obstacle are
+     * updated.
+     */
+    public void addObstacle(float x, float y, float sx, float sy) {
+        rasterize(x, y, sx, sy, 0, 0, cells - 1, cells - 1);
+    }
+
+    /**
+     * Rasterizes an obstacle again, only in the cells reset by the last
+     * call to clearObstacle().
+     */
+    public void restoreObstacle(float x, float y, float sx, float sy) {
+        rasterize(x, y, sx, sy, clearI0, clearJ0, clearI1, clearJ1);
+    }
+
+    /**
+     * Rasterizes an obstacle in the cells around it that are inside the
+     * range [ci0,ci1]x[cj0,cj1].
+     */
+    private void rasterize(float x, float y, float sx, float sy,
+                           int ci0, int cj0, int ci1, int cj1) {
+        float hx = sx/2.0f, hy = sy/2.0f;
+        float m = radius + EPS;
+        int i0 = Math.max(ci0, (int)Math.floor((x - hx - m)/cellSize));
+        int i1 = Math.min(ci1, (int)Math.floor((x + hx + m)/cellSize));
+        int j0 = Math.max(cj0, (int)Math.floor((y - hy - m)/cellSize));
+        int j1 = Math.min(cj1, (int)Math.floor((y + hy + m)/cellSize));
+        for (int j = j0; j <= j1; ++j) {
+            for (int i = i0; i <= i1; ++i) {
+                int c = j*cells + i;
+                if (get(blocked, c)) continue;
+                int k = classifyCell(x, y, hx, hy, i, j);
+                if (k == BLOCKED) {
+                    set(blocked, c);
+                    clear(mixed, c);
+                } else if (k == MIXED) set(mixed, c);
+            }
+        }
+    }
+
+    /**
+     * Resets the cells around an obstacle that is removed. The obstacles
+     * closer than getClearMargin() to the obstacle must be rasterized
+     * again afterwards with restoreObstacle().
+     */
+    public void clearObstacle(float x, float y, float sx, float sy) {
+        float hx = sx/2.0f, hy = sy/2.0f;
+        float m = radius + EPS;
+        int i0 = Math.max(0, (int)Math.floor((x - hx - m)/cellSize));
+        int i1 = Math.min(cells - 1, (int)Math.floor((x + hx + m)/cellSize));
+        int j0 = Math.max(0, (int)Math.floor((y - hy - m)/cellSize));
+        int j1 = Math.min(cells - 1, (int)Math.floor((y + hy + m)/cellSize));
+        resetCells(i0, j0, i1, j1);
+        clearI0 = i0; clearJ0 = j0; clearI1 = i1; clearJ1 = j1;
+    }
+
+    /**
+     * Distance from a removed obstacle within which the other obstacles
+     * may affect the cells reset by clearObstacle().
+     */
+    public float getClearMargin() {
+        return 2.0f*(radius + EPS) + cellSize;
+    }
+
+    /**
+     * Classifies the cell (i,j) with respect to the obstacle centered at
+     * (x,y) with half sizes (hx,hy), inflated by the radius of the robot.
+     * Since the inflated obstacle is convex, the cell is inside it if its
+     * four corners are inside.
+     */
+    private int classifyCell(float x, float y, float hx, float hy, int i, int j) {
+        float x0 = i*cellSize, x1 = x0 + cellSize;
+        float y0 = j*cellSize, y1 = y0 + cellSize;
+        // Distance between the cell and the obstacle
+        double dx = Math.max(0.0, Math.max((double)x - hx - x1, (double)x0 - x - hx));
+        double dy = Math.max(0.0, Math.max((double)y - hy - y1, (double)y0 - y - hy));
+        double r = radius + EPS;
+        if (dx*dx + dy*dy > r*r) return FREE;
+        if (inside(x, y, hx, hy, x0, y0) && inside(x, y, hx, hy, x1, y0) &&
+            inside(x, y, hx, hy, x0, y1) && inside(x, y, hx, hy, x1, y1)) return BLOCKED;
+        return MIXED;
+    }
+
+    /** Checks whether (px,py) is inside the inflated obstacle. */
+    private boolean inside(float x, float y, float hx, float hy, float px, float py) {
+        double dx = Math.max(0.0, Math.abs((double)px - x) - hx);
+        double dy = Math.max(0.0, Math.abs((double)py - y) - hy);
+        double r = radius - EPS;
+        return dx*dx + dy*dy < r*r;
+    }
+
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static void clear(long[] bits, int i) {
+        bits[i >>> 6] &= ~(1L << i);
+    }
+}
@@ -0,0 +1,325 @@
+package interp;
+
+import parser.*;
+
+import org.antlr.runtime.CommonToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Optimizer of the AST of a linked program. It rewrites each function
+ * once, when the program is loaded:
+ * <ul>
+ * <li> The subexpressions with literal operands are folded into a
+ *      literal. The operations that would raise a runtime error (a
+ *      division by zero or incompatible types) are not folded, so that
+ *      the error is still raised by the interpreter at its line.
+ * <li> The variables assigned only once in a function (that are not
+ *      parameters, read or passed by reference) are replaced by the
+ *      value of the assignment when it is a literal. Only the uses that
+ *      are always executed after the assignment are replaced, so that
+ *      the reads of undefined variables are still reported.
+ * <li> The conditionals with a literal condition are replaced by the
+ *      branch taken, and the loops with a false condition are removed.
+ *      A removed instruction that is the last one of its block is kept,
+ *      since the line of the last instruction executed is observable
+ *      (the return of a traced function).
+ * <li> The instructions after a return are removed.
+ * </ul>
+ * All the engines execute the optimized AST.
+ */
+
+public class Optimizer {
+
+    /** Variables of the function that can be replaced by their value. */
+    private HashSet<String> candidates = new HashSet<String>();
+
+    /** Optimizes all the functions of a linked program. */
+    public static void optimize(AslTree T) {
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) new Optimizer().optimizeFunction(T.getChild(i));
+    }
+
+    private void optimizeFunction(AslTree f) {
+        HashMap<String,Integer> assigned = new HashMap<String,Integer>();
+        HashSet<String> excluded = new HashSet<String>();
+        AslTree p = f.getChild(1);
+        for (int i = 0; i < p.getChildCount(); ++i) excluded.add(p.getChild(i).getText());
+        collectAssignments(f.getChild(2), assigned, excluded);
+        for (String name : assigned.keySet()) {
+            if (assigned.get(name) == 1 && !excluded.contains(name)) candidates.add(name);
+        }
+        optimizeBlock(f.getChild(2), new HashMap<String,AslTree>());
+    }
+
+    /**
+     * Counts the assignments of each variable, and collects the
+     * variables that are modified in another way (read or passed by
+     * reference).
+     */
+    private static void collectAssignments(AslTree t, HashMap<String,Integer> assigned, HashSet<String> excluded) {
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN:
+                assigned.merge(t.getChild(0).getText(), 1, Integer::sum);
+                break;
+            case RobotLexer.READ:
+                excluded.add(t.getChild(0).getText());
+                break;
+            case RobotLexer.FUNCALL:
+                AslTree f = t.getFunction();
+                if (f == null) break;
+                AslTree args = t.getChild(1);
+                for (int i = 0; i < args.getChildCount(); ++i) {
+                    AslTree a = args.getChild(i);
+                    if (f.getChild(1).getChild(i).getType() == RobotLexer.PREF &&
+                        a.getType() == RobotLexer.ID) excluded.add(a.getText());
+                }
+                break;
+            default: break;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) collectAssignments(t.getChild(i), assigned, excluded);
+    }
+
+    /**
+     * Optimizes a block of instructions.
+     * @param known The value of the variables assigned before the block.
+     * The variables assigned in the block are only known inside it.
+     */
+    private void optimizeBlock(AslTree block, HashMap<String,AslTree> known) {
+        known = new HashMap<String,AslTree>(known);
+        ArrayList<AslTree> body = new ArrayList<AslTree>();
+        boolean changed = false;
+        int n = block.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            AslTree s = block.getChild(i);
+            ArrayList<AslTree> replacement = optimizeInstruction(s, known);
+            if (replacement == null || (replacement.isEmpty() && i == n - 1)) {
+                body.add(s);
+            } else {
+                body.addAll(replacement);
+                changed = true;
+            }
+            if (!body.isEmpty() && body.get(body.size() - 1).getType() == RobotLexer.RETURN && i < n - 1) {
+                changed = true; // The rest of the block is never executed
+                break;
+            }
+        }
+        if (!changed) return;
+        while (block.getChildCount() > 0) block.deleteChild(block.getChildCount() - 1);
+        for (AslTree s : body) block.addChild(s);
+    }
+
+    /**
+     * Optimizes an instruction.
+     * @return The instructions that replace it, or null if it is kept.
+     */
+    private ArrayList<AslTree> optimizeInstruction(AslTree t, HashMap<String,AslTree> known) {
+        switch (t.getType()) {
+            case RobotLexer.ASSIGN: {
+                AslTree e = setChild(t, 1, expression(t.getChild(1), known));
+                String name = t.getChild(0).getText();
+                if (isLiteral(e) && candidates.contains(name)) known.put(name, e);
+                return null;
+            }
+
+            case RobotLexer.IF: {
+                AslTree c = setChild(t, 0, expression(t.getChild(0), known));
+                optimizeBlock(t.getChild(1), known);
+                if (t.getChildCount() == 3) optimizeBlock(t.getChild(2), known);
+                if (c.getType() != RobotLexer.BOOLEAN) return null;
+                // The branch taken replaces the conditional
+                ArrayList<AslTree> taken = new ArrayList<AslTree>();
+                int k = c.getBooleanValue() ? 1 : 2;
+                if (k < t.getChildCount()) {
+                    AslTree b = t.getChild(k);
+                    for (int i = 0; i < b.getChildCount(); ++i) taken.add(b.getChild(i));
+                }
+                return taken;
+            }
+
+            case RobotLexer.WHILE: {
+                AslTree c = setChild(t, 0, expression(t.getChild(0), known));
+                if (c.getType() == RobotLexer.BOOLEAN && !c.getBooleanValue()) {
+                    return new ArrayList<AslTree>();
+                }
+                optimizeBlock(t.getChild(1), known);
+                return null;
+            }
+
+            case RobotLexer.RETURN:
+                if (t.getChildCount() != 0) setChild(t, 0, expression(t.getChild(0), known));
+                return null;
+
+            case RobotLexer.WRITE: {
+                // A string literal is written with its escape sequences,
+                // so a string variable is not replaced by its value
+                AslTree v = t.getChild(0);
+                if (v.getType() == RobotLexer.STRING) return null;
+                AslTree e = expression(v, known);
+                if (e.getType() != RobotLexer.STRING) setChild(t, 0, e);
+                return null;
+            }
+
+            case RobotLexer.FUNCALL:
+                arguments(t, known);
+                return null;
+
+            default: return null;
+        }
+    }
+
+    /**
+     * Optimizes an expression.
+     * @return The optimized expression (a literal if it has been folded).
+     */
+    private AslTree expression(AslTree t, HashMap<String,AslTree> known) {
+        switch (t.getType()) {
+            case RobotLexer.ID: {
+                AslTree c = known.get(t.getText());
+                return c == null ? t : literal(c.getType(), c.getText(), t.getLine());
+            }
+            case RobotLexer.INT: case RobotLexer.FLOAT:
+            case RobotLexer.BOOLEAN: case RobotLexer.STRING:
+                return t;
+            case RobotLexer.FUNCALL:
+                arguments(t, known);
+                return t;
+            default: break;
+        }
+        int n = t.getChildCount();
+        for (int i = 0; i < n; ++i) setChild(t, i, expression(t.getChild(i), known));
+        return fold(t);
+    }
+
+    /** Optimizes the arguments passed by value of a call. */
+    private void arguments(AslTree t, HashMap<String,AslTree> known) {
+        AslTree f = t.getFunction();
+        AslTree args = t.getChild(1);
+        for (int i = 0; i < args.getChildCount(); ++i) {
+            if (f != null && f.getChild(1).getChild(i).getType() == RobotLexer.PREF) continue;
+            setChild(args, i, expression(args.getChild(i), known));
+        }
+    }
+
+    /**
+     * Folds an operator whose operands have been optimized.
+     * @return The literal with the value of the operator, or the
+     * operator if it cannot be folded.
+     */
+    private static AslTree fold(AslTree t) {
+        int type = t.getType();
+        int line = t.getLine();
+        AslTree a = t.getChild(0);
+        if (t.getChildCount() == 1) {
+            switch (type) {
+                case RobotLexer.PLUS:
+                    if (isNumeric(a)) return literal(a.getType(), a.getText(), line);
+                    break;
+                case RobotLexer.MINUS:
+                    if (a.getType() == RobotLexer.INT) return literal(new Data(-a.getIntValue()), line);
+                    if (a.getType() == RobotLexer.FLOAT) return literal(new Data(-a.getFloatValue()), line);
+                    break;
+                case RobotLexer.NOT:
+                    if (a.getType() == RobotLexer.BOOLEAN) return literal(Data.valueOf(!a.getBooleanValue()), line);
+                    break;
+                default: break;
+            }
+            return t;
+        }
+
+        AslTree b = t.getChild(1);
+        if (type == RobotLexer.AND || type == RobotLexer.OR) {
+            if (a.getType() != RobotLexer.BOOLEAN) return t;
+            // Short-circuit: the second operand is not evaluated
+            if (a.getBooleanValue() == (type == RobotLexer.OR)) return literal(a.getData(), line);
+            if (b.getType() == RobotLexer.BOOLEAN) return literal(b.getData(), line);
+            return t;
+        }
+
+        if (!isLiteral(a) || a.getType() != b.getType()) return t;
+        switch (type) {
+            case RobotLexer.EQUAL:
+            case RobotLexer.NOT_EQUAL:
+                return literal(a.getData().evaluateRelational(type, b.getData()), line);
+            case RobotLexer.LT:
+            case RobotLexer.LE:
+            case RobotLexer.GT:
+            case RobotLexer.GE:
+                if (a.getType() == RobotLexer.STRING) return t;
+                return literal(a.getData().evaluateRelational(type, b.getData()), line);
+            case RobotLexer.DIV: {
+                // Division by zero, raised at runtime
+                if (!isNumeric(a) || isZero(b)) return t;
+                Data d = new Data(a.getData());
+                d.evaluateArithmetic(type, b.getData());
+                return literal(d, line);
+            }
+            case RobotLexer.PLUS:
+            case RobotLexer.MINUS:
+            case RobotLexer.MUL: {
+                if (!isNumeric(a)) return t;
+                Data d = new Data(a.getData());
+                d.evaluateArithmetic(type, b.getData());
+                return literal(d, line);
+            }
+            case RobotLexer.MOD: {
+                if (a.getType() != RobotLexer.INT || isZero(b)) return t;
+                Data d = new Data(a.getData());
+                d.evaluateArithmetic(type, b.getData());
+                return literal(d, line);
+            }
+            default: return t;
+        }
+    }
+
+    /** Replaces a child of a node, and returns the new child. */
+    private static AslTree setChild(AslTree t, int i, AslTree c) {
+        if (t.getChild(i) != c) t.setChild(i, c);
+        return c;
+    }
+
+    private static boolean isLiteral(AslTree t) {
+        switch (t.getType()) {
+            case RobotLexer.INT: case RobotLexer.FLOAT:
+            case RobotLexer.BOOLEAN: case RobotLexer.STRING:
+                return true;
+            default: return false;
+        }
+    }
+
+    private static boolean isNumeric(AslTree t) {
+        return t.getType() == RobotLexer.INT || t.getType() == RobotLexer.FLOAT;
+    }
+
+    private static boolean isZero(AslTree t) {
+        if (t.getType() == RobotLexer.INT) return t.getIntValue() == 0;
+        return t.getType() == RobotLexer.FLOAT && t.getFloatValue() == 0.0;
+    }
+
+    /** Creates the literal of a value. */
+    private static AslTree literal(Data d, int line) {
+        switch (d.getType()) {
+            case INTEGER: return literal(RobotLexer.INT, Integer.toString(d.getIntegerValue()), line);
+            case FLOAT: return literal(RobotLexer.FLOAT, Float.toString(d.getFloatValue()), line);
+            case BOOLEAN: return literal(RobotLexer.BOOLEAN, Boolean.toString(d.getBooleanValue()), line);
+            default: return literal(RobotLexer.STRING, "\"" + d.getStringValue() + "\"", line);
+        }
+    }
+
+    /** Creates a literal node with the same pre-processing as the parsed ones. */
+    private static AslTree literal(int type, String text, int line) {
+        CommonToken token = new CommonToken(type, text);
+        token.setLine(line);
+        AslTree t = new AslTree(token);
+        switch (type) {
+            case RobotLexer.INT: t.setIntValue(); break;
+            case RobotLexer.FLOAT: t.setFloatValue(); break;
+            case RobotLexer.BOOLEAN: t.setBooleanValue(); break;
+            default: t.setStringValue(); break;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,184 @@
+package interp;
+
+import java.util.Arrays;
+
+/**
+ * A* path planner over a grid of cells of the environment. Each cell
+ * is free or blocked for the center of the robot. Moves go to the eight
+ * neighbors of a cell; diagonal moves are only allowed when the two
+ * adjacent cells are free (no corner cutting).
+ * The search is done backwards, from the goal to the start. The state of
+ * the search is kept, so that a later query with the same goal and a
+ * different start continues the same search: if the new start has
+ * already been expanded its path is read directly, otherwise the open
+ * list is re-ordered with the heuristic of the new start and the search
+ * is resumed. Since the heuristic (octile distance) is consistent, the
+ * costs of the expanded cells are optimal for any start.
+ */
+
+public class PathPlanner {
+
+    /** Cost of a diagonal move. */
+    private static final float DIAG = (float)Math.sqrt(2.0);
+
+    /** Number of cells per side of the grid. */
+    private int cells;
+
+    /** Free cells of the grid (stored by rows). */
+    private boolean[] free;
+
+    /** Goal cell. */
+    private int goal;
+
+    /** Cost from each cell to the goal (infinity if not reached). */
+    private float[] g;
+
+    /** Next cell on the path from each cell to the goal. */
+    private int[] next;
+
+    /** Cells already expanded. */
+    private boolean[] closed;
+
+    /** Open list: binary heap of cells ordered by key. */
+    private int[] heap;
+
+    private float[] heapKey;
+
+    private int heapSize = 0;
+
+    /** Start cell of the heuristic used for the keys of the heap. */
+    private int target = -1;
+
+    /**
+     * Constructor of the planner.
+     * @param n Number of cells per side of the grid.
+     * @param freeCells Free cells of the grid (the array is not copied).
+     * @param goalCell Goal cell.
+     */
+    public PathPlanner(int n, boolean[] freeCells, int goalCell) {
+        cells = n;
+        free = freeCells;
+        goal = goalCell;
+        g = new float[n*n];
+        Arrays.fill(g, Float.POSITIVE_INFINITY);
+        next = new int[n*n];
+        Arrays.fill(next, -1);
+        closed = new boolean[n*n];
+        heap = new int[64];
+        heapKey = new float[64];
+        g[goal] = 0.0f;
+        push(goal, 0.0f);
+    }
+
+    /**
+     * Finds a path from the start cell to the goal cell. The start cell
+     * is considered free.
+     * @return The cells of the path, from the start to the goal, or null
+     * if the goal cannot be reached.
+     */
+    public int[] plan(int start) {
+        if (!closed[start]) {
+            if (target != start) {
+                target = start;
+                // Re-order the open list with the new heuristic
+                for (int i = 0; i < heapSize; ++i) {
+                    heapKey[i] = g[heap[i]] + h(heap[i]);
+                }
+                for (int i = heapSize/2 - 1; i >= 0; --i) siftDown(i);
+            }
+            search(start);
+            if (!closed[start]) return null;
+        }
+        int len = 1;
+        for (int c = start; c != goal; c = next[c]) ++len;
+        int[] path = new int[len];
+        int c = start;
+        for (int i = 0; i < len; ++i) {
+            path[i] = c;
+            c = next[c];
+        }
+        return path;
+    }
+
+    /** Expands cells until the start cell is closed or the open list is empty. */
+    private void search(int start) {
+        while (heapSize > 0 && !closed[start]) {
+            float key = heapKey[0];
+            int c = pop();
+            if (closed[c] || key > g[c] + h(c)) continue; // Stale entry
+            closed[c] = true;
+            if (!free[c]) continue; // A blocked start cell is not expanded
+            int ci = c % cells, cj = c / cells;
+            for (int dj = -1; dj <= 1; ++dj) {
+                for (int di = -1; di <= 1; ++di) {
+                    if (di == 0 && dj == 0) continue;
+                    int ni = ci + di, nj = cj + dj;
+                    if (ni < 0 || nj < 0 || ni >= cells || nj >= cells) continue;
+                    int n = nj*cells + ni;
+                    if (closed[n] || !(free[n] || n == start)) continue;
+                    float cost = 1.0f;
+                    if (di != 0 && dj != 0) {
+                        if (!free[cj*cells + ni] || !free[nj*cells + ci]) continue;
+                        cost = DIAG;
+                    }
+                    float ng = g[c] + cost;
+                    if (ng < g[n]) {
+                        g[n] = ng;
+                        next[n] = c;
+                        push(n, ng + h(n));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Octile distance from a cell to the current start cell. */
+    private float h(int c) {
+        if (target < 0) return 0.0f;
+        int dx = Math.abs(c % cells - target % cells);
+        int dy = Math.abs(c / cells - target / cells);
+        return Math.max(dx, dy) + (DIAG - 1.0f)*Math.min(dx, dy);
+    }
+
+    private void push(int c, float key) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, 2*heapSize);
+            heapKey = Arrays.copyOf(heapKey, 2*heapSize);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int p = (i - 1)/2;
+            if (heapKey[p] <= key) break;
+            heap[i] = heap[p];
+            heapKey[i] = heapKey[p];
+            i = p;
+        }
+        heap[i] = c;
+        heapKey[i] = key;
+    }
+
+    private int pop() {
+        int c = heap[0];
+        --heapSize;
+        heap[0] = heap[heapSize];
+        heapKey[0] = heapKey[heapSize];
+        siftDown(0);
+        return c;
+    }
+
+    private void siftDown(int i) {
+        int c = heap[i];
+        float key = heapKey[i];
+        while (true) {
+            int l = 2*i + 1;
+            if (l >= heapSize) break;
+            if (l + 1 < heapSize && heapKey[l + 1] < heapKey[l]) ++l;
+            if (heapKey[l] >= key) break;
+            heap[i] = heap[l];
+            heapKey[i] = heapKey[l];
+            i = l;
+        }
+        heap[i] = c;
+        heapKey[i] = key;
+    }
+}
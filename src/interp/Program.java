@@ -0,0 +1,221 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Program ready to be executed: the AST after the pre-processing,
+ * linking and optimization, and the map from function names to their ASTs. Linking binds
+ * each function call to its builtin or user function, so that undeclared
+ * functions and incorrect numbers of arguments are reported before the
+ * program is run. The resolver assigns a slot of the activation record
+ * to each parameter and variable of each function, and the loop optimizer
+ * adds hidden slots for the values cached by the loops of the tree
+ * interpreter (see LoopOptimizer). It is built once and it
+ * is not modified during the execution, so the same program can be run
+ * by several interpreters concurrently (the bytecode is compiled once
+ * and shared as well). All the state of an execution
+ * belongs to the interpreter.
+ */
+
+public class Program {
+
+    /** Root of the AST (list of functions). */
+    private AslTree root;
+
+    /**
+     * Map between function names (keys) and ASTs (values).
+     * Each entry of the map stores the root of the AST
+     * correponding to the function.
+     */
+    private HashMap<String,AslTree> FuncName2Tree;
+
+    /** Hash of the AST, used to check that a checkpoint matches the program. */
+    private long fingerprint;
+
+    /** Bytecode of the functions (compiled when it is first requested). */
+    private Bytecode[] bytecode = null;
+
+    /** Functions compiled by the JIT, by name and types of the arguments. */
+    private ConcurrentHashMap<String,Jit.Compiled> jitCache = new ConcurrentHashMap<String,Jit.Compiled>();
+
+    /**
+     * Constructor of the program. It pre-processes, links and optimizes
+     * the AST (see Optimizer). If some calls cannot be linked, it raises
+     * an exception with one line per error. The errors in dead code are
+     * reported as well, since the AST is linked before it is optimized.
+     */
+    public Program(AslTree T) {
+        assert T != null;
+        MapFunctions(T);  // Creates the table to map function names into AST nodes
+        PreProcessAST(T); // Some internal pre-processing ot the AST
+        ArrayList<String> errors = new ArrayList<String>();
+        LinkCalls(T, errors); // Binds the calls to the functions
+        if (!errors.isEmpty()) {
+            throw new RuntimeException(String.join(System.lineSeparator(), errors));
+        }
+        Optimizer.optimize(T); // Folds the constants and removes the dead code
+        MarkCalls(T);
+        for (AslTree f : FuncName2Tree.values()) ResolveVariables(f);
+        LoopOptimizer.optimize(T); // Caches the loop invariants in hidden slots
+        root = T;
+        fingerprint = hash(T.toStringTree());
+    }
+
+    /** Returns the root of the AST. */
+    public AslTree getTree() { return root; }
+
+    /** Returns a 64-bit hash of the AST (FNV-1a of its textual form). */
+    public long getFingerprint() { return fingerprint; }
+
+    /**
+     * Returns the bytecode of the functions, in order of declaration.
+     * The functions are compiled the first time.
+     */
+    public synchronized Bytecode[] getBytecode() {
+        if (bytecode == null) bytecode = Compiler.compile(this);
+        return bytecode;
+    }
+
+    /** Returns the functions compiled by the JIT (see JitCompiler). */
+    ConcurrentHashMap<String,Jit.Compiled> getJitCache() { return jitCache; }
+
+    /** Returns the AST of a function, or null if it is not declared. */
+    public AslTree getFunction(String name) {
+        return FuncName2Tree.get(name);
+    }
+
+    /**
+     * Gathers information from the AST and creates the map from
+     * function names to the corresponding AST nodes.
+     */
+    private void MapFunctions(AslTree T) {
+        assert T != null && T.getType() == RobotLexer.LIST_FUNCTIONS;
+        FuncName2Tree = new HashMap<String,AslTree> ();
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            AslTree f = T.getChild(i);
+            assert f.getType() == RobotLexer.FUNC;
+            String fname = f.getChild(0).getText();
+            if (FuncName2Tree.containsKey(fname)) {
+                throw new RuntimeException("Multiple definitions of function " + fname);
+            }
+            FuncName2Tree.put(fname, f);
+        } 
+    }
+
+    /**
+     * Performs some pre-processing on the AST. Basically, it
+     * calculates the value of the literals and stores a simpler
+     * representation. See AslTree.java for details.
+     */
+    private void PreProcessAST(AslTree T) {
+        if (T == null) return;
+        switch(T.getType()) {
+            case RobotLexer.INT: T.setIntValue(); break;
+            case RobotLexer.FLOAT: T.setFloatValue(); break;
+            case RobotLexer.STRING: T.setStringValue(); break;
+            case RobotLexer.BOOLEAN: T.setBooleanValue(); break;
+            case RobotLexer.ID: T.setText(); break;
+            default: break;
+        }
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) PreProcessAST(T.getChild(i));
+    }
+
+    /**
+     * Binds each function call to the builtin or the user function
+     * called, checking that the function is declared and that the
+     * number of arguments is correct. The errors are added to the list.
+     */
+    private void LinkCalls(AslTree T, ArrayList<String> errors) {
+        if (T.getType() == RobotLexer.FUNCALL) {
+            String fname = T.getChild(0).getText();
+            int nargs = T.getChild(1).getChildCount();
+            Builtin b = Builtin.lookup(fname);
+            AslTree f = FuncName2Tree.get(fname);
+            if (b != null) {
+                if (nargs != b.getArity()) {
+                    errors.add("line " + T.getLine() + ": incorrect number of arguments calling " + fname);
+                }
+                T.setBuiltin(b);
+            } else if (f == null) {
+                errors.add("line " + T.getLine() + ": function " + fname + " not declared");
+            } else {
+                if (nargs != f.getChild(1).getChildCount()) {
+                    errors.add("line " + T.getLine() + ": incorrect number of parameters calling function " + fname);
+                }
+                T.setFunction(f);
+            }
+        }
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) LinkCalls(T.getChild(i), errors);
+    }
+
+    /**
+     * Marks the subtrees that call a user function (see
+     * AslTree.callsFunction).
+     * @return True if the tree calls a user function.
+     */
+    private boolean MarkCalls(AslTree T) {
+        boolean calls = T.getType() == RobotLexer.FUNCALL && T.getFunction() != null;
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) calls |= MarkCalls(T.getChild(i));
+        T.setCallsFunction(calls);
+        return calls;
+    }
+
+    /**
+     * Assigns a slot of the activation record to each parameter and
+     * variable of a function, in order of appearance (the parameters
+     * first). The parameters and the IDs that refer to variables are
+     * annotated with their slots, and the function with the names of
+     * the variables of its slots.
+     */
+    private void ResolveVariables(AslTree f) {
+        HashMap<String,Integer> slots = new HashMap<String,Integer>();
+        ArrayList<String> names = new ArrayList<String>();
+        AslTree p = f.getChild(1);
+        int nparam = p.getChildCount();
+        for (int i = 0; i < nparam; ++i) ResolveSlot(p.getChild(i), slots, names);
+        ResolveIds(f.getChild(2), slots, names);
+        f.setLocals(names.toArray(new String[names.size()]));
+    }
+
+    /** Annotates the IDs of variables of a subtree with their slots. */
+    private void ResolveIds(AslTree T, HashMap<String,Integer> slots, ArrayList<String> names) {
+        if (T.getType() == RobotLexer.ID) {
+            ResolveSlot(T, slots, names);
+            return;
+        }
+        // The first child of a call is the name of the function
+        int first = T.getType() == RobotLexer.FUNCALL ? 1 : 0;
+        int n = T.getChildCount();
+        for (int i = first; i < n; ++i) ResolveIds(T.getChild(i), slots, names);
+    }
+
+    /** Annotates a node with the slot of its variable, creating it if needed. */
+    private void ResolveSlot(AslTree T, HashMap<String,Integer> slots, ArrayList<String> names) {
+        String name = T.getText();
+        Integer s = slots.get(name);
+        if (s == null) {
+            s = names.size();
+            slots.put(name, s);
+            names.add(name);
+        }
+        T.setSlot(s);
+    }
+
+    /** FNV-1a hash of a string. */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,179 @@
+package interp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * State of the robots of the simulation, stored as a structure of
+ * primitive arrays indexed by the identifier of the robot (its creation
+ * order). Robot 0 always exists. For each robot it stores the pose,
+ * whether it has been positioned, whether its trail is enabled and the
+ * cached readings of its sensors.
+ * Batches of independent per-robot steps can be run in parallel on the
+ * common fork-join pool.
+ */
+
+public class RobotFleet {
+
+    /** Operation applied to each robot of a batch. */
+    public interface Step {
+        void run(int id);
+    }
+
+    /** Number of robots below which a batch is not split. */
+    private static final int BATCH = 8;
+
+    /** Poses of the robots (rotation in degrees). */
+    private float[] x, y, rot;
+
+    /** True if the robot has been positioned. */
+    private boolean[] positioned;
+
+    /** True if the trail of the robot is enabled. */
+    private boolean[] trail;
+
+    /** Readings of the sensors and the epoch when they were calculated. */
+    private int[] sensorMask, sensorEpoch;
+
+    /** Number of robots. */
+    private int count = 0;
+
+    /** Constructor of a fleet with a single robot (robot 0). */
+    public RobotFleet() {
+        allocate(4);
+        create();
+    }
+
+    /** Returns the number of robots. */
+    public int size() { return count; }
+
+    /**
+     * Creates a new robot, not positioned yet.
+     * @return The identifier of the robot.
+     */
+    public int create() {
+        if (count == x.length) allocate(2*count);
+        int id = count++;
+        x[id] = -1.0f; y[id] = -1.0f; rot[id] = 0.0f;
+        positioned[id] = false;
+        trail[id] = false;
+        sensorEpoch[id] = -1;
+        return id;
+    }
+
+    public float getX(int id) { return x[id]; }
+
+    public float getY(int id) { return y[id]; }
+
+    public float getRot(int id) { return rot[id]; }
+
+    public boolean isPositioned(int id) { return positioned[id]; }
+
+    public boolean hasTrail(int id) { return trail[id]; }
+
+    /** Defines the complete state of a robot. */
+    public void set(int id, float px, float py, float prot, boolean pos, boolean tr) {
+        x[id] = px; y[id] = py; rot[id] = prot;
+        positioned[id] = pos;
+        trail[id] = tr;
+    }
+
+    /** Defines the position of a robot. */
+    public void setPos(int id, float px, float py) {
+        x[id] = px; y[id] = py;
+    }
+
+    /**
+     * Returns the cached readings of the sensors of a robot, or -1 if
+     * they were not calculated in the given epoch.
+     */
+    public int getSensors(int id, int epoch) {
+        return sensorEpoch[id] == epoch ? sensorMask[id] : -1;
+    }
+
+    /** Stores the readings of the sensors of a robot. */
+    public void setSensors(int id, int mask, int epoch) {
+        sensorMask[id] = mask;
+        sensorEpoch[id] = epoch;
+    }
+
+    /** Writes the state of the robots (not the sensors) in binary form. */
+    public void write(DataOutputStream o) throws IOException {
+        o.writeInt(count);
+        for (int id = 0; id < count; ++id) {
+            o.writeFloat(x[id]);
+            o.writeFloat(y[id]);
+            o.writeFloat(rot[id]);
+            o.writeBoolean(positioned[id]);
+            o.writeBoolean(trail[id]);
+        }
+    }
+
+    /** Reads the robots written by write(), replacing the current ones. */
+    public void read(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 1) throw new IOException("incorrect number of robots");
+        count = 0;
+        for (int id = 0; id < n; ++id) {
+            create();
+            set(id, in.readFloat(), in.readFloat(), in.readFloat(),
+                in.readBoolean(), in.readBoolean());
+        }
+    }
+
+    /**
+     * Applies the step to all the robots. The robots are split in
+     * batches that run in parallel, so the step must only modify the
+     * state of the robot it receives.
+     */
+    public void parallel(Step step) {
+        if (count <= BATCH) {
+            for (int id = 0; id < count; ++id) step.run(id);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Batch(step, 0, count));
+        }
+    }
+
+    /** Task that applies a step to a range of robots. */
+    @SuppressWarnings("serial")
+    private static class Batch extends RecursiveAction {
+
+        private Step step;
+
+        private int from, to;
+
+        Batch(Step s, int f, int t) {
+            step = s; from = f; to = t;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int id = from; id < to; ++id) step.run(id);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(step, from, mid), new Batch(step, mid, to));
+        }
+    }
+
+    /** Resizes the arrays to the given capacity. */
+    private void allocate(int capacity) {
+        if (x == null) {
+            x = new float[capacity]; y = new float[capacity]; rot = new float[capacity];
+            positioned = new boolean[capacity]; trail = new boolean[capacity];
+            sensorMask = new int[capacity]; sensorEpoch = new int[capacity];
+            return;
+        }
+        x = Arrays.copyOf(x, capacity); y = Arrays.copyOf(y, capacity);
+        rot = Arrays.copyOf(rot, capacity);
+        positioned = Arrays.copyOf(positioned, capacity);
+        trail = Arrays.copyOf(trail, capacity);
+        sensorMask = Arrays.copyOf(sensorMask, capacity);
+        sensorEpoch = Arrays.copyOf(sensorEpoch, capacity);
+    }
+}
@@ -0,0 +1,56 @@
+package interp;
+
+/**
+ * Generator of the random numbers of the noise (SplitMix64). The state
+ * of the generator is a single long, so that a checkpoint saves it and
+ * a resumed execution draws the same numbers as the original one, and
+ * taking a checkpoint does not change the numbers drawn.
+ */
+
+public class SplitMix {
+
+    /** Increment of the state (the odd integer closest to 2^64/phi). */
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    /** Constructor of a generator with the given seed. */
+    public SplitMix(long seed) {
+        state = seed;
+    }
+
+    /** Returns the state of the generator. */
+    public long getState() { return state; }
+
+    /** Defines the state of the generator (see getState). */
+    public void setState(long s) { state = s; }
+
+    /** Returns a generator seeded from this one, to use in another execution. */
+    public SplitMix split() {
+        return new SplitMix(nextLong());
+    }
+
+    /** Returns the next pseudo-random long. */
+    public long nextLong() {
+        long z = (state += GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Returns a pseudo-random double uniformly distributed in [0,1). */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a pseudo-random double with a standard normal distribution
+     * (Box-Muller). The second value of the pair is not kept, so that the
+     * generator has no other state.
+     */
+    public double nextGaussian() {
+        double u = 1.0 - nextDouble(); // In (0,1], for the logarithm
+        double v = nextDouble();
+        return Math.sqrt(-2.0*Math.log(u))*Math.cos(2.0*Math.PI*v);
+    }
+}
@@ -27,89 +27,233 @@
 
 package interp;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * Class to represent the memory of the virtual machine of the
  * interpreter. The memory is organized as a stack of activation
- * records and each entry in the activation record contains is a pair
- * <name of variable,value>.
+ * records. The variables of each function have been assigned slots
+ * by the resolver (see Program), and an activation record is a window
+ * of consecutive slots in a single array. A slot contains the value
+ * of the variable, or null if the variable has not been defined yet.
+ * The records of the tree interpreter have hidden slots after the
+ * variables, for the values cached by the loops (see LoopOptimizer).
  */
  
 public class Stack {
 
-    /** Stack of activation records */
-    private LinkedList<HashMap<String,Data>> Stack;
+    /** Slots of all the activation records */
+    private Data[] Slots = new Data[256];
 
-    /** Reference to the current activation record */
-    private HashMap<String,Data> CurrentAR = null;
+    /** First slot of the current activation record */
+    private int Base = 0;
+
+    /** First free slot (end of the current activation record) */
+    private int Top = 0;
+
+    /** Number of activation records */
+    private int Depth = 0;
 
     /**
-     * Class to represent an item of the Stack trace.
-     * For each function call, the function name and
-     * the line number of the call are stored.
+     * Activation records: first slot, names of the variables of the
+     * slots, function name and line number of the call (used for the
+     * stack trace).
      */
-    class StackTraceItem {
-        public String fname; // Function name
-        public int line; // Line number
-        public StackTraceItem (String name, int l) {
-            fname = name; line = l;
-        }
-    }
+    private int[] Bases = new int[16];
+
+    private String[][] Locals = new String[16][];
+
+    private String[] FNames = new String[16];
+
+    private int[] Lines = new int[16];
 
-    /** Stack trace to keep track of function calls */
-    private LinkedList<StackTraceItem> StackTrace;
-    
     /** Constructor of the memory */
     public Stack() {
-        Stack = new LinkedList<HashMap<String,Data>>();
-        CurrentAR = null;
-        StackTrace = new LinkedList<StackTraceItem>();
     }
 
-    /** Creates a new activation record on the top of the stack */
-    public void pushActivationRecord(String name, int line) {
-        CurrentAR = new HashMap<String,Data>();
-        Stack.addLast (CurrentAR);
-        StackTrace.addLast (new StackTraceItem(name, line));
+    /**
+     * Creates a new activation record on the top of the stack.
+     * @param name The name of the function.
+     * @param line The line number of the call.
+     * @param locals The names of the variables of the slots of the function.
+     */
+    public void pushActivationRecord(String name, int line, String[] locals) {
+        pushActivationRecord(name, line, locals, locals.length);
+    }
+
+    /**
+     * Creates a new activation record with a given number of slots. The
+     * slots after the variables are used by the VM as registers.
+     * @param name The name of the function.
+     * @param line The line number of the call.
+     * @param locals The names of the variables of the first slots.
+     * @param size The number of slots of the record.
+     */
+    public void pushActivationRecord(String name, int line, String[] locals, int size) {
+        if (Depth == Bases.length) {
+            Bases = Arrays.copyOf(Bases, 2*Depth);
+            Locals = Arrays.copyOf(Locals, 2*Depth);
+            FNames = Arrays.copyOf(FNames, 2*Depth);
+            Lines = Arrays.copyOf(Lines, 2*Depth);
+        }
+        if (Top + size > Slots.length) {
+            Slots = Arrays.copyOf(Slots, Math.max(2*Slots.length, Top + size));
+        }
+        Bases[Depth] = Top;
+        Locals[Depth] = locals;
+        FNames[Depth] = name;
+        Lines[Depth] = line;
+        ++Depth;
+        Base = Top;
+        Top += size;
     }
 
     /** Destroys the current activation record */
     public void popActivationRecord() {
-        Stack.removeLast();
-        if (Stack.isEmpty()) CurrentAR = null;
-        else CurrentAR = Stack.getLast();
-        StackTrace.removeLast();
+        Arrays.fill(Slots, Base, Top, null); // The slots are undefined for the next record
+        --Depth;
+        Locals[Depth] = null;
+        Top = Base;
+        Base = Depth > 0 ? Bases[Depth-1] : 0;
     }
 
+    /**
+     * Returns the slots of all the activation records. The array is
+     * reallocated when a record does not fit in it.
+     */
+    Data[] getSlots() { return Slots; }
+
+    /** Returns the first slot of the current activation record */
+    int getBase() { return Base; }
+
     /** Defines the value of a variable. If the variable does not
      * exist, it is created. If it exists, the value and type of
      * the variable are re-defined.
-     * @param name The name of the variable
+     * @param slot The slot of the variable
      * @param value The value of the variable
      */
-    public void defineVariable(String name, Data value) {
-        Data d = CurrentAR.get(name);
-        if (d == null) CurrentAR.put(name, value); // New definition
+    public void defineVariable(int slot, Data value) {
+        Data d = Slots[Base + slot];
+        if (d == null) Slots[Base + slot] = value; // New definition
         else d.setData(value); // Use the previous data 
     }
 
+    /** Assigns a value to a variable. The value is copied, since it
+     * can be shared (a literal or the data of another variable). If
+     * the variable exists, its data is reused.
+     * @param slot The slot of the variable
+     * @param value The value assigned
+     */
+    public void assignVariable(int slot, Data value) {
+        Data d = Slots[Base + slot];
+        if (d == null) Slots[Base + slot] = new Data(value);
+        else d.setData(value);
+    }
+
+    /** Returns the data of a variable, or null if it is not defined. */
+    Data findVariable(int slot) { return Slots[Base + slot]; }
+
+    /**
+     * Resets consecutive slots of the current activation record (the
+     * hidden slots of a loop, see LoopOptimizer).
+     */
+    void clearSlots(int first, int n) {
+        Arrays.fill(Slots, Base + first, Base + first + n, null);
+    }
+
     /** Gets the value of the variable. The value is represented as
      * a Data object. In this way, any modification of the object
      * implicitly modifies the value of the variable.
-     * @param name The name of the variable
+     * @param slot The slot of the variable
      * @return The value of the variable
      */
-    public Data getVariable(String name) {
-        Data v = CurrentAR.get(name);
+    public Data getVariable(int slot) {
+        Data v = Slots[Base + slot];
         if (v == null) {
-            throw new RuntimeException ("Variable " + name + " not defined");
+            throw new RuntimeException ("Variable " + Locals[Depth-1][slot] + " not defined");
         }
         return v;
     }
 
+    /**
+     * Writes the activation records in binary form: the function name,
+     * the line number of the call and the value of each variable. The
+     * values are written in a table, so that a data shared by several
+     * records (a parameter passed by reference) is written once and it is
+     * shared again when the records are read. The hidden slots are not
+     * written: they are recomputed when needed.
+     */
+    public void write(DataOutputStream o) throws IOException {
+        IdentityHashMap<Data,Integer> ids = new IdentityHashMap<Data,Integer>();
+        ArrayList<Data> table = new ArrayList<Data>();
+        for (int r = 0; r < Depth; ++r) {
+            for (int i = Bases[r]; i < variablesEnd(r); ++i) {
+                Data d = Slots[i];
+                if (d == null || ids.containsKey(d)) continue;
+                ids.put(d, table.size());
+                table.add(d);
+            }
+        }
+        o.writeInt(table.size());
+        for (Data d : table) d.write(o);
+
+        o.writeInt(Depth);
+        for (int r = 0; r < Depth; ++r) {
+            o.writeUTF(FNames[r]);
+            o.writeInt(Lines[r]);
+            int end = variablesEnd(r);
+            o.writeInt(end - Bases[r]);
+            for (int i = Bases[r]; i < end; ++i) {
+                o.writeInt(Slots[i] == null ? -1 : ids.get(Slots[i]));
+            }
+        }
+    }
+
+    /** Returns the end of the slots of the variables of an activation record. */
+    private int variablesEnd(int r) {
+        int end = r + 1 < Depth ? Bases[r+1] : Top;
+        return Math.min(end, Bases[r] + Locals[r].length);
+    }
+
+    /**
+     * Reads activation records written by write() and pushes them on
+     * the top of the stack. The slots of each function are obtained
+     * from the program.
+     * @return The names of the functions of the records, from the
+     * bottom of the stack.
+     */
+    public ArrayList<String> read(DataInputStream in, Program P) throws IOException {
+        int n = in.readInt();
+        if (n < 0) throw new IOException("incorrect number of values");
+        Data[] table = new Data[n];
+        for (int i = 0; i < n; ++i) table[i] = Data.read(in);
+
+        ArrayList<String> names = new ArrayList<String>();
+        int nrecords = in.readInt();
+        for (int r = 0; r < nrecords; ++r) {
+            String name = in.readUTF();
+            int line = in.readInt();
+            AslTree f = P.getFunction(name);
+            int nslots = in.readInt();
+            if (f == null || f.getLocals().length != nslots) {
+                throw new IOException("incorrect activation record of " + name);
+            }
+            pushActivationRecord(name, line, f.getLocals(), f.getFrameSize());
+            names.add(name);
+            for (int i = 0; i < nslots; ++i) {
+                int id = in.readInt();
+                if (id < -1 || id >= n) throw new IOException("incorrect value reference");
+                if (id >= 0) Slots[Base + i] = table[id];
+            }
+        }
+        return names;
+    }
+
     /**
      * Generates a string with the contents of the stack trace.
      * Each line contains a function name and the line number where
@@ -120,14 +264,12 @@ public class Stack {
      * @return A string with the contents of the stack trace.
      */ 
     public String getStackTrace(int current_line) {
-        int size = StackTrace.size();
-        ListIterator<StackTraceItem> itr = StackTrace.listIterator(size);
+        int size = Depth;
         StringBuffer trace = new StringBuffer("---------------%n| Stack trace |%n---------------%n");
         trace.append("** Depth = ").append(size).append("%n");
-        while (itr.hasPrevious()) {
-            StackTraceItem it = itr.previous();
-            trace.append("|> ").append(it.fname).append(": line ").append(current_line).append("%n");
-            current_line = it.line;
+        for (int i = size - 1; i >= 0; --i) {
+            trace.append("|> ").append(FNames[i]).append(": line ").append(current_line).append("%n");
+            current_line = Lines[i];
         }
         return trace.toString();
     }
@@ -142,23 +284,21 @@ public class Stack {
      * @return A string with the contents of the stack trace.
      */ 
     public String getStackTrace(int current_line, int nitems) {
-        int size = StackTrace.size();
+        int size = Depth;
         if (2*nitems >= size) return getStackTrace(current_line);
-        ListIterator<StackTraceItem> itr = StackTrace.listIterator(size);
         StringBuffer trace = new StringBuffer("---------------%n| Stack trace |%n---------------%n");
         trace.append("** Depth = ").append(size).append("%n");
         int i;
-        for (i = 0; i < nitems; ++i) {
-           StackTraceItem it = itr.previous();
-           trace.append("|> ").append(it.fname).append(": line ").append(current_line).append("%n");current_line = it.line;
+        for (i = size - 1; i >= size - nitems; --i) {
+           trace.append("|> ").append(FNames[i]).append(": line ").append(current_line).append("%n");
+           current_line = Lines[i];
         }
         trace.append("|> ...%n");
-        for (; i < size-nitems; ++i) current_line = itr.previous().line;
-        for (; i < size; ++i) {
-           StackTraceItem it = itr.previous();
-           trace.append("|> ").append(it.fname).append(": line ").append(current_line).append("%n");current_line = it.line;
+        for (; i >= nitems; --i) current_line = Lines[i];
+        for (; i >= 0; --i) {
+           trace.append("|> ").append(FNames[i]).append(": line ").append(current_line).append("%n");
+           current_line = Lines[i];
         }
         return trace.toString();
     } 
 }
-    
@@ -0,0 +1,302 @@
+package interp;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runner of a parameter sweep. The same program is executed once per
+ * line of a configuration file, and the runs are executed concurrently
+ * on a pool of threads. The program is parsed and pre-processed only
+ * once and shared by all the runs; each run has its own interpreter
+ * (memory, robots, obstacles and clock) and its own output buffer.
+ * One summary line per run is written, in the order of the file.
+ * <p>
+ * Each line of the configuration file defines a run with the fields
+ * (all optional, separated by blanks):
+ * <pre>
+ *   name  world=file  pose=x,y,rot  occupancy=cells  seed=n
+ * </pre>
+ * The name defaults to "run" followed by the number of the run. The
+ * pose positions the robot before running the program. Empty lines and
+ * lines starting with # are ignored.
+ * <p>
+ * The runs can also be a set of Monte Carlo trials of a noise model.
+ * Every run has its own generator of random numbers, split from a
+ * master generator when the run is added (or created from the seed of
+ * the run), so the results do not depend on the scheduling of the
+ * threads.
+ */
+
+public class Sweep {
+
+    /** Settings and results of a run. */
+    private static class Run {
+        String name;
+        String world = null;
+        float[] pose = null;
+        int occupancy = 0;
+        SplitMix rng = null;
+        // Results
+        boolean success = false;
+        double time = 0.0;
+        float[] finalPose = null;
+        long wall = 0;
+    }
+
+    /** Program executed by all the runs. */
+    private Program program;
+
+    /** Runs of the sweep. */
+    private ArrayList<Run> runs = new ArrayList<Run>();
+
+    /** Noise model of the runs (null if none). */
+    private NoiseModel noise;
+
+    /** Master generator of random numbers. */
+    private SplitMix master;
+
+    /** World file and occupancy map of the runs that do not define them. */
+    private String defaultWorld = null;
+
+    private int defaultOccupancy = 0;
+
+    /** Engine that executes the runs. */
+    private Interp.Engine engine = Interp.Engine.tree;
+
+    /**
+     * Constructor of an empty sweep.
+     * @param P The program executed by all the runs.
+     * @param n The noise model of the runs (null if none).
+     * @param seed The seed of the master generator of random numbers.
+     */
+    public Sweep(Program P, NoiseModel n, long seed) {
+        program = P;
+        noise = n;
+        master = new SplitMix(seed);
+    }
+
+    /**
+     * Defines the world file and the occupancy map of the runs that do
+     * not define them.
+     */
+    public void setDefaults(String world, int occupancy) {
+        defaultWorld = world;
+        defaultOccupancy = occupancy;
+    }
+
+    /** Defines the engine that executes the runs. */
+    public void setEngine(Interp.Engine e) {
+        engine = e;
+    }
+
+    /** Adds k trials, named trial1 to trialk. */
+    public void addTrials(int k) {
+        for (int i = 1; i <= k; ++i) {
+            Run r = new Run();
+            r.name = "trial" + i;
+            r.rng = master.split();
+            runs.add(r);
+        }
+    }
+
+    /** Adds the runs defined in a configuration file. */
+    public void load(String config) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(config));
+        try {
+            String line;
+            int nline = 0;
+            while ((line = in.readLine()) != null) {
+                ++nline;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                runs.add(parseRun(line, nline));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Returns the number of runs. */
+    public int size() { return runs.size(); }
+
+    /** Parses a line of the configuration file. */
+    private Run parseRun(String line, int nline) throws IOException {
+        Run r = new Run();
+        r.name = "run" + (runs.size() + 1);
+        r.rng = master.split();
+        String[] fields = line.split("\\s+");
+        for (int i = 0; i < fields.length; ++i) {
+            String f = fields[i];
+            int eq = f.indexOf('=');
+            try {
+                if (eq < 0 && i == 0) r.name = f;
+                else if (f.startsWith("world=")) r.world = f.substring(eq + 1);
+                else if (f.startsWith("occupancy=")) {
+                    r.occupancy = Integer.parseInt(f.substring(eq + 1));
+                    if (r.occupancy <= 0) throw new NumberFormatException();
+                }
+                else if (f.startsWith("seed=")) {
+                    r.rng = new SplitMix(Long.parseLong(f.substring(eq + 1)));
+                }
+                else if (f.startsWith("pose=")) {
+                    String[] v = f.substring(eq + 1).split(",");
+                    if (v.length != 3) throw new NumberFormatException();
+                    r.pose = new float[3];
+                    for (int k = 0; k < 3; ++k) r.pose[k] = Float.parseFloat(v[k]);
+                }
+                else throw new IOException("line " + nline + ": unknown field " + f);
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + nline + ": incorrect value in " + f);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Executes all the runs and writes their summaries to the standard
+     * output.
+     * @param threads Number of threads of the pool.
+     * @param txttrace True to write the trace of the robot actions in the
+     * output of each run.
+     * @param simd True to use the vector collision kernel.
+     * @param outdir Directory where the output of each run is written
+     * (as name.out), or null to discard it.
+     * @return The number of runs that failed.
+     */
+    public int run(int threads, final boolean txttrace, final boolean simd,
+                   final String outdir) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        for (final Run r : runs) {
+            results.add(pool.submit(() -> execute(r, txttrace, simd, outdir)));
+        }
+        int failed = 0;
+        for (Future<String> f : results) {
+            String summary;
+            try {
+                summary = f.get();
+            } catch (ExecutionException e) {
+                summary = "internal error (" + e.getCause() + ")";
+            }
+            System.out.println(summary);
+        }
+        pool.shutdown();
+        for (Run r : runs) {
+            if (!r.success) ++failed;
+        }
+        return failed;
+    }
+
+    /**
+     * Writes the statistics of the executed runs: the success rate and
+     * the distributions of the final positions of the robot (of the runs
+     * where it is positioned), the simulated times and the wall times.
+     */
+    public void printStatistics() {
+        int n = runs.size();
+        int ok = 0;
+        double[] x = new double[n], y = new double[n];
+        double[] time = new double[n], wall = new double[n];
+        int npos = 0;
+        for (int i = 0; i < n; ++i) {
+            Run r = runs.get(i);
+            if (r.success) ++ok;
+            if (r.finalPose != null) {
+                x[npos] = r.finalPose[0];
+                y[npos] = r.finalPose[1];
+                ++npos;
+            }
+            time[i] = r.time;
+            wall[i] = r.wall;
+        }
+        System.out.format("Runs: %d, succeeded: %d (%.1f%%)%n", n, ok, n > 0 ? 100.0*ok/n : 0.0);
+        printDistribution("Final X", x, npos);
+        printDistribution("Final Y", y, npos);
+        printDistribution("Simulated time (s)", time, n);
+        printDistribution("Wall time (ms)", wall, n);
+    }
+
+    /** Writes the mean, standard deviation, minimum and maximum of v[0..n). */
+    private static void printDistribution(String title, double[] v, int n) {
+        if (n == 0) return;
+        double sum = 0.0, min = v[0], max = v[0];
+        for (int i = 0; i < n; ++i) {
+            sum += v[i];
+            min = Math.min(min, v[i]);
+            max = Math.max(max, v[i]);
+        }
+        double mean = sum/n;
+        double var = 0.0;
+        for (int i = 0; i < n; ++i) var += (v[i] - mean)*(v[i] - mean);
+        double std = n > 1 ? Math.sqrt(var/(n - 1)) : 0.0;
+        System.out.format("%s: mean %.4f, std %.4f, min %.4f, max %.4f%n", title, mean, std, min, max);
+    }
+
+    /**
+     * Executes a run with a new interpreter.
+     * @return The summary of the run.
+     */
+    private String execute(Run r, boolean txttrace, boolean simd, String outdir) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true);
+        long start = System.nanoTime();
+        String status = "ok";
+        Interp I = new Interp(program, null);
+        try {
+            I.setStreams(new ByteArrayInputStream(new byte[0]), out);
+            int occupancy = r.occupancy > 0 ? r.occupancy : defaultOccupancy;
+            if (occupancy > 0) I.setOccupancy(occupancy);
+            String world = r.world != null ? r.world : defaultWorld;
+            if (world != null) I.setWorld(world);
+            if (r.pose != null) I.setStartPose(r.pose[0], r.pose[1], r.pose[2]);
+            if (simd) I.setVectorKernel();
+            if (noise != null) I.setNoise(noise, r.rng);
+            I.setTimeWarp(0.0f);
+            I.setEngine(engine);
+            I.Run(true, txttrace);
+            r.success = I.succeeded();
+            if (!r.success) status = "failed";
+        } catch (RuntimeException e) {
+            status = "error (line " + I.lineNumber() + "): " + e.getMessage();
+            out.println("Runtime error (line " + I.lineNumber() + "): " + e.getMessage() + ".");
+            out.format(I.getStackTrace());
+        } catch (StackOverflowError e) {
+            status = "error (line " + I.lineNumber() + "): stack overflow";
+            out.println("Stack overflow error (line " + I.lineNumber() + ").");
+            out.format(I.getStackTrace(5));
+        }
+        long wall = (System.nanoTime() - start)/1000000;
+        out.flush();
+        r.time = I.getTime();
+        r.finalPose = I.getPose();
+        r.wall = wall;
+
+        if (outdir != null) {
+            try {
+                FileOutputStream file = new FileOutputStream(new File(outdir, r.name + ".out"));
+                try {
+                    buffer.writeTo(file);
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                status = "error: output could not be written (" + e.getMessage() + ")";
+                r.success = false;
+            }
+        }
+
+        StringBuilder s = new StringBuilder();
+        s.append(r.name).append(": ").append(status);
+        s.append(", time ").append((float)I.getTime());
+        float[] pose = I.getPose();
+        if (pose != null) {
+            s.append(", pose ").append(pose[0]).append(' ').append(pose[1]).append(' ').append(pose[2]);
+        }
+        s.append(", wall ").append(wall).append(" ms");
+        return s.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Virtual machine that executes the bytecode generated by the Compiler.
+ * The registers of each function are the slots of its activation record
+ * in the stack of the interpreter, so that the stack traces, the
+ * parameters passed by reference and the error messages are the same as
+ * in the tree interpreter. The builtins, the input/output and the trace
+ * of the function calls are delegated to the interpreter.
+ */
+
+public class VM {
+
+    /** Interpreter that executes the builtins. */
+    private Interp interp;
+
+    /** Memory of the interpreter. */
+    private Stack stack;
+
+    /** Bytecode of the functions (the operand of CALL is an index). */
+    private Bytecode[] functions;
+
+    /** True once the line of the current runtime error has been set. */
+    private boolean located = false;
+
+    /** Builtins indexed by ordinal (the operand of BCALL). */
+    private static final Builtin[] BUILTINS = Builtin.values();
+
+    /** Tokens of the operators, indexed by opcode. */
+    private static final int[] TOKENS = new int[Bytecode.GE + 1];
+
+    static {
+        TOKENS[Bytecode.ADD] = RobotLexer.PLUS;
+        TOKENS[Bytecode.SUB] = RobotLexer.MINUS;
+        TOKENS[Bytecode.MUL] = RobotLexer.MUL;
+        TOKENS[Bytecode.DIV] = RobotLexer.DIV;
+        TOKENS[Bytecode.MOD] = RobotLexer.MOD;
+        TOKENS[Bytecode.EQ] = RobotLexer.EQUAL;
+        TOKENS[Bytecode.NE] = RobotLexer.NOT_EQUAL;
+        TOKENS[Bytecode.LT] = RobotLexer.LT;
+        TOKENS[Bytecode.LE] = RobotLexer.LE;
+        TOKENS[Bytecode.GT] = RobotLexer.GT;
+        TOKENS[Bytecode.GE] = RobotLexer.GE;
+    }
+
+    public VM(Interp I, Stack S, Bytecode[] F) {
+        interp = I;
+        stack = S;
+        functions = F;
+    }
+
+    /**
+     * Executes a function without parameters (the main function).
+     * @return The data returned by the function.
+     */
+    public Data run(String name) {
+        for (Bytecode f : functions) {
+            if (f.name.equals(name)) return call(f, new Data[0], interp.lineNumber());
+        }
+        throw new RuntimeException(" function " + name + " not declared");
+    }
+
+    /**
+     * Executes a function.
+     * @param fn The bytecode of the function.
+     * @param argv The values of the arguments (already copied when passed
+     * by value).
+     * @param line The line number of the call.
+     * @return The data returned by the function.
+     */
+    private Data call(Bytecode fn, Data[] argv, int line) {
+        ArrayList<Data> traced = null;
+        if (interp.tracing()) {
+            traced = new ArrayList<Data>(Arrays.asList(argv));
+            interp.traceFunctionCall(fn.function, traced);
+        }
+        stack.pushActivationRecord(fn.name, line, fn.locals, fn.nregs);
+        int base = stack.getBase();
+        for (int i = 0; i < argv.length; ++i) stack.defineVariable(fn.params[i], argv[i]);
+        System.arraycopy(fn.consts, 0, stack.getSlots(), base + fn.nlocals, fn.consts.length);
+        Data result = execute(fn, base);
+        if (traced != null) interp.traceReturn(fn.function, result, traced);
+        stack.popActivationRecord();
+        return result;
+    }
+
+    /**
+     * Dispatch loop. The registers are reloaded after each call, since
+     * the slots of the stack may have been reallocated.
+     * @param fn The bytecode of the function.
+     * @param base The first slot of the activation record.
+     * @return The data returned by the function.
+     */
+    private Data execute(Bytecode fn, int base) {
+        final int[] code = fn.code;
+        Data[] r = stack.getSlots();
+        int pc = 0;
+        try {
+            while (true) {
+                int op = code[pc];
+                switch (op) {
+                    case Bytecode.COPY:
+                        r[base + code[pc+1]] = new Data(get(r, base, fn, code[pc+2]));
+                        pc += 3;
+                        break;
+
+                    case Bytecode.POS:
+                    case Bytecode.NEG:
+                    case Bytecode.NOT:
+                        r[base + code[pc+1]] = unary(op, get(r, base, fn, code[pc+2]));
+                        pc += 3;
+                        break;
+
+                    case Bytecode.ADD: case Bytecode.SUB: case Bytecode.MUL:
+                    case Bytecode.DIV: case Bytecode.MOD:
+                    case Bytecode.EQ: case Bytecode.NE: case Bytecode.LT:
+                    case Bytecode.LE: case Bytecode.GT: case Bytecode.GE: {
+                        Data a = get(r, base, fn, code[pc+2]);
+                        Data b = get(r, base, fn, code[pc+3]);
+                        r[base + code[pc+1]] = a.isInteger() && b.isInteger() ?
+                            intBinary(op, a.getIntegerValue(), b.getIntegerValue()) : binary(op, a, b);
+                        pc += 4;
+                        break;
+                    }
+
+                    case Bytecode.MOVEB: {
+                        Data a = get(r, base, fn, code[pc+2]);
+                        Interp.checkBoolean(a);
+                        r[base + code[pc+1]] = code[pc+2] < fn.nlocals ? new Data(a) : a;
+                        pc += 3;
+                        break;
+                    }
+
+                    case Bytecode.JMP:
+                        pc = code[pc+1];
+                        break;
+
+                    case Bytecode.JF:
+                    case Bytecode.JT: {
+                        Data a = r[base + code[pc+1]];
+                        Interp.checkBoolean(a);
+                        if (a.getBooleanValue() == (op == Bytecode.JT)) pc = code[pc+2];
+                        else pc += 3;
+                        break;
+                    }
+
+                    case Bytecode.STORE: {
+                        Data a = get(r, base, fn, code[pc+2]);
+                        int v = base + code[pc+1];
+                        if (r[v] == null) r[v] = new Data(a);
+                        else r[v].setData(a);
+                        pc += 3;
+                        break;
+                    }
+
+                    case Bytecode.CALL: {
+                        Bytecode callee = functions[code[pc+2]];
+                        int n = code[pc+3];
+                        Data[] argv = new Data[n];
+                        for (int i = 0; i < n; ++i) {
+                            Data a = get(r, base, fn, code[pc+4+i]);
+                            argv[i] = callee.byRef[i] ? a : new Data(a);
+                        }
+                        interp.setLineNumber(fn.lines[pc]);
+                        Data result = call(callee, argv, fn.lines[pc]);
+                        r = stack.getSlots();
+                        r[base + code[pc+1]] = result;
+                        pc += 4 + n;
+                        break;
+                    }
+
+                    case Bytecode.BCALL: {
+                        int n = code[pc+3];
+                        Data[] argv = new Data[n];
+                        for (int i = 0; i < n; ++i) argv[i] = get(r, base, fn, code[pc+4+i]);
+                        r[base + code[pc+1]] = interp.executeBuiltin(BUILTINS[code[pc+2]], argv);
+                        pc += 4 + n;
+                        break;
+                    }
+
+                    case Bytecode.VALUE:
+                        if (r[base + code[pc+1]].isVoid()) {
+                            throw new RuntimeException ("function expected to return a value");
+                        }
+                        pc += 2;
+                        break;
+
+                    case Bytecode.RET:
+                        interp.setLineNumber(fn.lines[pc]);
+                        return r[base + code[pc+1]];
+
+                    case Bytecode.RETV:
+                        interp.setLineNumber(fn.lines[pc]);
+                        return Data.VOID;
+
+                    case Bytecode.READ: {
+                        interp.setLineNumber(fn.lines[pc]);
+                        Data a = interp.readValue();
+                        int v = base + code[pc+1];
+                        if (r[v] == null) r[v] = a;
+                        else r[v].setData(a);
+                        pc += 2;
+                        break;
+                    }
+
+                    case Bytecode.WRITES:
+                        interp.getOutput().format(r[base + code[pc+1]].getStringValue());
+                        pc += 2;
+                        break;
+
+                    case Bytecode.WRITE:
+                        interp.getOutput().print(get(r, base, fn, code[pc+1]).toString());
+                        pc += 2;
+                        break;
+
+                    case Bytecode.ERROR:
+                        throw new RuntimeException (r[base + code[pc+1]].getStringValue());
+
+                    default: assert false; // Should never happen
+                }
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            // The innermost function reports the line of the error
+            if (!located) {
+                located = true;
+                interp.setLineNumber(fn.lines[pc]);
+            }
+            throw e;
+        }
+    }
+
+    /** Reads a register, checking that the variable is defined. */
+    private static Data get(Data[] r, int base, Bytecode fn, int reg) {
+        Data v = r[base + reg];
+        if (v == null) throw new RuntimeException ("Variable " + fn.locals[reg] + " not defined");
+        return v;
+    }
+
+    /** Evaluates an operator with two integers. */
+    private static Data intBinary(int op, int a, int b) {
+        switch (op) {
+            case Bytecode.ADD: return new Data(a + b);
+            case Bytecode.SUB: return new Data(a - b);
+            case Bytecode.MUL: return new Data(a * b);
+            case Bytecode.DIV:
+                if (b == 0) throw new RuntimeException ("Division by zero");
+                return new Data(a / b);
+            case Bytecode.MOD:
+                if (b == 0) throw new RuntimeException ("Division by zero");
+                return new Data(a % b);
+            case Bytecode.EQ: return Data.valueOf(a == b);
+            case Bytecode.NE: return Data.valueOf(a != b);
+            case Bytecode.LT: return Data.valueOf(a < b);
+            case Bytecode.LE: return Data.valueOf(a <= b);
+            case Bytecode.GT: return Data.valueOf(a > b);
+            case Bytecode.GE: return Data.valueOf(a >= b);
+            default: assert false; return null;
+        }
+    }
+
+    /**
+     * Evaluates an operator with the same checks as the tree interpreter.
+     * The operands are not modified.
+     */
+    private static Data binary(int op, Data a, Data b) {
+        int type = TOKENS[op];
+        if (op >= Bytecode.EQ) {
+            if (a.getType() != b.getType()) {
+                throw new RuntimeException ("Incompatible types in relational expression");
+            }
+            return a.evaluateRelational(type, b);
+        }
+        if (op == Bytecode.ADD) {
+            if (b.isInteger()) { Interp.checkNumeric(a); Interp.checkNumeric(b); }
+        } else if (op == Bytecode.MOD) {
+            Interp.checkInteger(a); Interp.checkInteger(b);
+        } else {
+            Interp.checkNumeric(a); Interp.checkNumeric(b);
+        }
+        Data v = new Data(a);
+        v.evaluateArithmetic(type, b);
+        return v;
+    }
+
+    /** Evaluates a unary operator. The operand is not modified. */
+    private static Data unary(int op, Data a) {
+        switch (op) {
+            case Bytecode.POS:
+                Interp.checkNumeric(a);
+                return new Data(a);
+            case Bytecode.NEG:
+                Interp.checkNumeric(a);
+                return a.isFloat() ? new Data(-a.getFloatValue()) : new Data(-a.getIntegerValue());
+            default:
+                Interp.checkBoolean(a);
+                return Data.valueOf(!a.getBooleanValue());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package interp;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Collision kernel that uses the Vector API to test the circle against
+ * as many boxes per instruction as the preferred vector species allows
+ * (8 floats with AVX2, 16 with AVX-512). The remaining boxes of the batch
+ * are tested with scalar code. For each box, the distance between the
+ * center of the circle and the box is compared with the radius.
+ * It requires the module jdk.incubator.vector.
+ */
+
+public class VectorKernel implements CollisionKernel {
+
+    /** Vector species used by the kernel. */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /** Returns the number of boxes tested per instruction. */
+    public static int lanes() { return SPECIES.length(); }
+
+    public boolean overlaps(float[] cx, float[] cy, float[] hx, float[] hy, int n,
+                            float x, float y, float r) {
+        float r2 = r*r;
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        if (bound > 0) {
+            FloatVector vx = FloatVector.broadcast(SPECIES, x);
+            FloatVector vy = FloatVector.broadcast(SPECIES, y);
+            FloatVector vr2 = FloatVector.broadcast(SPECIES, r2);
+            for (; i < bound; i += SPECIES.length()) {
+                FloatVector ex = FloatVector.fromArray(SPECIES, cx, i).sub(vx).abs()
+                                 .sub(FloatVector.fromArray(SPECIES, hx, i)).max(0.0f);
+                FloatVector ey = FloatVector.fromArray(SPECIES, cy, i).sub(vy).abs()
+                                 .sub(FloatVector.fromArray(SPECIES, hy, i)).max(0.0f);
+                FloatVector d2 = ex.fma(ex, ey.mul(ey));
+                if (d2.compare(VectorOperators.LE, vr2).anyTrue()) return true;
+            }
+        }
+        for (; i < n; ++i) {
+            float ex = Math.max(Math.abs(cx[i] - x) - hx[i], 0.0f);
+            float ey = Math.max(Math.abs(cy[i] - y) - hy[i], 0.0f);
+            if (ex*ex + ey*ey <= r2) return true;
+        }
+        return false;
+    }
+}